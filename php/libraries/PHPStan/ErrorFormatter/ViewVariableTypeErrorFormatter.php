@@ -0,0 +1,44 @@
+<?php
+
+declare(strict_types=1);
+
+namespace App\Libraries\PHPStan\ErrorFormatter;
+
+use App\Libraries\PHPStan\Rules\SetVarArgumentTypeRule;
+use PHPStan\Command\AnalysisResult;
+use PHPStan\Command\ErrorFormatter\ErrorFormatter;
+use PHPStan\Command\Output;
+
+/**
+ * SetVarArgumentTypeRule が収集した setVar の値の型を、プラグインが読み込む JSON として出力する。
+ *
+ * vendor/bin/phpstan analyse --error-format=viewVariableTypes > .phpstan-view-types.json
+ *
+ * {"types": [{"class": "...", "method": "indexAction", "var": "sum", "type": "int"}]}
+ */
+class ViewVariableTypeErrorFormatter implements ErrorFormatter
+{
+    public function formatErrors(AnalysisResult $analysisResult, Output $output): int
+    {
+        $types = [];
+        foreach ($analysisResult->getFileSpecificErrors() as $error) {
+            if ($error->getIdentifier() !== SetVarArgumentTypeRule::IDENTIFIER) {
+                continue;
+            }
+            $metadata = $error->getMetadata();
+            if (!isset($metadata['class'], $metadata['method'], $metadata['var'], $metadata['type'])) {
+                continue;
+            }
+            $types[] = [
+                'class' => $metadata['class'],
+                'method' => $metadata['method'],
+                'var' => $metadata['var'],
+                'type' => $metadata['type'],
+            ];
+        }
+
+        $output->writeRaw(json_encode(['types' => $types], JSON_UNESCAPED_SLASHES | JSON_UNESCAPED_UNICODE | JSON_THROW_ON_ERROR));
+
+        return 0;
+    }
+}
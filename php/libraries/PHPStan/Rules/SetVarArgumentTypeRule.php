@@ -17,6 +17,11 @@ use PHPStan\Type\TypeWithClassName;
  */
 class SetVarArgumentTypeRule implements Rule
 {
+    /**
+     * ViewVariableTypeErrorFormatter が型の情報を取り出すための識別子
+     */
+    public const IDENTIFIER = 'viewVariable.setVarType';
+
     public function getNodeType(): string
     {
         return MethodCall::class;
@@ -48,11 +53,26 @@ class SetVarArgumentTypeRule implements Rule
 
         $keyArg = $node->args[0]->value;
         $valueArg = $node->args[1]->value;
+        if (!($keyArg instanceof Node\Scalar\String_)) {
+            return [];
+        }
         $type = $scope->getType($valueArg);
         $description = $type->describe(\PHPStan\Type\VerbosityLevel::typeOnly());
 
+        // プラグインが (クラス, メソッド, 変数) -> 型 として読み込めるよう、メタデータにも格納する
+        $classReflection = $scope->getClassReflection();
+        $functionName = $scope->getFunctionName();
+
         return [
-            RuleErrorBuilder::message("setVar('{$keyArg->value}', ...) の値の型は: {$description}")->build()
+            RuleErrorBuilder::message("setVar('{$keyArg->value}', ...) の値の型は: {$description}")
+                ->identifier(self::IDENTIFIER)
+                ->metadata([
+                    'class' => $classReflection !== null ? $classReflection->getName() : null,
+                    'method' => $functionName,
+                    'var' => $keyArg->value,
+                    'type' => $description,
+                ])
+                ->build()
         ];
     }
 }
\ No newline at end of file
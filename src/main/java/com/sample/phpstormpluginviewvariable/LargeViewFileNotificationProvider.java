@@ -0,0 +1,40 @@
+package com.sample.phpstormpluginviewvariable;
+
+import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.options.ShowSettingsUtil;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.EditorNotificationPanel;
+import com.intellij.ui.EditorNotificationProvider;
+import com.sample.phpstormpluginviewvariable.model.LargeViewFile;
+import com.sample.phpstormpluginviewvariable.settings.ViewVariableConfigurable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.JComponent;
+import java.util.function.Function;
+
+/**
+ * LargeViewFileNotificationProvider
+ * 縮退モード（LargeViewFile）で扱っているViewファイルのエディタ上部に、その旨と閾値の設定へのリンクを表示する。
+ */
+public class LargeViewFileNotificationProvider implements EditorNotificationProvider, DumbAware {
+
+    @Override
+    public @Nullable Function<? super @NotNull FileEditor, ? extends @Nullable JComponent> collectNotificationData(@NotNull Project project,
+                                                                                                              @NotNull VirtualFile file) {
+        String reason = LargeViewFile.getReason(file, project);
+        if (reason == null) {
+            return null;
+        }
+        return fileEditor -> {
+            EditorNotificationPanel panel = new EditorNotificationPanel(fileEditor, EditorNotificationPanel.Status.Info);
+            panel.setText("Large view (" + reason + "): view variables are resolved from the index only."
+                    + " Scope checks, inlay hints and completion types are disabled for this file.");
+            panel.createActionLabel("Change thresholds",
+                    () -> ShowSettingsUtil.getInstance().showSettingsDialog(project, ViewVariableConfigurable.class));
+            return panel;
+        };
+    }
+}
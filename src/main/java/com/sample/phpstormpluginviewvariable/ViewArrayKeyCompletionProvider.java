@@ -0,0 +1,56 @@
+package com.sample.phpstormpluginviewvariable;
+
+import com.intellij.codeInsight.completion.CompletionParameters;
+import com.intellij.codeInsight.completion.CompletionProvider;
+import com.intellij.codeInsight.completion.CompletionResultSet;
+import com.intellij.codeInsight.lookup.LookupElementBuilder;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.ProcessingContext;
+import com.jetbrains.php.PhpIcons;
+import com.jetbrains.php.lang.psi.elements.ArrayAccessExpression;
+import com.sample.phpstormpluginviewvariable.model.ArrayShape;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import com.sample.phpstormpluginviewvariable.util.PhpTypeString;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * ViewArrayKeyCompletionProvider
+ * Viewファイルでの配列キーのオートコンプリート候補を提供するProvider。
+ * $config['|'] の形で、setVarで渡された配列シェイプのキーを補完する。
+ */
+public class ViewArrayKeyCompletionProvider extends CompletionProvider<CompletionParameters> {
+
+    @Override
+    protected void addCompletions(@NotNull CompletionParameters parameters,
+                                  @NotNull ProcessingContext context,
+                                  @NotNull CompletionResultSet result) {
+        PsiElement position = parameters.getPosition();
+        VirtualFile virtualFile = parameters.getOriginalFile().getVirtualFile();
+        if (virtualFile == null || !ViewFile.isViewFile(virtualFile)) {
+            return;
+        }
+
+        ArrayAccessExpression access = PsiTreeUtil.getParentOfType(position, ArrayAccessExpression.class);
+        if (access == null) {
+            return;
+        }
+
+        // シェイプはsetVarごとに変数テーブルにキャッシュされているため、配列リテラルを再走査しない
+        ArrayShape shape = ArrayShape.resolveShape(access.getValue(), ViewVariableTable.getInstance(parameters.getOriginalFile()));
+        if (shape == null) {
+            Log.info("No array shape found for: " + access.getValue());
+            return;
+        }
+
+        for (ArrayShape.Entry entry : shape.getEntries()) {
+            result.addElement(LookupElementBuilder.create(entry.getKey())
+                    .withIcon(PhpIcons.FIELD)
+                    .withTypeText(PhpTypeString.getSafeTypeString(entry.getType())));
+        }
+        Log.info("Added " + shape.getEntries().size() + " array key completions");
+    }
+}
@@ -2,8 +2,8 @@ package com.sample.phpstormpluginviewvariable;
 
 import com.jetbrains.php.lang.psi.PhpFile;
 import com.jetbrains.php.lang.psi.PhpPredefinedVariableProvider;
-import com.jetbrains.php.lang.psi.elements.*;
-import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
 import com.sample.phpstormpluginviewvariable.util.Log;
 import org.jetbrains.annotations.NotNull;
 import java.util.HashSet;
@@ -45,31 +45,9 @@ public class ViewPredefinedVariableProvider implements PhpPredefinedVariableProv
 
         Log.info("Getting view variables for: " + viewFile.getName());
 
-        var methodRefs = ControllerFile.getMethodReferences(viewFile.getVirtualFile(), viewFile.getProject());
-        Log.info("Found " + methodRefs.size() + " method references");
-
-        for (MethodReference methodRef : methodRefs) {
-            Log.info("Checking method reference: " + methodRef.getName());
-            if (!"setVar".equals(methodRef.getName())) {
-                continue;
-            }
-
-            // 第一引数が変数名を取得
-            var args = methodRef.getParameters();
-            Log.info("Method has " + args.length + " parameters");
-            if (args.length < 2) {
-                continue;
-            }
-
-            if (!(args[0] instanceof StringLiteralExpression)) {
-                Log.info("First argument is not a string literal");
-                continue;
-            }
-
-            StringLiteralExpression keyArg = (StringLiteralExpression) args[0];
-            String varName = keyArg.getContents();
-            variables.add(varName);
-            Log.info("Found variable in controller: " + varName);
+        for (ViewVariable viewVariable : ViewVariableTable.getInstance(viewFile).getVariables()) {
+            variables.add(viewVariable.getName());
+            Log.info("Found variable in controller: " + viewVariable.getName());
         }
 
         Log.info("Total variables found: " + variables.size());
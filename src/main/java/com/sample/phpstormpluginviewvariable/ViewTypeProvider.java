@@ -2,28 +2,44 @@ package com.sample.phpstormpluginviewvariable;
 
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFileWithId;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.jetbrains.php.lang.psi.elements.ArrayAccessExpression;
+import com.jetbrains.php.lang.psi.elements.ArrayIndex;
 import com.jetbrains.php.lang.psi.elements.PhpNamedElement;
-import com.jetbrains.php.lang.psi.elements.Variable;
 import com.jetbrains.php.lang.psi.elements.StringLiteralExpression;
-import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.Variable;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import com.jetbrains.php.lang.psi.resolve.types.PhpTypeProvider4;
-import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ArrayShape;
+import com.sample.phpstormpluginviewvariable.model.LargeViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewScope;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import com.sample.phpstormpluginviewvariable.stub.ViewContractStubService;
 import com.sample.phpstormpluginviewvariable.util.Log;
 import com.sample.phpstormpluginviewvariable.util.PhpTypeString;
+import com.sample.phpstormpluginviewvariable.util.ResolutionTrace;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 /**
  * ViewTypeProvider
  * Viewファイル内で使用されている変数の型推論を担当するTypeProvider。
  * ControllerのsetVarで渡された値の型をView側で推論できるようにする。
+ * getTypeではインデックスを使えないため、Viewファイルと変数名（配列アクセスの場合はキー）を表すシグネチャ
+ * （#☆ファイルID.変数名[キー]...）だけを返し、変数テーブルの参照とControllerの解決はcompleteで行う。
  */
 public class ViewTypeProvider implements PhpTypeProvider4 {
+    private static final String SIGNATURE_PREFIX = "#☆";
 
     /**
      * このTypeProviderのユニークキーを返す。
@@ -40,20 +56,36 @@ public class ViewTypeProvider implements PhpTypeProvider4 {
     @Nullable
     @Override
     public PhpType getType(PsiElement psiElement) {
-        Log.info("getType: " + psiElement);
-
-        if (!(psiElement instanceof Variable)) {
+        if (!(psiElement instanceof Variable) && !(psiElement instanceof ArrayAccessExpression)) {
             return null;
         }
 
-        // ビューファイル内の変数かを確認
+        // ビューファイル内の変数かを確認（判定結果はファイルごとに保持されている）
         if (!isInViewFile(psiElement)) {
             return null;
         }
+        Log.info("getType: " + psiElement);
+
+        // クロージャの引数で隠されている変数や、取り込まれていない変数はControllerの変数として扱わない
+        if (!resolvesToView(psiElement)) {
+            return null;
+        }
+
+        // 配列シェイプのキーの型を推論（$config['title']）
+        if (psiElement instanceof ArrayAccessExpression) {
+            return createSignature(psiElement);
+        }
 
-        // コントローラーでの変数定義を検索し、型を推論
         Variable variable = (Variable)psiElement;
-        return inferVariableTypeFromController(variable);
+
+        // スタブモードでは生成済みの契約クラスのプロパティを指すシグネチャを返し、解決はPHPのインデックスに任せる
+        ViewContractStubService stubService = ViewContractStubService.getInstance(variable.getProject());
+        if (stubService.isEnabled()) {
+            return inferVariableTypeFromStub(variable, stubService);
+        }
+
+        // コントローラーでの変数定義の検索はcompleteで行う
+        return createSignature(variable);
     }
 
     /**
@@ -61,95 +93,155 @@ public class ViewTypeProvider implements PhpTypeProvider4 {
      */
     private boolean isInViewFile(PsiElement element) {
         PsiFile containingFile = element.getContainingFile();
-        if (containingFile == null) {
-            return false;
+        return containingFile != null && ViewFile.isViewFile(containingFile.getOriginalFile().getVirtualFile());
+    }
+
+    /**
+     * 変数（配列アクセスの場合はその元の変数）が、Viewのスコープの木を辿ってファイルのスコープの変数を参照しているかどうかを判定する。
+     * 縮退モードのViewではスコープの木を作らず（ファイル全体を走査せず）、名前だけで判定する。
+     * 縮退モードの判定はインデックスを参照しないもの（ファイルサイズと判定済みの結果）を使う。
+     */
+    private boolean resolvesToView(PsiElement element) {
+        PsiElement base = element;
+        while (base instanceof ArrayAccessExpression access) {
+            base = access.getValue();
         }
-        
-        VirtualFile virtualFile = containingFile.getVirtualFile();
-        if (virtualFile == null) {
-            return false;
+        if (!(base instanceof Variable variable) || variable.getName() == null || LargeViewFile.isLargeWithoutIndex(variable.getContainingFile())) {
+            return true;
         }
-        
-        String filePath = virtualFile.getPath();
-        return filePath.contains("/views/") && filePath.endsWith(".php");
+        return ViewScope.getRoot(variable.getContainingFile()).resolvesToView(variable.getName(), variable.getTextRange().getStartOffset());
     }
 
     /**
-     * ControllerのsetVar呼び出しから、変数の型を推論する。
+     * 変数・配列アクセスを表すシグネチャ（#☆ファイルID.変数名[キー]...）を返す。
+     * PSIの走査だけで作成し、インデックスや変数テーブルは参照しない。キーが文字列リテラルでない場合はnullを返す。
      */
-    private PhpType inferVariableTypeFromController(Variable variable) {
-        Log.info("inferVariableTypeFromController: " + variable);
-
-        String varName = variable.getName();
-        Project project = variable.getProject();
-        PsiFile viewFile = variable.getContainingFile();
-        
-        if (viewFile == null) {
-            Log.info("View file is null");
+    @Nullable
+    public static PhpType createSignature(PsiElement element) {
+        List<String> keys = new ArrayList<>();
+        PsiElement base = element;
+        while (base instanceof ArrayAccessExpression access) {
+            ArrayIndex index = access.getIndex();
+            if (index == null || !(index.getValue() instanceof StringLiteralExpression key) || !isSignatureSafe(key.getContents())) {
+                return null;
+            }
+            keys.add(0, key.getContents());
+            base = access.getValue();
+        }
+        if (!(base instanceof Variable variable) || variable.getName() == null || variable.getName().isEmpty()) {
             return null;
         }
-        
-        VirtualFile viewVirtualFile = viewFile.getVirtualFile();
-        if (viewVirtualFile == null) {
-            Log.info("View virtual file is null");
+
+        PsiFile viewFile = variable.getContainingFile();
+        VirtualFile viewVirtualFile = viewFile != null ? viewFile.getOriginalFile().getVirtualFile() : null;
+        if (!(viewVirtualFile instanceof VirtualFileWithId fileWithId)) {
             return null;
         }
 
-        // ビューファイルに対応するコントローラーのメソッド参照を取得
-        var methodRefs = ControllerFile.getMethodReferences(viewVirtualFile, project);
+        StringBuilder signature = new StringBuilder(SIGNATURE_PREFIX).append(fileWithId.getId()).append('.').append(variable.getName());
+        for (String key : keys) {
+            signature.append('[').append(key).append(']');
+        }
+        return new PhpType().add(signature.toString());
+    }
 
-        for (MethodReference methodRef : methodRefs) {
-            if (!"setVar".equals(methodRef.getName())) {
-                continue;
-            }
+    /**
+     * シグネチャの区切り文字を含まないキーかどうかを判定する。
+     */
+    private static boolean isSignatureSafe(String key) {
+        return key.indexOf('|') < 0 && key.indexOf('#') < 0 && key.indexOf('[') < 0 && key.indexOf(']') < 0;
+    }
 
-            // 第一引数が変数名と一致するか確認
-            PsiElement[] args = methodRef.getParameters();
-            if (args.length < 2) {
-                continue;
-            }
+    /**
+     * 契約クラスのプロパティのシグネチャ（#P#C\PhpStormViewContract\View_xxx.name）を返す。
+     * 変数テーブルは参照しないため、型の解決はPhpStormのインデックスとキャッシュで行われる。
+     */
+    private PhpType inferVariableTypeFromStub(Variable variable, ViewContractStubService stubService) {
+        PsiFile viewFile = variable.getContainingFile();
+        VirtualFile viewVirtualFile = viewFile != null ? viewFile.getOriginalFile().getVirtualFile() : null;
+        String varName = variable.getName();
+        if (viewVirtualFile == null || varName == null || varName.isEmpty()) {
+            return null;
+        }
+        return new PhpType().add("#P#C" + stubService.getContractFqn(viewVirtualFile) + "." + varName);
+    }
 
-            if (!(args[0] instanceof StringLiteralExpression)) {
-                continue;
-            }
+    /**
+     * getTypeで返したシグネチャを、ControllerのsetVarで渡された値の型に置き換える。
+     * インデックスの作成中でない状態で（getTypeの外で）呼ばれるため、変数テーブルの作成・参照はここで行う。
+     */
+    @Override
+    public @Nullable PhpType complete(String signature, Project project) {
+        Log.info("complete: " + signature);
+        if (signature == null || !signature.startsWith(SIGNATURE_PREFIX)) {
+            return null;
+        }
 
-            StringLiteralExpression keyArg = (StringLiteralExpression) args[0];
-            if (!varName.equals(keyArg.getContents())) {
-                continue;
-            }
+        int nameStart = signature.indexOf('.', SIGNATURE_PREFIX.length());
+        if (nameStart < 0) {
+            return null;
+        }
+        int nameEnd = signature.indexOf('[', nameStart);
+        String varName = signature.substring(nameStart + 1, nameEnd < 0 ? signature.length() : nameEnd);
 
-            // 第二引数の型をPhpStormの型推論システムで取得
-            PsiElement valueArg = args[1];
-            if (valueArg instanceof com.jetbrains.php.lang.psi.elements.PhpExpression) {
-                PhpType type = ((com.jetbrains.php.lang.psi.elements.PhpExpression) valueArg).getType();
-                if (!type.isEmpty()) {
-                    // PhpTypeの文字列表現を安全に取得
-                    String typeString = PhpTypeString.getSafeTypeString(type);
-                    Log.info("Inferred type for " + varName + ": " + typeString);
-                    return type;
-                }
-            }
+        VirtualFile viewVirtualFile;
+        try {
+            viewVirtualFile = VirtualFileManager.getInstance().findFileById(Integer.parseInt(signature.substring(SIGNATURE_PREFIX.length(), nameStart)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        PsiFile viewFile = viewVirtualFile != null && viewVirtualFile.isValid() ? PsiManager.getInstance(project).findFile(viewVirtualFile) : null;
+        if (viewFile == null) {
+            return null;
         }
 
-        Log.info("No matching setVar call found for variable: " + varName);
-        return null;
+        long start = System.nanoTime();
+        ViewVariable viewVariable = ViewVariableTable.getInstance(viewFile).get(varName);
+        ResolutionTrace.record("ViewTypeProvider", viewVirtualFile, null, varName, viewVariable != null, start);
+        if (viewVariable == null) {
+            Log.info("No matching setVar call found for variable: " + varName);
+            return null;
+        }
+        if (nameEnd < 0) {
+            Log.info("Inferred type for " + varName + ": " + PhpTypeString.getSafeTypeString(viewVariable.getType()));
+            return viewVariable.getType().isEmpty() ? null : viewVariable.getType();
+        }
+        return completeArrayKey(viewVariable, signature.substring(nameEnd));
     }
 
     /**
-     * 型補完用（未実装）。
+     * setVarで渡された配列のシェイプから、キーの並び（[a][b]...）に対応する要素の型を返す。
      */
-    @Override
-    public @Nullable PhpType complete(String s, Project project) {
-        Log.info("complete: " + s);
-        return null; // 実装省略
+    private PhpType completeArrayKey(ViewVariable viewVariable, String keys) {
+        ArrayShape shape = viewVariable.getArrayShape();
+        ArrayShape.Entry entry = null;
+        int position = 0;
+        while (position < keys.length()) {
+            int end = keys.indexOf(']', position);
+            if (shape == null || keys.charAt(position) != '[' || end < 0) {
+                return null;
+            }
+            entry = shape.get(keys.substring(position + 1, end));
+            if (entry == null) {
+                return null;
+            }
+            shape = entry.getShape();
+            position = end + 1;
+        }
+        if (entry == null || entry.getType().isEmpty()) {
+            return null;
+        }
+
+        Log.info("Inferred array key type for " + entry.getKey() + ": " + PhpTypeString.getSafeTypeString(entry.getType()));
+        return entry.getType();
     }
 
     /**
-     * シグネチャから要素を取得（未実装）。
+     * シグネチャから要素を取得する。ViewTypeProviderのシグネチャはcompleteで型に置き換えられるため、要素としては解決しない。
      */
     @Override
     public Collection<? extends PhpNamedElement> getBySignature(String s, Set<String> set, int i, Project project) {
         Log.info("getBySignature: " + s);
-        return null; // 実装省略
+        return null;
     }
 }
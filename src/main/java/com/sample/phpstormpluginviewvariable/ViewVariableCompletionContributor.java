@@ -3,6 +3,8 @@ package com.sample.phpstormpluginviewvariable;
 import com.intellij.codeInsight.completion.*;
 import com.jetbrains.php.lang.lexer.PhpTokenTypes;
 import com.jetbrains.php.lang.patterns.PhpPatterns;
+import com.jetbrains.php.lang.psi.elements.ArrayIndex;
+import com.jetbrains.php.lang.psi.elements.StringLiteralExpression;
 import com.sample.phpstormpluginviewvariable.util.Log;
 
 /**
@@ -25,5 +27,12 @@ public class ViewVariableCompletionContributor extends CompletionContributor {
                 PhpPatterns.psiElement(PhpTokenTypes.IDENTIFIER)
                     .afterLeaf(PhpPatterns.psiElement(PhpTokenTypes.ARROW)),
                 new ViewObjectPropertyCompletionProvider());
+
+        // 配列キーの補完（$config['key']）
+        extend(CompletionType.BASIC,
+                PhpPatterns.psiElement()
+                    .withParent(StringLiteralExpression.class)
+                    .withSuperParent(2, ArrayIndex.class),
+                new ViewArrayKeyCompletionProvider());
     }
 }
@@ -3,24 +3,31 @@ package com.sample.phpstormpluginviewvariable;
 import com.intellij.codeInsight.completion.CompletionParameters;
 import com.intellij.codeInsight.completion.CompletionProvider;
 import com.intellij.codeInsight.completion.CompletionResultSet;
+import com.intellij.codeInsight.lookup.LookupElement;
 import com.intellij.codeInsight.lookup.LookupElementBuilder;
+import com.intellij.codeInsight.lookup.LookupElementPresentation;
+import com.intellij.codeInsight.lookup.LookupElementRenderer;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.util.ProcessingContext;
 import com.jetbrains.php.PhpIcons;
-import com.jetbrains.php.lang.psi.PhpFile;
 import com.jetbrains.php.lang.psi.elements.*;
-import com.jetbrains.php.lang.psi.resolve.types.PhpType;
-import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.index.ViewVariableIndex;
+import com.sample.phpstormpluginviewvariable.model.LargeViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
 import com.sample.phpstormpluginviewvariable.util.Log;
-import com.sample.phpstormpluginviewvariable.util.PhpTypeString;
+import com.sample.phpstormpluginviewvariable.util.ResolutionTrace;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 public class ViewVariableCompletionProvider extends CompletionProvider<CompletionParameters> {
     @Override
@@ -45,27 +52,49 @@ public class ViewVariableCompletionProvider extends CompletionProvider<Completio
 
         Log.info("Adding view variable completions for InvocationCount: " + parameters.getInvocationCount());
 
-        // コントローラーからsetVarで設定された変数を取得
-        Map<String, String> viewVariables = getViewVariablesFromController(position);
+        // コントローラーからsetVarで設定された変数を取得（型の文字列はここでは計算しない）
+        long start = System.nanoTime();
+        Collection<ViewVariable> viewVariables = getViewVariablesFromController(position);
+        VirtualFile viewVirtualFile = parameters.getOriginalFile().getVirtualFile();
+        ResolutionTrace.record("ViewVariableCompletion", viewVirtualFile, null, null, !viewVariables.isEmpty(), start);
+        if (viewVariables.isEmpty()) {
+            return;
+        }
+
+        // Viewファイル内で既に定義されている変数は、ファイルを1回だけ走査して集める
+        // 縮退モードのViewでは走査せずにインデックスの変数名を使い、候補は変数名だけにする（型の文字列を計算しない）
+        boolean large = LargeViewFile.isLarge(parameters.getOriginalFile());
+        Set<String> definedVariables = large
+                ? collectIndexedVariables(parameters.getOriginalFile())
+                : collectVariablesDefinedInViewFile(position);
+        Project project = position.getProject();
 
         // 各変数を補完候補として追加
-        for (Map.Entry<String, String> entry : viewVariables.entrySet()) {
-            String varName = entry.getKey();
-            String type = entry.getValue();
+        for (ViewVariable viewVariable : viewVariables) {
+            String varName = viewVariable.getName();
 
             // Viewファイル内で既に定義されている変数かチェック
-            if (isVariableDefinedInViewFile(position, varName)) {
+            if (definedVariables.contains(varName)) {
                 Log.info("Variable already defined in view file, skipping: " + varName);
                 continue;
             }
-            
-            LookupElementBuilder element = LookupElementBuilder.create("$" + varName)
-                    .withTypeText(type)
+
+            // 候補は変数名だけで作成し、型の文字列は表示される候補についてのみバックグラウンドで計算する
+            LookupElementBuilder element = LookupElementBuilder.create(viewVariable, "$" + varName)
                     .withIcon(PhpIcons.VARIABLE)
                     .withPresentableText(varName);
+            if (!large) {
+                element = element.withExpensiveRenderer(new LookupElementRenderer<>() {
+                    @Override
+                    public void renderElement(LookupElement lookupElement, LookupElementPresentation presentation) {
+                        lookupElement.renderElement(presentation);
+                        presentation.setTypeText(viewVariable.getTypeText(project));
+                    }
+                });
+            }
 
             result.addElement(element);
-            Log.info("Added completion candidate: $" + varName + " with type: " + type);
+            Log.info("Added completion candidate: $" + varName);
         }
     }
 
@@ -115,90 +144,43 @@ public class ViewVariableCompletionProvider extends CompletionProvider<Completio
      * 指定したPsiElementがViewファイル内かどうかを判定する。
      */
     private boolean isInViewFile(PsiElement element) {
-        PsiFile containingFile = element.getContainingFile();
-
-        // オリジナルファイルを取得
-        PsiFile originalFile = containingFile.getOriginalFile();
-        VirtualFile virtualFile = originalFile.getVirtualFile();
-        if (virtualFile == null) {
-            return false;
-        }
-
-        String filePath = virtualFile.getPath();
-        // WindowsとUnixのパス区切り文字に対応
-        String normalizedPath = filePath.replace("\\", "/");
-        boolean isView = normalizedPath.contains("/views/") && filePath.endsWith(".php");
-        Log.info("File path: " + filePath + " (normalized: " + normalizedPath + "), is view: " + isView);
-        return isView;
+        // オリジナルファイルで判定する
+        return ViewFile.isViewFile(element.getContainingFile().getOriginalFile().getVirtualFile());
     }
 
     /**
-     * コントローラーからsetVarで設定された変数名と型を取得する。
+     * コントローラーからsetVarで設定された変数を取得する。
      */
-    private Map<String, String> getViewVariablesFromController(PsiElement element) {
-        Map<String, String> variables = new HashMap<>();
-
-        PsiFile containingFile = element.getContainingFile();
-
+    private Collection<ViewVariable> getViewVariablesFromController(PsiElement element) {
         // オリジナルファイルを取得
-        PsiFile originalFile = containingFile.getOriginalFile();
-        VirtualFile virtualFile = originalFile.getVirtualFile();
-        if (virtualFile == null) {
-            return variables;
-        }
-
-        Project project = element.getProject();
-
-        // ビューファイルに対応するコントローラーのメソッド参照を取得
-        var methodRefs = ControllerFile.getMethodReferences(virtualFile, project);
-        Log.info("Found " + methodRefs.size() + " method references from controller");
-
-        for (MethodReference methodRef : methodRefs) {
-            if (!"setVar".equals(methodRef.getName())) {
-                continue;
-            }
-
-            // 第一引数が変数名を取得
-            var args = methodRef.getParameters();
-            if (args.length < 2) {
-                continue;
-            }
-
-            if (!(args[0] instanceof StringLiteralExpression)) {
-                continue;
-            }
-
-            StringLiteralExpression keyArg = (StringLiteralExpression) args[0];
-            String varName = keyArg.getContents();
-
-            // 第二引数の型をPhpStormの型推論システムで取得
-            String type = "mixed";
-            if (args[1] instanceof com.jetbrains.php.lang.psi.elements.PhpExpression valueArg) {
-                PhpType phpType = valueArg.getType();
-                type = PhpTypeString.getSafeTypeString(phpType);
-            }
-
-            variables.put(varName, type);
-            Log.info("Found variable from controller for completion: " + varName + " with type: " + type);
+        PsiFile originalFile = element.getContainingFile().getOriginalFile();
+        if (originalFile.getVirtualFile() == null) {
+            return Collections.emptyList();
         }
 
-        return variables;
+        // ビューファイルに対応する変数テーブル（キャッシュ済み）から変数を取得
+        return ViewVariableTable.getInstance(originalFile).getVariables();
     }
 
     /**
-     * Viewファイル内で指定された変数が既に定義されているかチェック
+     * Viewファイル内で使われている変数名の一覧を返す。
      */
-    private boolean isVariableDefinedInViewFile(PsiElement element, String varName) {
-        Log.info("Checking if variable $" + varName + " is defined in view file");
-
-        // PSIを使って変数を検索
+    private Set<String> collectVariablesDefinedInViewFile(PsiElement element) {
+        Set<String> names = new HashSet<>();
         for (Variable variable : com.intellij.psi.util.PsiTreeUtil.findChildrenOfType(element.getContainingFile(), Variable.class)) {
-            if (varName.equals(variable.getName())) {
-                return true;
-            }
+            names.add(variable.getName());
         }
+        return names;
+    }
 
-        Log.info("Variable $" + varName + " not found as defined in view file");
-        return false;
+    /**
+     * Viewファイルで読み取られている変数名の一覧をViewVariableIndexから返す（縮退モード用）。
+     */
+    private Set<String> collectIndexedVariables(PsiFile originalFile) {
+        VirtualFile virtualFile = originalFile.getVirtualFile();
+        if (virtualFile == null || DumbService.isDumb(originalFile.getProject())) {
+            return Collections.emptySet();
+        }
+        return ViewVariableIndex.getFileData(virtualFile, originalFile.getProject()).keySet();
     }
 }
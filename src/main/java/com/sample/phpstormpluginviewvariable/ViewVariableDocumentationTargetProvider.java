@@ -0,0 +1,132 @@
+package com.sample.phpstormpluginviewvariable;
+
+import com.intellij.lang.documentation.DocumentationMarkup;
+import com.intellij.model.Pointer;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.platform.backend.documentation.DocumentationResult;
+import com.intellij.platform.backend.documentation.DocumentationTarget;
+import com.intellij.platform.backend.documentation.DocumentationTargetProvider;
+import com.intellij.platform.backend.presentation.TargetPresentation;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.PhpIcons;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.sample.phpstormpluginviewvariable.model.LargeViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewScope;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ViewVariableDocumentationTargetProvider
+ * Viewファイル内のControllerから渡された変数に、クイックドキュメント（型・setVarしたアクションと行・フックかどうか・PHPDoc）を提供する。
+ * 情報はViewファイルごとにキャッシュされた変数テーブルから取得し、ホバーのたびにControllerを走査しない。
+ */
+public class ViewVariableDocumentationTargetProvider implements DocumentationTargetProvider {
+
+    @Override
+    public @NotNull List<? extends @NotNull DocumentationTarget> documentationTargets(@NotNull PsiFile file, int offset) {
+        if (!ViewFile.isViewFile(file.getOriginalFile().getVirtualFile())) {
+            return Collections.emptyList();
+        }
+
+        PsiElement element = file.findElementAt(offset);
+        Variable variable = PsiTreeUtil.getParentOfType(element, Variable.class, false);
+        String name = variable != null ? variable.getName() : null;
+        // 縮退モードのViewではスコープの木を作らず、名前だけで判定する
+        if (name == null || name.isEmpty() || !LargeViewFile.isLarge(file)
+                && !ViewScope.getRoot(file).resolvesToView(name, variable.getTextRange().getStartOffset())) {
+            return Collections.emptyList();
+        }
+
+        ViewVariable viewVariable = ViewVariableTable.getInstance(file).get(name);
+        if (viewVariable == null) {
+            return Collections.emptyList();
+        }
+        return List.of(new ViewVariableDocumentationTarget(file, viewVariable));
+    }
+
+    /**
+     * Viewの変数1つ分のドキュメント
+     */
+    private static final class ViewVariableDocumentationTarget implements DocumentationTarget {
+        private final PsiFile viewFile;
+        private final ViewVariable viewVariable;
+
+        ViewVariableDocumentationTarget(@NotNull PsiFile viewFile, @NotNull ViewVariable viewVariable) {
+            this.viewFile = viewFile;
+            this.viewVariable = viewVariable;
+        }
+
+        @Override
+        public @NotNull Pointer<? extends DocumentationTarget> createPointer() {
+            SmartPsiElementPointer<PsiFile> filePointer = SmartPointerManager.createPointer(viewFile);
+            String name = viewVariable.getName();
+            return () -> {
+                PsiFile file = filePointer.getElement();
+                ViewVariable variable = file != null ? ViewVariableTable.getInstance(file).get(name) : null;
+                return variable != null ? new ViewVariableDocumentationTarget(file, variable) : null;
+            };
+        }
+
+        @Override
+        public @NotNull TargetPresentation computePresentation() {
+            return TargetPresentation.builder("$" + viewVariable.getName())
+                    .icon(PhpIcons.VARIABLE)
+                    .presentation();
+        }
+
+        @Override
+        public @Nullable String computeDocumentationHint() {
+            return StringUtil.escapeXmlEntities("$" + viewVariable.getName() + ": " + viewVariable.getTypeText(viewFile.getProject()));
+        }
+
+        @Override
+        public @Nullable DocumentationResult computeDocumentation() {
+            Project project = viewFile.getProject();
+            StringBuilder html = new StringBuilder();
+            html.append(DocumentationMarkup.DEFINITION_START)
+                    .append(StringUtil.escapeXmlEntities(viewVariable.getTypeText(project) + " $" + viewVariable.getName()))
+                    .append(DocumentationMarkup.DEFINITION_END);
+
+            String docComment = viewVariable.getDocComment();
+            if (!docComment.isEmpty()) {
+                html.append(DocumentationMarkup.CONTENT_START)
+                        .append("<pre>").append(StringUtil.escapeXmlEntities(docComment)).append("</pre>")
+                        .append(DocumentationMarkup.CONTENT_END);
+            }
+
+            html.append(DocumentationMarkup.SECTIONS_START);
+            appendSection(html, viewVariable.isSetInHook() ? "Set in hook:" : "Set in action:", describeOrigin());
+            VirtualFile controllerFile = viewVariable.getControllerFile();
+            if (controllerFile != null) {
+                int line = viewVariable.getLineNumber();
+                appendSection(html, "Controller:", controllerFile.getName() + (line > 0 ? ":" + line : ""));
+            }
+            html.append(DocumentationMarkup.SECTIONS_END);
+            return DocumentationResult.documentation(html.toString());
+        }
+
+        private String describeOrigin() {
+            String methodName = viewVariable.getMethodName() != null ? viewVariable.getMethodName() : "?";
+            String classFqn = viewVariable.getClassFqn();
+            return classFqn != null ? classFqn + "::" + methodName + "()" : methodName + "()";
+        }
+
+        private static void appendSection(StringBuilder html, String header, String content) {
+            html.append(DocumentationMarkup.SECTION_HEADER_START).append(header)
+                    .append(DocumentationMarkup.SECTION_SEPARATOR).append(StringUtil.escapeXmlEntities(content))
+                    .append(DocumentationMarkup.SECTION_END);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.sample.phpstormpluginviewvariable;
+
+import com.intellij.codeInsight.hints.declarative.HintFormat;
+import com.intellij.codeInsight.hints.declarative.InlayHintsCollector;
+import com.intellij.codeInsight.hints.declarative.InlayHintsProvider;
+import com.intellij.codeInsight.hints.declarative.InlayTreeSink;
+import com.intellij.codeInsight.hints.declarative.InlineInlayPosition;
+import com.intellij.codeInsight.hints.declarative.OwnBypassCollector;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.jetbrains.php.lang.psi.PhpFile;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.sample.phpstormpluginviewvariable.model.LargeViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewScope;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import kotlin.Unit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ViewVariableInlayHintsProvider
+ * Viewファイル内で、ControllerのsetVarで渡された変数の最初の使用箇所に「: 型」のインレイヒントを表示するProvider。
+ * 型はViewファイルごとにキャッシュされた変数テーブルから取得し、要素ごとにgetTypeを呼び出さない。
+ * 引数で隠されている変数や、取り込まれていないクロージャ・関数の中の変数（ViewScope）にはヒントを表示しない。
+ */
+public class ViewVariableInlayHintsProvider implements InlayHintsProvider {
+
+    @Override
+    public @Nullable InlayHintsCollector createCollector(@NotNull PsiFile file, @NotNull Editor editor) {
+        if (!(file instanceof PhpFile) || !ViewFile.isViewFile((PhpFile) file)) {
+            return null;
+        }
+        // 縮退モードのViewではファイル全体を走査するヒントを表示しない
+        if (LargeViewFile.isLarge(file)) {
+            return null;
+        }
+        return new Collector();
+    }
+
+    /**
+     * ファイル全体を1回だけ走査してヒントを収集するCollector。
+     */
+    private static class Collector implements OwnBypassCollector {
+
+        @Override
+        public void collectHintsForFile(@NotNull PsiFile file, @NotNull InlayTreeSink sink) {
+            ViewVariableTable table = ViewVariableTable.getInstance(file);
+            if (table.isEmpty()) {
+                return;
+            }
+
+            ViewScope scope = ViewScope.getRoot(file);
+            Set<String> seen = new HashSet<>();
+            file.accept(new PsiRecursiveElementWalkingVisitor() {
+                @Override
+                public void visitElement(@NotNull PsiElement element) {
+                    if (element instanceof Variable) {
+                        addHint((Variable) element, table, scope, seen, sink);
+                    }
+                    super.visitElement(element);
+                }
+            });
+            Log.info("Collected " + seen.size() + " inlay hints in " + file.getName());
+        }
+
+        private void addHint(Variable variable, ViewVariableTable table, ViewScope scope, Set<String> seen, InlayTreeSink sink) {
+            String name = variable.getName();
+            ViewVariable viewVariable = table.get(name);
+            if (viewVariable == null || seen.contains(name)
+                    || !scope.resolvesToView(name, variable.getTextRange().getStartOffset())) {
+                return;
+            }
+            seen.add(name);
+
+            String typeText = viewVariable.getTypeText(variable.getProject());
+            sink.addPresentation(
+                    new InlineInlayPosition(variable.getTextRange().getEndOffset(), true, 0),
+                    null,
+                    null,
+                    HintFormat.Companion.getDefault(),
+                    builder -> {
+                        builder.text(": " + typeText, null);
+                        return Unit.INSTANCE;
+                    });
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.sample.phpstormpluginviewvariable;
+
+import com.intellij.codeInsight.daemon.LineMarkerInfo;
+import com.intellij.codeInsight.daemon.LineMarkerProvider;
+import com.intellij.codeInsight.navigation.NavigationGutterIconBuilder;
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.util.NotNullLazyValue;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.psi.PhpFile;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.ParameterList;
+import com.jetbrains.php.lang.psi.elements.StringLiteralExpression;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.LargeViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ViewVariableLineMarkerProvider
+ * ControllerのsetVar行とViewでの最初の使用箇所を相互にジャンプできるガターアイコンを表示するProvider。
+ * 解決処理はslow marker passでまとめて行い、1行ごとに個別の解決を行わない。
+ */
+public class ViewVariableLineMarkerProvider implements LineMarkerProvider {
+
+    @Override
+    public @Nullable LineMarkerInfo<?> getLineMarkerInfo(@NotNull PsiElement element) {
+        // 解決にViewファイルの読み込みが必要なため、すべてcollectSlowLineMarkersで処理する
+        return null;
+    }
+
+    @Override
+    public void collectSlowLineMarkers(@NotNull List<? extends PsiElement> elements,
+                                       @NotNull Collection<? super LineMarkerInfo<?>> result) {
+        if (elements.isEmpty()) {
+            return;
+        }
+
+        PsiFile file = elements.get(0).getContainingFile();
+        if (!(file instanceof PhpFile) || file.getVirtualFile() == null) {
+            return;
+        }
+
+        if (ViewFile.isViewFile((PhpFile) file)) {
+            collectViewMarkers(file, elements, result);
+        } else if (ViewFile.isControllerFile(file.getVirtualFile(), file.getProject())) {
+            collectControllerMarkers(file, elements, result);
+        }
+    }
+
+    /**
+     * ControllerのsetVar行に、Viewでの使用箇所へのマーカーを追加する。
+     * アクションごとに対応するViewファイルを1回だけ走査し、同じアクション内のsetVarはその結果を共有する。
+     */
+    private void collectControllerMarkers(PsiFile controllerFile,
+                                          List<? extends PsiElement> elements,
+                                          Collection<? super LineMarkerInfo<?>> result) {
+        // アクションごとにsetVarの第一引数の先頭要素をまとめる
+        Map<Method, List<StringLiteralExpression>> keysByAction = new LinkedHashMap<>();
+        for (PsiElement element : elements) {
+            StringLiteralExpression keyArg = getSetVarKey(element);
+            if (keyArg == null) {
+                continue;
+            }
+            Method method = PsiTreeUtil.getParentOfType(keyArg, Method.class);
+            if (method != null) {
+                keysByAction.computeIfAbsent(method, m -> new ArrayList<>()).add(keyArg);
+            }
+        }
+        if (keysByAction.isEmpty()) {
+            return;
+        }
+
+        VirtualFile controllerVirtualFile = controllerFile.getVirtualFile();
+        PsiManager psiManager = PsiManager.getInstance(controllerFile.getProject());
+        for (Map.Entry<Method, List<StringLiteralExpression>> entry : keysByAction.entrySet()) {
+            // render/setViewで複数のViewを使うアクションは、すべてのViewの使用箇所をまとめて遷移先にする
+            List<PsiFile> viewFiles = new ArrayList<>();
+            for (VirtualFile viewVirtualFile : ControllerFile.findViewFiles(controllerVirtualFile, entry.getKey().getName(), psiManager.getProject())) {
+                PsiFile viewFile = psiManager.findFile(viewVirtualFile);
+                if (viewFile != null) {
+                    viewFiles.add(viewFile);
+                }
+            }
+            if (viewFiles.isEmpty()) {
+                continue;
+            }
+
+            Map<String, List<Variable>> usages = new HashMap<>();
+            for (PsiFile viewFile : viewFiles) {
+                collectVariableUsages(viewFile).forEach((name, variables) ->
+                        usages.computeIfAbsent(name, key -> new ArrayList<>()).addAll(variables));
+            }
+            String viewNames = viewFiles.size() == 1 ? viewFiles.get(0).getName() : viewFiles.size() + " views";
+            for (StringLiteralExpression keyArg : entry.getValue()) {
+                List<Variable> targets = usages.get(keyArg.getContents());
+                if (targets == null) {
+                    continue;
+                }
+                result.add(NavigationGutterIconBuilder.create(AllIcons.Gutter.ImplementedMethod)
+                        .setTargets(targets)
+                        .setTooltipText("Navigate to usages in " + viewNames)
+                        .createLineMarkerInfo(keyArg.getFirstChild()));
+            }
+        }
+        Log.info("Collected controller markers for " + keysByAction.size() + " actions");
+    }
+
+    /**
+     * Viewでの最初の使用箇所に、ControllerのsetVar呼び出しへのマーカーを追加する。
+     */
+    private void collectViewMarkers(PsiFile viewFile,
+                                    List<? extends PsiElement> elements,
+                                    Collection<? super LineMarkerInfo<?>> result) {
+        ViewVariableTable table = ViewVariableTable.getInstance(viewFile);
+        if (table.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<Variable>> usages = collectVariableUsages(viewFile);
+        for (PsiElement element : elements) {
+            if (!(element.getParent() instanceof Variable variable) || element != variable.getFirstChild()) {
+                continue;
+            }
+            ViewVariable viewVariable = table.get(variable.getName());
+            List<Variable> variables = usages.get(variable.getName());
+            if (viewVariable == null || variables == null || variables.get(0) != variable) {
+                continue;
+            }
+
+            // 遷移先はクリック時にポインタから再解決する
+            result.add(NavigationGutterIconBuilder.create(AllIcons.Gutter.ImplementingMethod)
+                    .setTargets(NotNullLazyValue.lazy(() -> {
+                        MethodReference setVarCall = viewVariable.getSetVarCall();
+                        if (setVarCall == null) {
+                            return Collections.<PsiElement>emptyList();
+                        }
+                        PsiElement[] args = setVarCall.getParameters();
+                        return Collections.singletonList(args.length > 0 ? args[0] : setVarCall);
+                    }))
+                    .setTooltipText("Navigate to setVar in controller")
+                    .createLineMarkerInfo(element));
+        }
+    }
+
+    /**
+     * 指定した要素がsetVarの第一引数（文字列リテラル）の先頭要素であれば、その文字列リテラルを返す。
+     */
+    @Nullable
+    private StringLiteralExpression getSetVarKey(PsiElement element) {
+        if (!(element.getParent() instanceof StringLiteralExpression keyArg) || element != keyArg.getFirstChild()) {
+            return null;
+        }
+        if (!(keyArg.getParent() instanceof ParameterList parameterList)
+                || !(parameterList.getParent() instanceof MethodReference methodRef)) {
+            return null;
+        }
+        if (!"setVar".equals(methodRef.getName())) {
+            return null;
+        }
+        PsiElement[] args = methodRef.getParameters();
+        return args.length >= 2 && args[0] == keyArg ? keyArg : null;
+    }
+
+    /**
+     * Viewファイルを1回走査し、変数名ごとの使用箇所を出現順にまとめる。
+     * 縮退モードのViewでは走査せず、インデックスの出現位置（Viewで読み取られている変数のみ）から作る。
+     */
+    private Map<String, List<Variable>> collectVariableUsages(PsiFile viewFile) {
+        if (LargeViewFile.isLarge(viewFile)) {
+            return LargeViewFile.findIndexedUsages(viewFile);
+        }
+        Map<String, List<Variable>> usages = new HashMap<>();
+        viewFile.accept(new PsiRecursiveElementWalkingVisitor() {
+            @Override
+            public void visitElement(@NotNull PsiElement element) {
+                if (element instanceof Variable variable) {
+                    usages.computeIfAbsent(variable.getName(), name -> new ArrayList<>()).add(variable);
+                }
+                super.visitElement(element);
+            }
+        });
+        return usages;
+    }
+}
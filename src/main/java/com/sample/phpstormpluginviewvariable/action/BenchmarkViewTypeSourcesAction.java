@@ -0,0 +1,155 @@
+package com.sample.phpstormpluginviewvariable.action;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import com.sample.phpstormpluginviewvariable.ViewTypeProvider;
+import com.sample.phpstormpluginviewvariable.cache.ViewCacheManager;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import com.sample.phpstormpluginviewvariable.stub.ViewContractStubService;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import com.sample.phpstormpluginviewvariable.util.ResolutionTrace;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BenchmarkViewTypeSourcesAction
+ * Viewの変数の型を、プラグインの変数テーブルから解決する場合（実行時）と、
+ * 生成したスタブの契約クラスのプロパティからPHPのインデックスで解決する場合（スタブ）とで計測し、結果を表示する。
+ * どちらもViewの変数のシグネチャをPhpType.globalで解決する（エディタで型を求めるときと同じ経路）。
+ * 各回の計測の前にViewCacheManagerのキャッシュを破棄し、変数テーブルを作り直す場合の時間を計測する。
+ * スタブモードに切り替える前に、どちらが速いかをプロジェクトごとに確認するためのもの。
+ * 計測結果は ResolutionTrace にも記録される。
+ */
+public class BenchmarkViewTypeSourcesAction extends AnAction {
+    private static final int ITERATIONS = 5;
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        e.getPresentation().setEnabled(project != null && !DumbService.isDumb(project));
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        new Task.Backgroundable(project, "Benchmarking view variable type sources", true) {
+            private long runtimeNanos;
+            private long stubNanos;
+            private int variableCount;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                List<VirtualFile> viewFiles = new ArrayList<>();
+                ReadAction.run(() -> ProjectFileIndex.getInstance(project).iterateContent(file -> {
+                    if (!file.isDirectory() && ViewFile.isViewFile(file)) {
+                        viewFiles.add(file);
+                    }
+                    return true;
+                }));
+
+                for (int i = 0; i < ITERATIONS; i++) {
+                    indicator.checkCanceled();
+                    indicator.setFraction((double) i / ITERATIONS);
+                    ReadAction.run(() -> {
+                        Map<VirtualFile, List<Variable>> targets = collectTargets(project, viewFiles);
+                        // 毎回キャッシュが無い状態から計測する
+                        ViewCacheManager.getInstance(project).clearAll();
+                        measure(project, targets);
+                    });
+                }
+            }
+
+            /**
+             * Viewファイルごとに、Controllerから渡される変数を参照している最初の変数を集める（計測には含めない）。
+             */
+            private Map<VirtualFile, List<Variable>> collectTargets(Project project, List<VirtualFile> viewFiles) {
+                PsiManager psiManager = PsiManager.getInstance(project);
+                Map<VirtualFile, List<Variable>> targets = new LinkedHashMap<>();
+                for (VirtualFile viewFile : viewFiles) {
+                    PsiFile psiFile = viewFile.isValid() ? psiManager.findFile(viewFile) : null;
+                    if (psiFile == null) {
+                        continue;
+                    }
+                    ViewVariableTable table = ViewVariableTable.getInstance(psiFile);
+                    Map<String, Variable> variables = new LinkedHashMap<>();
+                    for (Variable variable : PsiTreeUtil.findChildrenOfType(psiFile, Variable.class)) {
+                        String name = variable.getName();
+                        if (name != null && table.contains(name)) {
+                            variables.putIfAbsent(name, variable);
+                        }
+                    }
+                    targets.put(viewFile, new ArrayList<>(variables.values()));
+                }
+                return targets;
+            }
+
+            private void measure(Project project, Map<VirtualFile, List<Variable>> targets) {
+                ViewContractStubService stubService = ViewContractStubService.getInstance(project);
+                int count = 0;
+                for (Map.Entry<VirtualFile, List<Variable>> entry : targets.entrySet()) {
+                    VirtualFile viewFile = entry.getKey();
+                    List<Variable> variables = entry.getValue();
+
+                    // 実行時: ViewTypeProviderのシグネチャを解決する（completeで変数テーブルを作成する）
+                    long start = System.nanoTime();
+                    for (Variable variable : variables) {
+                        PhpType signature = ViewTypeProvider.createSignature(variable);
+                        if (signature != null) {
+                            signature.global(project);
+                        }
+                    }
+                    runtimeNanos += System.nanoTime() - start;
+                    ResolutionTrace.record("Benchmark(runtime)", viewFile, null, null, true, start);
+
+                    // スタブ: 契約クラスのプロパティのシグネチャをPHPのインデックスで解決する
+                    start = System.nanoTime();
+                    String contractFqn = stubService.getContractFqn(viewFile);
+                    for (Variable variable : variables) {
+                        new PhpType().add("#P#C" + contractFqn + "." + variable.getName()).global(project);
+                    }
+                    stubNanos += System.nanoTime() - start;
+                    ResolutionTrace.record("Benchmark(stub)", viewFile, null, null, true, start);
+                    count += variables.size();
+                }
+                variableCount = count;
+            }
+
+            @Override
+            public void onSuccess() {
+                String result = String.format("%d variables x %d iterations%nRuntime table: %.1f ms%nGenerated stubs: %.1f ms%s",
+                        variableCount, ITERATIONS, runtimeNanos / 1_000_000.0, stubNanos / 1_000_000.0,
+                        ViewContractStubService.getInstance(project).isEnabled() ? "" : "\n(stub mode is off; stub timings resolve to nothing)");
+                Log.info("View type benchmark: " + result.replace('\n', ' '));
+                Messages.showInfoMessage(project, result, "View Variable Type Benchmark");
+            }
+        }.queue();
+    }
+}
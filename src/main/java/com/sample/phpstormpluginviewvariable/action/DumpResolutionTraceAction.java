@@ -0,0 +1,65 @@
+package com.sample.phpstormpluginviewvariable.action;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.sample.phpstormpluginviewvariable.util.ResolutionTrace;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DumpResolutionTraceAction
+ * ResolutionTraceのリングバッファに記録された解決結果を、タブ区切りのファイルに出力するアクション。
+ */
+public class DumpResolutionTraceAction extends AnAction implements DumbAware {
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        // 保存先の選択中に記録が進まないよう、先にスナップショットを取る
+        List<ResolutionTrace.Event> events = ResolutionTrace.snapshot();
+        if (events.isEmpty() && !ResolutionTrace.isEnabled()) {
+            Messages.showInfoMessage(e.getProject(),
+                    "Resolution tracing is disabled. Enable the registry key phpstormpluginviewvariable.resolution.trace to record events.",
+                    "Resolution Trace");
+            return;
+        }
+
+        FileSaverDescriptor descriptor = new FileSaverDescriptor("Dump View Variable Resolution Trace",
+                "Save the recorded resolution events as a TSV file", "tsv");
+        VirtualFileWrapper wrapper = FileChooserFactory.getInstance()
+                .createSaveFileDialog(descriptor, e.getProject())
+                .save("view-variable-trace.tsv");
+        if (wrapper == null) {
+            return;
+        }
+
+        List<String> lines = new ArrayList<>(events.size() + 1);
+        lines.add(ResolutionTrace.Event.TSV_HEADER);
+        for (ResolutionTrace.Event event : events) {
+            lines.add(event.toTsv());
+        }
+
+        try {
+            Files.write(wrapper.getFile().toPath(), lines, StandardCharsets.UTF_8);
+            Messages.showInfoMessage(e.getProject(),
+                    events.size() + " events written to " + wrapper.getFile().getPath(), "Resolution Trace");
+        } catch (IOException ex) {
+            Messages.showErrorDialog(e.getProject(), "Failed to write trace: " + ex.getMessage(), "Resolution Trace");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.sample.phpstormpluginviewvariable.action;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.sample.phpstormpluginviewvariable.stub.ViewContractStubService;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * RegenerateViewContractStubsAction
+ * すべてのViewの契約スタブを作り直すアクション。スタブモードが有効な場合のみ使用できる。
+ */
+public class RegenerateViewContractStubsAction extends AnAction {
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        e.getPresentation().setEnabled(project != null && !DumbService.isDumb(project)
+                && ViewContractStubService.getInstance(project).isEnabled());
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project != null) {
+            ViewContractStubService.getInstance(project).regenerateAll();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.sample.phpstormpluginviewvariable.action;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.text.StringUtil;
+import com.sample.phpstormpluginviewvariable.cache.ViewCache;
+import com.sample.phpstormpluginviewvariable.cache.ViewCacheManager;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * ShowViewCacheStatisticsAction
+ * 開いているプロジェクトごとに、プラグインのキャッシュ（ViewCacheManager）の件数・推定バイト数・ヒット数・破棄数を表示する。
+ * 表示したダイアログから、現在のプロジェクトのキャッシュを破棄できる。
+ */
+public class ShowViewCacheStatisticsAction extends AnAction {
+    private static final String KEY_PREFIX = "phpstormpluginviewvariable.";
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabled(e.getProject() != null);
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        StringBuilder report = new StringBuilder();
+        long totalBytes = 0;
+        for (Project openProject : ProjectManager.getInstance().getOpenProjects()) {
+            if (openProject.isDisposed()) {
+                continue;
+            }
+            ViewCacheManager manager = ViewCacheManager.getInstance(openProject);
+            long projectBytes = 0;
+            StringBuilder lines = new StringBuilder();
+            for (ViewCache.Statistics statistics : manager.getStatistics()) {
+                projectBytes += statistics.getEstimatedBytes();
+                lines.append(String.format("  %s: %d / %d entries, ~%s, %d hits, %d misses, %d evicted%n",
+                        StringUtil.trimStart(statistics.getName(), KEY_PREFIX),
+                        statistics.getEntryCount(), statistics.getMaxEntries(),
+                        StringUtil.formatFileSize(statistics.getEstimatedBytes()),
+                        statistics.getHits(), statistics.getMisses(), statistics.getEvictions()));
+            }
+            totalBytes += projectBytes;
+            report.append(openProject.getName()).append(openProject == project ? " (current)" : "")
+                    .append(": ~").append(StringUtil.formatFileSize(projectBytes)).append('\n')
+                    .append(lines.length() > 0 ? lines : "  (no caches created yet)\n");
+        }
+        report.append("Total: ~").append(StringUtil.formatFileSize(totalBytes));
+        Log.info("View cache statistics:\n" + report);
+
+        int choice = Messages.showDialog(project, report.toString(), "View Variable Cache Statistics",
+                new String[]{Messages.getOkButton(), "Clear Caches of " + project.getName()}, 0, Messages.getInformationIcon());
+        if (choice == 1) {
+            ViewCacheManager.getInstance(project).clearAll();
+        }
+    }
+}
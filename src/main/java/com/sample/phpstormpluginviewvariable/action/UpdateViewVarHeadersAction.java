@@ -0,0 +1,191 @@
+package com.sample.phpstormpluginviewvariable.action;
+
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * UpdateViewVarHeadersAction
+ * すべてのViewファイルの先頭に、setVarで渡される変数の @var ヘッダーを書き込む・更新するアクション。
+ * プラグインの無いエディタやPhpStormの標準の型推論でもViewの変数の型が分かるようにする。
+ * <pre>
+ * &lt;?php
+ * // @view-variables generated from setVar. Do not edit by hand.
+ * /** @var int $sum *&#47;
+ * ?&gt;
+ * </pre>
+ * ヘッダーの作成は並列の読み取りアクションで行い、書き込みは1回のWriteCommandActionでまとめて行う。
+ * ヘッダーが既に一致しているファイルは変更しない。
+ */
+public class UpdateViewVarHeadersAction extends AnAction {
+    private static final String HEADER_START = "<?php\n// @view-variables";
+    private static final String HEADER_FIRST_LINE = HEADER_START + " generated from setVar. Do not edit by hand.\n";
+    private static final String HEADER_END = "?>\n";
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        e.getPresentation().setEnabled(project != null && !DumbService.isDumb(project));
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+        PsiDocumentManager.getInstance(project).commitAllDocuments();
+
+        new Task.Backgroundable(project, "Updating view variable headers", true) {
+            private final Queue<HeaderChange> changes = new ConcurrentLinkedQueue<>();
+            private int viewCount;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                List<VirtualFile> viewFiles = new ArrayList<>();
+                ReadAction.run(() -> ProjectFileIndex.getInstance(project).iterateContent(file -> {
+                    if (!file.isDirectory() && ViewFile.isViewFile(file)) {
+                        viewFiles.add(file);
+                    }
+                    return true;
+                }));
+                viewCount = viewFiles.size();
+                Log.info("Updating @var headers of " + viewCount + " views");
+
+                // 読み取りフェーズ: ファイルごとに並列でヘッダーを作成し、変更が必要なものだけを集める
+                PsiManager psiManager = PsiManager.getInstance(project);
+                JobLauncher.getInstance().invokeConcurrentlyUnderProgress(viewFiles, indicator, file -> {
+                    HeaderChange change = ReadAction.compute(() -> DumbService.isDumb(project) || !file.isValid()
+                            ? null
+                            : computeChange(file, psiManager));
+                    if (change != null) {
+                        changes.add(change);
+                    }
+                    return true;
+                });
+            }
+
+            @Override
+            public void onSuccess() {
+                // 書き込みフェーズ: 変更をまとめて1つのコマンドで適用する（元に戻す操作も1回で済む）
+                List<HeaderChange> applicable = new ArrayList<>(changes);
+                applicable.sort(Comparator.comparing(change -> change.file.getPath()));
+                WriteCommandAction.runWriteCommandAction(project, "Update View Variable Headers", null, () -> {
+                    for (HeaderChange change : applicable) {
+                        // 読み取り後にユーザーが編集したファイルは対象外にする
+                        if (change.document.getModificationStamp() == change.modificationStamp) {
+                            change.document.replaceString(0, change.oldHeaderLength, change.newHeader);
+                        }
+                    }
+                    PsiDocumentManager.getInstance(project).commitAllDocuments();
+                });
+                Messages.showInfoMessage(project,
+                        applicable.size() + " of " + viewCount + " view headers updated", "View Variable Headers");
+            }
+        }.queue();
+    }
+
+    /**
+     * 1つのViewファイルのヘッダーを作成し、現在のヘッダーと異なる場合のみ変更を返す。
+     */
+    @Nullable
+    private static HeaderChange computeChange(@NotNull VirtualFile file, @NotNull PsiManager psiManager) {
+        PsiFile psiFile = psiManager.findFile(file);
+        Document document = FileDocumentManager.getInstance().getDocument(file);
+        if (psiFile == null || document == null) {
+            return null;
+        }
+
+        ViewVariableTable table = ViewVariableTable.getInstance(psiFile);
+        String newHeader = table.isEmpty() ? "" : buildHeader(table, psiFile.getProject());
+
+        CharSequence text = document.getCharsSequence();
+        int oldHeaderLength = findHeaderLength(text);
+        if (newHeader.contentEquals(text.subSequence(0, oldHeaderLength))) {
+            return null;
+        }
+        return new HeaderChange(file, document, document.getModificationStamp(), oldHeaderLength, newHeader);
+    }
+
+    /**
+     * 変数テーブルからヘッダーを作成する。変数は名前順に並べ、実行ごとに結果が変わらないようにする。
+     */
+    @NotNull
+    private static String buildHeader(@NotNull ViewVariableTable table, @NotNull Project project) {
+        List<ViewVariable> variables = new ArrayList<>(table.getVariables());
+        variables.sort(Comparator.comparing(ViewVariable::getName));
+
+        StringBuilder header = new StringBuilder(HEADER_FIRST_LINE);
+        for (ViewVariable variable : variables) {
+            header.append("/** @var ").append(variable.getDocTypeText(project))
+                    .append(" $").append(variable.getName()).append(" */\n");
+        }
+        return header.append(HEADER_END).toString();
+    }
+
+    /**
+     * ファイル先頭の生成済みヘッダーの長さを返す（ヘッダーが無い場合は0）。
+     */
+    private static int findHeaderLength(@NotNull CharSequence text) {
+        if (text.length() < HEADER_START.length() || !HEADER_START.contentEquals(text.subSequence(0, HEADER_START.length()))) {
+            return 0;
+        }
+        for (int i = HEADER_START.length(); i + HEADER_END.length() <= text.length(); i++) {
+            if (text.charAt(i - 1) == '\n' && HEADER_END.contentEquals(text.subSequence(i, i + HEADER_END.length()))) {
+                return i + HEADER_END.length();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 1ファイル分のヘッダーの変更
+     */
+    private static final class HeaderChange {
+        final VirtualFile file;
+        final Document document;
+        final long modificationStamp;
+        final int oldHeaderLength;
+        final String newHeader;
+
+        HeaderChange(VirtualFile file, Document document, long modificationStamp, int oldHeaderLength, String newHeader) {
+            this.file = file;
+            this.document = document;
+            this.modificationStamp = modificationStamp;
+            this.oldHeaderLength = oldHeaderLength;
+            this.newHeader = newHeader;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.sample.phpstormpluginviewvariable.cache;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.messages.Topic;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * ControllerActionListener
+ * ControllerActionModificationTrackerが検出したControllerの変更を受け取るリスナー。
+ * PSIの変更イベント内（書き込みアクション中）で呼ばれるため、重い処理はキューに積んで後で行うこと。
+ */
+public interface ControllerActionListener {
+    @Topic.ProjectLevel
+    Topic<ControllerActionListener> TOPIC = new Topic<>(ControllerActionListener.class, Topic.BroadcastDirection.NONE);
+
+    /**
+     * アクションメソッドが変更されたときに呼ばれる。
+     */
+    default void actionChanged(@NotNull ControllerAction action) {
+    }
+
+    /**
+     * アクション外（フックメソッド・クラス定義など）が変更され、Controllerのすべてのアクションが影響を受けるときに呼ばれる。
+     */
+    default void controllerChanged(@NotNull VirtualFile controllerFile) {
+    }
+}
@@ -0,0 +1,448 @@
+package com.sample.phpstormpluginviewvariable.cache;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.util.SimpleModificationTracker;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.ui.update.MergingUpdateQueue;
+import com.intellij.util.ui.update.Update;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.psi.PhpFile;
+import com.jetbrains.php.lang.psi.elements.Function;
+import com.jetbrains.php.lang.psi.elements.GroupStatement;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.PhpClass;
+import com.jetbrains.php.lang.psi.elements.PhpNamespace;
+import com.sample.phpstormpluginviewvariable.index.RenderTargetIndex;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ControllerActionModificationTracker
+ * Controllerファイルの変更をアクション単位で追跡するプロジェクトサービス。
+ * 変数テーブルのキャッシュはアクションごとのトラッカーに依存するため、
+ * 1つのアクションを編集しても同じControllerの他のアクションのテーブルは破棄されない。
+ * PSIの変更イベント内ではトラッカーの更新だけを行い、変更のあったアクションに対応するViewのうち
+ * 開いているものの特定と再ハイライトは、MergingUpdateQueueとノンブロッキングの読み取りアクションで後から行う。
+ * 変更は ControllerActionListener.TOPIC でも通知する。
+ */
+@Service(Service.Level.PROJECT)
+public final class ControllerActionModificationTracker implements Disposable {
+    /**
+     * Controllerファイル全体（アクション外・フックメソッドの変更）を表すキー
+     */
+    private static final String WHOLE_FILE = "*";
+
+    private static final Key<ViewCache<String, Set<String>>> RENDER_TARGETS_KEY =
+            Key.create("phpstormpluginviewvariable.ControllerActionModificationTracker.renderTargets");
+
+    /**
+     * render/setViewの指定先を保持するアクションの最大数
+     */
+    private static final int MAX_RENDER_TARGETS = 10000;
+
+    private final Project project;
+    /**
+     * アクションごとのトラッカー（キー: Controllerファイルのパス#アクション名）。
+     * メモリ不足のときは、すべてを更新してから破棄する（保持しているキャッシュは無効になり、再計算のときに新しいトラッカーに依存する）。
+     */
+    private final Map<String, SimpleModificationTracker> trackers = new ConcurrentHashMap<>();
+    /**
+     * render/setViewで明示的に指定されたViewの対応が変わったときに更新されるトラッカー
+     */
+    private final SimpleModificationTracker renderTargetTracker = new SimpleModificationTracker();
+    /**
+     * PHPのクラスの構造（クラスの追加・削除、継承、メソッドの追加・削除・リネーム・修飾子）が変わったときに更新されるトラッカー。
+     * メソッド本体の編集では更新しない。
+     */
+    private final SimpleModificationTracker classStructureTracker = new SimpleModificationTracker();
+    /**
+     * アクションごとの最後に確認したrender/setViewの指定先（キー: Controllerファイルのパス#アクション名）。
+     * 初めて変更されるアクションは、変更前のイベントでメソッドから指定先を記録しておく。
+     * 記録が無い（破棄された）アクションは、新しい指定先が空であれば変わっていないものとして扱う。
+     */
+    private final ViewCache<String, Set<String>> renderTargets;
+    private final MergingUpdateQueue queue;
+
+    /**
+     * 再ハイライトの対象の確認を待っているアクション・Controllerファイル
+     */
+    private final Set<ControllerAction> pendingActions = ConcurrentHashMap.newKeySet();
+    private final Set<VirtualFile> pendingControllers = ConcurrentHashMap.newKeySet();
+
+    public ControllerActionModificationTracker(@NotNull Project project) {
+        this.project = project;
+        this.renderTargets = ViewCacheManager.getInstance(project).getCache(RENDER_TARGETS_KEY, MAX_RENDER_TARGETS,
+                (key, targets) -> 64 + 2L * key.length() + targets.stream().mapToLong(target -> 48 + 2L * target.length()).sum(),
+                null);
+        this.queue = new MergingUpdateQueue("ControllerActionModificationTracker", 300, true, null, this, null, false);
+        PsiManager.getInstance(project).addPsiTreeChangeListener(new ControllerChangeListener(), this);
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new ControllerContentListener());
+        LowMemoryWatcher.register(this::onLowMemory, this);
+    }
+
+    public static ControllerActionModificationTracker getInstance(@NotNull Project project) {
+        return project.getService(ControllerActionModificationTracker.class);
+    }
+
+    /**
+     * 指定したアクションのトラッカーを返す。
+     */
+    @NotNull
+    public ModificationTracker getActionTracker(@NotNull ControllerAction action) {
+        return getTracker(action.getControllerFile(), action.getActionName());
+    }
+
+    /**
+     * 指定したControllerファイル全体のトラッカーを返す。
+     */
+    @NotNull
+    public ModificationTracker getFileTracker(@NotNull VirtualFile controllerFile) {
+        return getTracker(controllerFile, WHOLE_FILE);
+    }
+
+    /**
+     * PHPのクラスの構造が変わったときに更新されるトラッカーを返す。
+     * クラス階層から作るControllerとViewの対応表（ControllerHierarchy）は、メソッド本体の編集では作り直す必要がない。
+     */
+    @NotNull
+    public ModificationTracker getClassStructureTracker() {
+        return classStructureTracker;
+    }
+
+    /**
+     * render/setViewによるViewの指定が変わったときに更新されるトラッカーを返す。
+     * 共通Viewのテーブルは、どのアクションから指定されるかが変わったときに破棄される必要がある。
+     */
+    @NotNull
+    public ModificationTracker getRenderTargetTracker() {
+        return renderTargetTracker;
+    }
+
+    private SimpleModificationTracker getTracker(VirtualFile controllerFile, String actionName) {
+        return trackers.computeIfAbsent(controllerFile.getPath() + "#" + actionName, key -> new SimpleModificationTracker());
+    }
+
+    /**
+     * アクションの変更を記録する。PSIの変更イベント内で呼ばれるため、トラッカーの更新と通知だけを行い、
+     * render/setViewの指定先の確認と再ハイライトはキューに積んで後で行う。
+     */
+    private void actionChanged(@NotNull VirtualFile controllerFile, @NotNull String actionName) {
+        Log.info("Controller action changed: " + controllerFile.getName() + "::" + actionName);
+        getTracker(controllerFile, actionName).incModificationCount();
+        ControllerAction action = new ControllerAction(controllerFile, actionName);
+        project.getMessageBus().syncPublisher(ControllerActionListener.TOPIC).actionChanged(action);
+        pendingActions.add(action);
+        scheduleUpdate();
+    }
+
+    /**
+     * アクション外（フックメソッド・クラス定義など）の変更を記録する。
+     * このControllerに対応する開いているViewの再ハイライトは、キューに積んで後で行う。
+     */
+    private void fileChanged(@NotNull VirtualFile controllerFile) {
+        Log.info("Controller file changed: " + controllerFile.getName());
+        getTracker(controllerFile, WHOLE_FILE).incModificationCount();
+        project.getMessageBus().syncPublisher(ControllerActionListener.TOPIC).controllerChanged(controllerFile);
+        pendingControllers.add(controllerFile);
+        scheduleUpdate();
+    }
+
+    private void scheduleUpdate() {
+        queue.queue(Update.create(this, this::flush));
+    }
+
+    /**
+     * 変更されたアクション・Controllerについて、render/setViewの指定先の変化を確認し、
+     * 影響を受ける開いているViewを読み取りアクション（書き込みで中断・再実行される）の中で特定して再ハイライトする。
+     */
+    private void flush() {
+        List<ControllerAction> actions = new ArrayList<>(pendingActions);
+        List<VirtualFile> controllers = new ArrayList<>(pendingControllers);
+        pendingActions.removeAll(actions);
+        pendingControllers.removeAll(controllers);
+        if (actions.isEmpty() && controllers.isEmpty()) {
+            return;
+        }
+
+        ReadAction.nonBlocking(() -> collectAffectedViews(actions, controllers))
+                .inSmartMode(project)
+                .expireWith(this)
+                .finishOnUiThread(ModalityState.nonModal(), this::restartOpenViews)
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    /**
+     * 再ハイライトが必要な開いているViewを返す。render/setViewの指定先が変わった場合は、以前の指定先と新しい指定先の両方を含める。
+     */
+    private Set<VirtualFile> collectAffectedViews(List<ControllerAction> actions, List<VirtualFile> controllers) {
+        Set<VirtualFile> viewFiles = new HashSet<>();
+        for (ControllerAction action : actions) {
+            VirtualFile controllerFile = action.getControllerFile();
+            if (!controllerFile.isValid()) {
+                continue;
+            }
+            Method method = ControllerFile.findActionMethod(action, project);
+            Set<String> newTargets = method != null ? RenderTargetIndex.getRenderTargets(method) : Set.of();
+            String key = getRenderTargetsKey(controllerFile, action.getActionName());
+            Set<String> oldTargets = renderTargets.get(key);
+            renderTargets.put(key, newTargets);
+            boolean changed = oldTargets != null ? !newTargets.equals(oldTargets) : !newTargets.isEmpty();
+            if (changed) {
+                renderTargetTracker.incModificationCount();
+                VirtualFile viewsRoot = ControllerFile.findViewsRoot(controllerFile);
+                Set<String> changedTargets = new HashSet<>(newTargets);
+                if (oldTargets != null) {
+                    changedTargets.addAll(oldTargets);
+                }
+                for (String viewName : changedTargets) {
+                    VirtualFile viewFile = viewsRoot != null ? ViewFile.findViewFile(viewsRoot, viewName) : null;
+                    if (viewFile != null) {
+                        viewFiles.add(viewFile);
+                    }
+                }
+            }
+            viewFiles.addAll(ControllerFile.findViewFiles(controllerFile, action.getActionName(), project));
+        }
+
+        if (!controllers.isEmpty()) {
+            for (VirtualFile openFile : FileEditorManager.getInstance(project).getOpenFiles()) {
+                for (ControllerAction action : ControllerFile.findControllerActions(openFile, project)) {
+                    if (controllers.contains(action.getControllerFile())) {
+                        viewFiles.add(openFile);
+                        break;
+                    }
+                }
+            }
+        }
+        return viewFiles;
+    }
+
+    private static String getRenderTargetsKey(@NotNull VirtualFile controllerFile, @NotNull String actionName) {
+        return controllerFile.getPath() + "#" + actionName;
+    }
+
+    /**
+     * 変更前のアクションのrender/setViewの指定先を、まだ記録していなければ記録する。
+     * 変更後には変更前の指定先をインデックスからも得られないため、変更前のイベントの中で（メソッド1つ分のPSIから）求める。
+     */
+    private void rememberRenderTargets(@NotNull VirtualFile controllerFile, @NotNull Method method) {
+        String key = getRenderTargetsKey(controllerFile, method.getName());
+        if (renderTargets.get(key) == null) {
+            renderTargets.put(key, RenderTargetIndex.getRenderTargets(method));
+        }
+    }
+
+    private void restartOpenViews(@NotNull Set<VirtualFile> viewFiles) {
+        for (VirtualFile viewFile : viewFiles) {
+            restartIfOpen(viewFile);
+        }
+    }
+
+    private void restartIfOpen(@NotNull VirtualFile viewFile) {
+        if (!viewFile.isValid() || !FileEditorManager.getInstance(project).isFileOpen(viewFile)) {
+            return;
+        }
+        PsiFile psiFile = PsiManager.getInstance(project).findFile(viewFile);
+        if (psiFile != null) {
+            DaemonCodeAnalyzer.getInstance(project).restart(psiFile);
+        }
+    }
+
+    private void onLowMemory() {
+        Log.info("Low memory: clearing action trackers of " + project.getName() + " (" + trackers.size() + " actions)");
+        // 破棄したトラッカーに依存しているキャッシュが残らないよう、破棄する前に更新する
+        for (Map.Entry<String, SimpleModificationTracker> entry : trackers.entrySet()) {
+            entry.getValue().incModificationCount();
+            trackers.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void dispose() {
+        trackers.clear();
+        renderTargets.clear();
+        pendingActions.clear();
+        pendingControllers.clear();
+    }
+
+    /**
+     * ControllerファイルのPSI変更から、変更されたアクションを特定するリスナー。
+     * 変更前のイベントでアクション名を記録し、変更によってメソッド名が変わった場合は変更前の名前のアクションも変更されたものとして扱う。
+     */
+    private class ControllerChangeListener extends PsiTreeChangeAdapter {
+        private Method changingMethod;
+        private String changingMethodName;
+
+        @Override
+        public void beforeChildAddition(@NotNull PsiTreeChangeEvent event) {
+            rememberMethodName(event);
+        }
+
+        @Override
+        public void beforeChildRemoval(@NotNull PsiTreeChangeEvent event) {
+            rememberMethodName(event);
+        }
+
+        @Override
+        public void beforeChildReplacement(@NotNull PsiTreeChangeEvent event) {
+            rememberMethodName(event);
+        }
+
+        @Override
+        public void beforeChildrenChange(@NotNull PsiTreeChangeEvent event) {
+            rememberMethodName(event);
+        }
+
+        @Override
+        public void childAdded(@NotNull PsiTreeChangeEvent event) {
+            handle(event);
+        }
+
+        @Override
+        public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+            handle(event);
+        }
+
+        @Override
+        public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+            handle(event);
+        }
+
+        @Override
+        public void childMoved(@NotNull PsiTreeChangeEvent event) {
+            handle(event);
+        }
+
+        @Override
+        public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+            handle(event);
+        }
+
+        private void rememberMethodName(PsiTreeChangeEvent event) {
+            Method method = findControllerMethod(event);
+            changingMethod = method;
+            changingMethodName = method != null ? method.getName() : null;
+            if (method != null && !ControllerFile.HOOK_METHOD_NAMES.contains(method.getName())) {
+                rememberRenderTargets(getControllerFile(event), method);
+            }
+        }
+
+        private void handle(PsiTreeChangeEvent event) {
+            if (isClassStructureChange(event)) {
+                classStructureTracker.incModificationCount();
+            }
+
+            VirtualFile virtualFile = getControllerFile(event);
+            if (virtualFile == null) {
+                return;
+            }
+
+            Method method = findControllerMethod(event);
+            if (method == null || ControllerFile.HOOK_METHOD_NAMES.contains(method.getName())) {
+                fileChanged(virtualFile);
+                return;
+            }
+            String actionName = method.getName();
+            if (method == changingMethod && changingMethodName != null && !changingMethodName.equals(actionName)) {
+                // アクションのリネーム: 変更前の名前のViewのテーブルも破棄する
+                actionChanged(virtualFile, changingMethodName);
+            }
+            changingMethod = null;
+            changingMethodName = null;
+            actionChanged(virtualFile, actionName);
+        }
+
+        /**
+         * PHPファイルの変更が、クラスの構造の変更（メソッド本体の外の変更）かどうかを判定する。
+         */
+        private boolean isClassStructureChange(PsiTreeChangeEvent event) {
+            if (!(event.getFile() instanceof PhpFile)) {
+                return false;
+            }
+            if (event.getChild() instanceof PhpClass || event.getOldChild() instanceof PhpClass || event.getNewChild() instanceof PhpClass) {
+                return true;
+            }
+            PsiElement element = event.getParent() != null ? event.getParent() : event.getChild();
+            if (element == null || !element.isValid()) {
+                return false;
+            }
+            Function function = PsiTreeUtil.getParentOfType(element, Function.class, false);
+            if (function != null) {
+                // メソッドの名前・引数・修飾子の変更は構造の変更、本体の変更は構造の変更ではない
+                GroupStatement body = PsiTreeUtil.getChildOfType(function, GroupStatement.class);
+                return function instanceof Method && (body == null || !PsiTreeUtil.isAncestor(body, element, false));
+            }
+            return PsiTreeUtil.getParentOfType(element, PhpClass.class, false) != null
+                    || element instanceof PhpNamespace;
+        }
+
+        @Nullable
+        private VirtualFile getControllerFile(PsiTreeChangeEvent event) {
+            PsiFile file = event.getFile();
+            VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+            return ViewFile.isControllerFile(virtualFile, project) ? virtualFile : null;
+        }
+
+        @Nullable
+        private Method findControllerMethod(PsiTreeChangeEvent event) {
+            if (getControllerFile(event) == null) {
+                return null;
+            }
+            PsiElement element = event.getParent() != null ? event.getParent() : event.getChild();
+            return element != null && element.isValid() ? PsiTreeUtil.getParentOfType(element, Method.class, false) : null;
+        }
+    }
+
+    /**
+     * PSIが読み込まれていない状態で（外部のツール・VCSの操作などで）変更されたControllerファイルを検出するリスナー。
+     * エディタからの保存による変更はPSIの変更イベントで処理済みのため除く。
+     */
+    private class ControllerContentListener implements BulkFileListener {
+        @Override
+        public void after(@NotNull List<? extends @NotNull VFileEvent> events) {
+            for (VFileEvent event : events) {
+                if (!(event instanceof VFileContentChangeEvent) || event.isFromSave()) {
+                    continue;
+                }
+                VirtualFile file = event.getFile();
+                if (file.getFileType() == PhpFileType.INSTANCE) {
+                    classStructureTracker.incModificationCount();
+                }
+                if (ViewFile.isControllerFile(file, project)) {
+                    fileChanged(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.sample.phpstormpluginviewvariable.cache;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.jetbrains.php.PhpIndex;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.PhpClass;
+import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import com.sample.phpstormpluginviewvariable.util.ResolutionTrace;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MethodReturnTypeCache
+ * メソッドシグネチャ（例: #M#C\App\modules\GmTool\Model\Episode.getQuests）から戻り値の型を解決し、
+ * プロジェクト単位でキャッシュするサービス。
+ * キャッシュはPHPのクラスの構造（メソッドの宣言・戻り値の型・PHPDoc・継承）が変更されるまで保持され、
+ * 補完のたびに同じPhpIndexの検索を繰り返さない。メソッド本体の編集（入力中の変更）ではキャッシュを破棄しない。
+ * キャッシュはViewCacheManagerの件数上限つきキャッシュで、メモリ不足時とプロジェクトを閉じたときに破棄される。
+ * $a->b()->c() のような連鎖呼び出しのシグネチャ（#M#M#C\A.b.c）は内側から順に解決する。
+ */
+@Service(Service.Level.PROJECT)
+public final class MethodReturnTypeCache {
+    private static final Key<ViewCache<String, PhpType>> KEY = Key.create("phpstormpluginviewvariable.MethodReturnTypeCache");
+
+    /**
+     * 保持するシグネチャの最大数
+     */
+    private static final int MAX_ENTRIES = 20000;
+
+    /**
+     * 連鎖呼び出し・戻り値の型に含まれるシグネチャを解決する最大の深さ
+     */
+    private static final int MAX_DEPTH = 8;
+
+    private final Project project;
+
+    public MethodReturnTypeCache(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public static MethodReturnTypeCache getInstance(@NotNull Project project) {
+        return project.getService(MethodReturnTypeCache.class);
+    }
+
+    /**
+     * メソッドシグネチャの戻り値の型を返す。解決できない場合は空の型を返す。
+     */
+    @NotNull
+    public PhpType getReturnType(@NotNull String signature) {
+        return getReturnType(signature, 0);
+    }
+
+    /**
+     * 型に含まれるメソッドシグネチャ（#M#...）を戻り値の型に置き換えた型を返す。
+     * シグネチャを含まない型はそのまま返す。
+     */
+    @NotNull
+    public PhpType resolve(@NotNull PhpType type) {
+        return resolve(type, 0);
+    }
+
+    private PhpType resolve(PhpType type, int depth) {
+        if (type.getTypes().stream().noneMatch(MethodReturnTypeCache::isMethodSignature)) {
+            return type;
+        }
+
+        PhpType.PhpTypeBuilder builder = PhpType.builder();
+        for (String typeName : type.getTypes()) {
+            if (isMethodSignature(typeName)) {
+                builder.add(getReturnType(typeName, depth + 1));
+            } else {
+                builder.add(typeName);
+            }
+        }
+        return builder.build();
+    }
+
+    private PhpType getReturnType(String signature, int depth) {
+        long start = System.nanoTime();
+        ViewCache<String, PhpType> cache = getCache();
+        PhpType cached = cache.get(signature);
+        if (cached != null) {
+            ResolutionTrace.record("MethodReturnTypeCache", null, null, signature, true, start);
+            return cached;
+        }
+
+        // 解決中に同じシグネチャを再帰的に要求しても計算が終わるよう、
+        // computeIfAbsentは使わず計算後に登録する
+        PhpType returnType = compute(signature, depth);
+        if (!DumbService.isDumb(project)) {
+            cache.put(signature, returnType);
+        }
+        ResolutionTrace.record("MethodReturnTypeCache", null, null, signature, false, start);
+        return returnType;
+    }
+
+    private PhpType compute(String signature, int depth) {
+        if (depth > MAX_DEPTH || DumbService.isDumb(project) || !isMethodSignature(signature)) {
+            return PhpType.EMPTY;
+        }
+
+        // #M#C\App\Model\Episode.getQuests -> レシーバ: #C\App\Model\Episode, メソッド: getQuests
+        int dotIndex = signature.lastIndexOf('.');
+        if (dotIndex == -1) {
+            return PhpType.EMPTY;
+        }
+        String receiver = signature.substring("#M".length(), dotIndex);
+        String methodName = signature.substring(dotIndex + 1);
+
+        PhpType.PhpTypeBuilder builder = PhpType.builder();
+        PhpIndex phpIndex = PhpIndex.getInstance(project);
+        for (String classFqn : resolveReceiver(receiver, depth)) {
+            for (PhpClass phpClass : phpIndex.getAnyByFQN(classFqn)) {
+                Method method = phpClass.findMethodByName(methodName);
+                if (method != null) {
+                    builder.add(resolve(method.getType(), depth));
+                }
+            }
+        }
+        PhpType returnType = builder.build();
+        Log.info("Resolved return type of " + signature + ": " + returnType);
+        return returnType;
+    }
+
+    /**
+     * レシーバのシグネチャからクラスのFQNの一覧を返す。
+     */
+    private List<String> resolveReceiver(String receiver, int depth) {
+        if (receiver.startsWith("#C")) {
+            return Collections.singletonList(receiver.substring("#C".length()));
+        }
+        if (!isMethodSignature(receiver)) {
+            return Collections.emptyList();
+        }
+
+        List<String> classFqns = new ArrayList<>();
+        for (String typeName : getReturnType(receiver, depth + 1).getTypes()) {
+            if (typeName.startsWith("\\") && !typeName.endsWith("[]") && !PhpType.isPrimitiveType(typeName)) {
+                classFqns.add(typeName);
+            }
+        }
+        return classFqns;
+    }
+
+    private ViewCache<String, PhpType> getCache() {
+        return ViewCacheManager.getInstance(project).getCache(KEY, MAX_ENTRIES, MethodReturnTypeCache::estimateBytes,
+                ControllerActionModificationTracker.getInstance(project).getClassStructureTracker());
+    }
+
+    /**
+     * エントリの推定バイト数（シグネチャと型の文字列、Mapのエントリとオブジェクトのヘッダ）
+     */
+    private static long estimateBytes(String signature, PhpType type) {
+        long bytes = 96 + 2L * signature.length();
+        for (String typeName : type.getTypes()) {
+            bytes += 48 + 2L * typeName.length();
+        }
+        return bytes;
+    }
+
+    private static boolean isMethodSignature(String typeName) {
+        return typeName.startsWith("#M#");
+    }
+}
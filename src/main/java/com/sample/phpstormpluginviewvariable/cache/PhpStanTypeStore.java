@@ -0,0 +1,252 @@
+package com.sample.phpstormpluginviewvariable.cache;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.util.SimpleModificationTracker;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.containers.Interner;
+import com.sample.phpstormpluginviewvariable.settings.ViewVariableSettings;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * PhpStanTypeStore
+ * PHPStanで推論したsetVarの値の型（php/libraries/PHPStan の ViewVariableTypeErrorFormatter が出力するJSON）を読み込むプロジェクトサービス。
+ * JSONはストリーミングで読み込み、クラス#メソッド -> 変数名 -> 型 の小さなマップとして保持する。
+ * 読み込みはサービスの作成時・設定の変更時・ファイルの変更時（VFSの通知）にバックグラウンドで行い、
+ * 型の参照（getType）は読み込み済みのマップを読むだけにする。内容が変わったクラスがあった場合のみmodificationTrackerを更新する。
+ * <pre>
+ * {"types": [{"class": "App\\Modules\\GmTool\\Controller\\SampleController", "method": "indexAction", "var": "quests", "type": "list&lt;App\\Modules\\GmTool\\Model\\Quest&gt;"}]}
+ * </pre>
+ */
+@Service(Service.Level.PROJECT)
+public final class PhpStanTypeStore implements Disposable {
+    private final Project project;
+    private final SimpleModificationTracker modificationTracker = new SimpleModificationTracker();
+    private final Interner<String> interner = Interner.createStringInterner();
+
+    /**
+     * 最後に読み込んだファイルの状態と内容
+     */
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public PhpStanTypeStore(@NotNull Project project) {
+        this.project = project;
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends @NotNull VFileEvent> events) {
+                String path = ViewVariableSettings.getInstance(project).getPhpStanTypesPath(project);
+                if (path == null) {
+                    return;
+                }
+                for (VFileEvent event : events) {
+                    if (path.equals(event.getPath())) {
+                        scheduleReload();
+                        return;
+                    }
+                }
+            }
+        });
+        scheduleReload();
+    }
+
+    public static PhpStanTypeStore getInstance(@NotNull Project project) {
+        return project.getService(PhpStanTypeStore.class);
+    }
+
+    /**
+     * 読み込んだ型が変わったときに更新されるトラッカーを返す。
+     */
+    @NotNull
+    public ModificationTracker getModificationTracker() {
+        return modificationTracker;
+    }
+
+    /**
+     * 指定したクラス・メソッドでsetVarされた変数の、PHPStanが推論した型を返す。
+     * 型のファイルが設定されていない場合や、該当する型が無い場合（まだ読み込まれていない場合を含む）はnullを返す。
+     * 読み込み済みのマップを読むだけで、ファイルの確認や読み込みは行わない。
+     *
+     * @param classFqn クラスの完全修飾名（先頭のバックスラッシュは有っても無くてもよい）
+     */
+    @Nullable
+    public String getType(@NotNull String classFqn, @NotNull String methodName, @NotNull String varName) {
+        Map<String, String> variables = snapshot.types.get(toKey(classFqn, methodName));
+        return variables != null ? variables.get(varName) : null;
+    }
+
+    /**
+     * 設定で型のファイルのパスが変更されたときに呼び出す。新しいファイルをバックグラウンドで読み込む。
+     */
+    public void typesPathChanged() {
+        scheduleReload();
+    }
+
+    /**
+     * バックグラウンドでファイルを読み直し、型が変わった場合は解析をやり直す。
+     */
+    private void scheduleReload() {
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            if (project.isDisposed()) {
+                return;
+            }
+            if (reloadIfChanged()) {
+                DaemonCodeAnalyzer.getInstance(project).restart();
+            }
+        });
+    }
+
+    /**
+     * 設定されたファイルが前回の読み込みから変わっていれば読み直す。
+     *
+     * @return 読み込んだ型が変わった場合はtrue
+     */
+    private boolean reloadIfChanged() {
+        String path = ViewVariableSettings.getInstance(project).getPhpStanTypesPath(project);
+        VirtualFile file = path != null ? LocalFileSystem.getInstance().findFileByPath(path) : null;
+        if (snapshot.matches(path, file)) {
+            return false;
+        }
+
+        synchronized (this) {
+            Snapshot current = snapshot;
+            if (current.matches(path, file)) {
+                return false;
+            }
+
+            Map<String, Map<String, String>> types = file != null ? load(file, current.types) : Collections.emptyMap();
+            boolean changed = !types.equals(current.types);
+            snapshot = new Snapshot(path, file != null ? file.getTimeStamp() : -1, file != null ? file.getLength() : -1,
+                    changed ? types : current.types);
+            if (changed) {
+                Log.info("PHPStan types reloaded: " + types.size() + " methods from " + path);
+                modificationTracker.incModificationCount();
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * JSONをストリーミングで読み込む。内容が変わっていないクラス#メソッドは以前のマップをそのまま使う。
+     */
+    private Map<String, Map<String, String>> load(@NotNull VirtualFile file, @NotNull Map<String, Map<String, String>> previous) {
+        Map<String, Map<String, String>> types = new HashMap<>();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"types".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readEntry(reader, types);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            Log.warn("Failed to read PHPStan types from " + file.getPath() + ": " + e.getMessage());
+            return previous;
+        }
+
+        for (Map.Entry<String, Map<String, String>> entry : types.entrySet()) {
+            Map<String, String> old = previous.get(entry.getKey());
+            if (entry.getValue().equals(old)) {
+                entry.setValue(old);
+            }
+        }
+        return types;
+    }
+
+    private void readEntry(JsonReader reader, Map<String, Map<String, String>> types) throws IOException {
+        String classFqn = null;
+        String methodName = null;
+        String varName = null;
+        String type = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() != JsonToken.STRING) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "class" -> classFqn = reader.nextString();
+                case "method" -> methodName = reader.nextString();
+                case "var" -> varName = reader.nextString();
+                case "type" -> type = reader.nextString();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (classFqn == null || methodName == null || varName == null || type == null) {
+            return;
+        }
+        Map<String, String> variables = types.computeIfAbsent(interner.intern(toKey(classFqn, methodName)), key -> new HashMap<>(4));
+        // 同じ変数が複数回setVarされている場合は型を合成する
+        String existing = variables.get(varName);
+        String merged = existing == null || existing.equals(type) ? type : existing + "|" + type;
+        variables.put(interner.intern(varName), interner.intern(merged));
+    }
+
+    private static String toKey(String classFqn, String methodName) {
+        String fqn = classFqn.startsWith("\\") ? classFqn.substring(1) : classFqn;
+        return fqn + "#" + methodName;
+    }
+
+    @Override
+    public void dispose() {
+        snapshot = Snapshot.EMPTY;
+    }
+
+    /**
+     * 読み込んだファイルのパス・タイムスタンプ・サイズと内容
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(null, -1, -1, Collections.emptyMap());
+
+        final String path;
+        final long timeStamp;
+        final long length;
+        final Map<String, Map<String, String>> types;
+
+        Snapshot(@Nullable String path, long timeStamp, long length, @NotNull Map<String, Map<String, String>> types) {
+            this.path = path;
+            this.timeStamp = timeStamp;
+            this.length = length;
+            this.types = types;
+        }
+
+        boolean matches(@Nullable String path, @Nullable VirtualFile file) {
+            if (!Objects.equals(this.path, path)) {
+                return false;
+            }
+            if (file == null) {
+                return timeStamp == -1;
+            }
+            return timeStamp == file.getTimeStamp() && length == file.getLength();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.sample.phpstormpluginviewvariable.cache;
+
+import com.intellij.openapi.util.ModificationTracker;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * ViewCache
+ * ViewCacheManagerで作成する、プロジェクト単位の件数上限つきキャッシュ（最も長く使われていないエントリから破棄する）。
+ * 型の解決・補完・インスペクションの複数のスレッドから同時に参照されるため、参照・登録はロックを取らずに行う。
+ * エントリごとに最後に参照した順番を記録し、件数が上限を超えたときだけ古いものからまとめて破棄する（上限の9割まで減らす）。
+ * エントリの推定バイト数は統計を求めるときに集計し（通常の参照・登録では計算しない）、診断アクションで表示する。
+ * 依存するトラッカーを指定した場合は、トラッカーが更新された後の最初の参照ですべてのエントリを破棄する。
+ * メモリが不足したとき（LowMemoryWatcher）とプロジェクトを閉じたときに、ViewCacheManagerがすべてのエントリを破棄する。
+ */
+public final class ViewCache<K, V> {
+    private final String name;
+    private final int maxEntries;
+    private final ToLongBiFunction<K, V> weigher;
+    private final ModificationTracker dependency;
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    /**
+     * 参照・登録の順番を数えるカウンター（エントリの新しさの比較に使う）
+     */
+    private final AtomicLong accessCounter = new AtomicLong();
+    /**
+     * 破棄は1つのスレッドだけが行う
+     */
+    private final Object evictionLock = new Object();
+    private volatile long dependencyStamp;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ViewCache(@NotNull String name, int maxEntries, @NotNull ToLongBiFunction<K, V> weigher, @Nullable ModificationTracker dependency) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.weigher = weigher;
+        this.dependency = dependency;
+        this.dependencyStamp = dependency != null ? dependency.getModificationCount() : 0;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public V get(@NotNull K key) {
+        checkDependency();
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.lastAccess = accessCounter.incrementAndGet();
+        hits.increment();
+        return entry.value;
+    }
+
+    public void put(@NotNull K key, @NotNull V value) {
+        checkDependency();
+        entries.put(key, new Entry<>(value, accessCounter.incrementAndGet()));
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    public void remove(@NotNull K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * すべてのエントリを破棄する。
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * 現在の件数・推定バイト数・ヒット率などを返す。参照・登録と同時に呼ばれた場合の値は概算になる。
+     */
+    @NotNull
+    public Statistics getStatistics() {
+        checkDependency();
+        int entryCount = 0;
+        long estimatedBytes = 0;
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            entryCount++;
+            estimatedBytes += weigher.applyAsLong(entry.getKey(), entry.getValue().value);
+        }
+        return new Statistics(name, entryCount, maxEntries, estimatedBytes, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    /**
+     * 最後に参照した順番が古いエントリから、件数が上限の9割になるまで破棄する。
+     * 順番は破棄を始めたときの値で比較し、その後に参照・登録されたエントリ（順番が変わったもの）は破棄しない。
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            int size = entries.size();
+            if (size <= maxEntries) {
+                return;
+            }
+            int excess = size - maxEntries * 9 / 10;
+            // 並べ替えの間に順番が変わらないよう、破棄を始めたときの順番を記録してから並べ替える
+            List<Candidate<K, V>> candidates = new ArrayList<>(size);
+            for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+                candidates.add(new Candidate<>(entry.getKey(), entry.getValue(), entry.getValue().lastAccess));
+            }
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.lastAccess));
+            for (int i = 0; i < excess && i < candidates.size(); i++) {
+                Candidate<K, V> candidate = candidates.get(i);
+                if (candidate.entry.lastAccess == candidate.lastAccess && entries.remove(candidate.key, candidate.entry)) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    private void checkDependency() {
+        if (dependency == null) {
+            return;
+        }
+        long stamp = dependency.getModificationCount();
+        if (stamp != dependencyStamp) {
+            dependencyStamp = stamp;
+            clear();
+        }
+    }
+
+    /**
+     * 破棄の候補と、破棄を始めたときの順番
+     */
+    private static final class Candidate<K, V> {
+        final K key;
+        final Entry<V> entry;
+        final long lastAccess;
+
+        Candidate(K key, Entry<V> entry, long lastAccess) {
+            this.key = key;
+            this.entry = entry;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * 値と、最後に参照・登録した順番
+     */
+    private static final class Entry<V> {
+        final V value;
+        volatile long lastAccess;
+
+        Entry(V value, long lastAccess) {
+            this.value = value;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * キャッシュ1つ分の統計
+     */
+    public static final class Statistics {
+        private final String name;
+        private final int entryCount;
+        private final int maxEntries;
+        private final long estimatedBytes;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        Statistics(String name, int entryCount, int maxEntries, long estimatedBytes, long hits, long misses, long evictions) {
+            this.name = name;
+            this.entryCount = entryCount;
+            this.maxEntries = maxEntries;
+            this.estimatedBytes = estimatedBytes;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.sample.phpstormpluginviewvariable.cache;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import com.intellij.openapi.util.ModificationTracker;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * ViewCacheManager
+ * プラグインが保持するControllerとViewのデータのキャッシュ（ViewCache）をプロジェクト単位で管理するサービス。
+ * <ul>
+ *     <li>キャッシュはすべてプロジェクトのサービスから作成し、プロジェクトを閉じたとき（サービスの破棄時）にすべて破棄する</li>
+ *     <li>LowMemoryWatcherでメモリ不足を検出したときは、すべてのキャッシュを破棄する（必要になったときに再計算される）</li>
+ *     <li>キャッシュごとの件数と推定バイト数を ShowViewCacheStatisticsAction で表示する</li>
+ * </ul>
+ * 複数のプロジェクトを開いている場合も、キャッシュはプロジェクトごとに独立し、他のプロジェクトのデータを保持しない。
+ */
+@Service(Service.Level.PROJECT)
+public final class ViewCacheManager implements Disposable {
+    private final Project project;
+    private final Map<Key<?>, ViewCache<?, ?>> caches = new ConcurrentHashMap<>();
+
+    public ViewCacheManager(@NotNull Project project) {
+        this.project = project;
+        LowMemoryWatcher.register(this::onLowMemory, this);
+    }
+
+    public static ViewCacheManager getInstance(@NotNull Project project) {
+        return project.getService(ViewCacheManager.class);
+    }
+
+    /**
+     * 指定したキーのキャッシュを返す。初めて要求されたときに件数上限つきのキャッシュを作成して登録する。
+     *
+     * @param key キャッシュを識別するキー（名前は診断アクションに表示する）
+     * @param maxEntries 保持する最大の件数
+     * @param weigher エントリの推定バイト数
+     * @param dependency 更新されたときにすべてのエントリを破棄するトラッカー（無い場合はnull）
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public <K, V> ViewCache<K, V> getCache(@NotNull Key<ViewCache<K, V>> key, int maxEntries, @NotNull ToLongBiFunction<K, V> weigher,
+                                          @Nullable ModificationTracker dependency) {
+        return (ViewCache<K, V>) caches.computeIfAbsent(key, k -> new ViewCache<>(key.toString(), maxEntries, weigher, dependency));
+    }
+
+    /**
+     * 登録されているキャッシュの統計を名前の順に返す。
+     */
+    @NotNull
+    public List<ViewCache.Statistics> getStatistics() {
+        List<ViewCache.Statistics> statistics = new ArrayList<>();
+        for (ViewCache<?, ?> cache : caches.values()) {
+            statistics.add(cache.getStatistics());
+        }
+        statistics.sort(Comparator.comparing(ViewCache.Statistics::getName));
+        return statistics;
+    }
+
+    /**
+     * 登録されているキャッシュの推定バイト数の合計を返す。
+     */
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        for (ViewCache<?, ?> cache : caches.values()) {
+            bytes += cache.getStatistics().getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * すべてのキャッシュのエントリを破棄する。
+     */
+    public void clearAll() {
+        for (ViewCache<?, ?> cache : caches.values()) {
+            cache.clear();
+        }
+    }
+
+    private void onLowMemory() {
+        Log.info("Low memory: clearing view caches of " + project.getName() + " (" + getEstimatedBytes() + " bytes estimated)");
+        clearAll();
+    }
+
+    @Override
+    public void dispose() {
+        clearAll();
+        caches.clear();
+    }
+}
@@ -0,0 +1,208 @@
+package com.sample.phpstormpluginviewvariable.export;
+
+import com.google.gson.stream.JsonWriter;
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.PhpClass;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ControllerHierarchy;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * ViewContractExportStarter
+ * ControllerのアクションとView、Viewに渡される変数と型の対応（Viewの契約）を JSON Lines で出力するヘッドレスのコマンド。
+ * CIやコードレビューで契約の差分を確認するために使う。
+ * <pre>
+ * phpstorm.sh viewContractExport &lt;プロジェクトのパス&gt; [出力ファイル]
+ * {"controller":"modules/GmTool/Controller/SampleController.php","class":"\\App\\...\\SampleController","action":"indexAction",
+ *  "views":[{"path":"modules/GmTool/views/sample/index.php","variables":[{"name":"sum","type":"int"}]}]}
+ * </pre>
+ * 出力ファイルを省略した場合は標準出力に書き出す。
+ * プロジェクトを開いてインデックスの作成を待ち、Controllerファイルを一定数ずつ並列に（CPUコア数の読み取りワーカーで）処理する。
+ * 各バッチの結果はパスの順に書き出してから破棄するため、Controllerの数が多くてもすべての結果をメモリに保持しない。
+ * ネットワークには接続しない。
+ */
+public class ViewContractExportStarter implements ApplicationStarter {
+    /**
+     * 1回に並列で処理するControllerファイルの数（ワーカー数あたり）
+     */
+    private static final int BATCH_SIZE_PER_WORKER = 8;
+
+    @Override
+    public int getRequiredModality() {
+        return NOT_IN_EDT;
+    }
+
+    @Override
+    public void main(@NotNull List<String> args) {
+        // args[0] はコマンド名
+        if (args.size() < 2) {
+            System.err.println("Usage: viewContractExport <project path> [output.jsonl]");
+            System.exit(1);
+            return;
+        }
+
+        int exitCode = 0;
+        try {
+            exitCode = export(Path.of(args.get(1)).toAbsolutePath(), args.size() > 2 ? Path.of(args.get(2)) : null);
+        } catch (Throwable e) {
+            Log.error("View contract export failed", e);
+            System.err.println("View contract export failed: " + e);
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+
+    private int export(Path projectPath, Path outputPath) throws IOException, InterruptedException, ExecutionException {
+        Project project = ProjectUtil.openOrImport(projectPath, null, true);
+        if (project == null) {
+            System.err.println("Cannot open project: " + projectPath);
+            return 1;
+        }
+
+        try (Writer writer = outputPath != null
+                ? Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            DumbService.getInstance(project).waitForSmartMode();
+            long start = System.nanoTime();
+
+            Set<VirtualFile> foundControllerFiles = new HashSet<>();
+            ReadAction.run(() -> {
+                ProjectFileIndex.getInstance(project).iterateContent(file -> {
+                    if (!file.isDirectory() && ViewFile.isControllerFile(file)) {
+                        foundControllerFiles.add(file);
+                    }
+                    return true;
+                });
+                // クラス階層による検出が有効な場合は、/Controller/ 配下にない基底Controllerのサブクラスも対象にする
+                foundControllerFiles.addAll(ControllerHierarchy.getInstance(project).getControllerFiles());
+            });
+            List<VirtualFile> controllerFiles = new ArrayList<>(foundControllerFiles);
+            controllerFiles.sort(Comparator.comparing(VirtualFile::getPath));
+
+            int workers = Math.max(1, Runtime.getRuntime().availableProcessors());
+            int batchSize = workers * BATCH_SIZE_PER_WORKER;
+            ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("ViewContractExport", workers);
+            int actionCount = 0;
+            try {
+                for (int from = 0; from < controllerFiles.size(); from += batchSize) {
+                    List<Future<List<String>>> batch = new ArrayList<>();
+                    for (VirtualFile controllerFile : controllerFiles.subList(from, Math.min(from + batchSize, controllerFiles.size()))) {
+                        batch.add(executor.submit(() -> ReadAction.nonBlocking(() -> exportController(project, controllerFile))
+                                .inSmartMode(project)
+                                .executeSynchronously()));
+                    }
+                    // バッチ内はControllerのパスの順に書き出し、出力の順序を実行ごとに変えない
+                    for (Future<List<String>> future : batch) {
+                        for (String line : future.get()) {
+                            writer.write(line);
+                            writer.write('\n');
+                            actionCount++;
+                        }
+                    }
+                    writer.flush();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            Log.info("Exported " + actionCount + " actions from " + controllerFiles.size() + " controllers in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            ProjectManager.getInstance().closeAndDispose(project);
+        }
+        return 0;
+    }
+
+    /**
+     * 1つのControllerファイルのアクションごとに、JSONの1行を作成する。読み取りアクション内で呼び出すこと。
+     */
+    private static List<String> exportController(Project project, VirtualFile controllerFile) throws IOException {
+        List<String> lines = new ArrayList<>();
+        PsiFile psiFile = controllerFile.isValid() ? PsiManager.getInstance(project).findFile(controllerFile) : null;
+        if (psiFile == null) {
+            return lines;
+        }
+
+        PsiManager psiManager = PsiManager.getInstance(project);
+        for (Method method : PsiTreeUtil.findChildrenOfType(psiFile, Method.class)) {
+            if (!method.getName().endsWith("Action")) {
+                continue;
+            }
+            List<VirtualFile> viewFiles = ControllerFile.findViewFiles(controllerFile, method.getName(), project);
+            PhpClass phpClass = method.getContainingClass();
+
+            StringWriter line = new StringWriter();
+            try (JsonWriter json = new JsonWriter(line)) {
+                json.beginObject();
+                json.name("controller").value(relativePath(project, controllerFile));
+                json.name("class").value(phpClass != null ? phpClass.getFQN() : null);
+                json.name("action").value(method.getName());
+                json.name("views").beginArray();
+                for (VirtualFile viewFile : viewFiles) {
+                    PsiFile viewPsiFile = psiManager.findFile(viewFile);
+                    if (viewPsiFile == null) {
+                        continue;
+                    }
+                    List<ViewVariable> variables = new ArrayList<>(ViewVariableTable.getInstance(viewPsiFile).getVariables());
+                    variables.sort(Comparator.comparing(ViewVariable::getName));
+
+                    json.beginObject();
+                    json.name("path").value(relativePath(project, viewFile));
+                    json.name("variables").beginArray();
+                    for (ViewVariable variable : variables) {
+                        json.beginObject();
+                        json.name("name").value(variable.getName());
+                        json.name("type").value(variable.getDocTypeText(project));
+                        json.endObject();
+                    }
+                    json.endArray();
+                    json.endObject();
+                }
+                json.endArray();
+                json.endObject();
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static String relativePath(Project project, VirtualFile file) {
+        VirtualFile baseDir = project.getBasePath() != null ? file.getFileSystem().findFileByPath(project.getBasePath()) : null;
+        String relativePath = baseDir != null ? VfsUtilCore.getRelativePath(file, baseDir) : null;
+        return relativePath != null ? relativePath : file.getPath();
+    }
+}
@@ -0,0 +1,234 @@
+package com.sample.phpstormpluginviewvariable.index;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.StringLiteralExpression;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RenderTargetIndex
+ * Controllerファイル内の $this->render('shared/list') / $this->setView('shared/list') のように、
+ * 文字列リテラルで明示的にViewを指定している呼び出しを、View名をキーとしてインデックスする。
+ * 値は呼び出し元のアクションメソッド名の一覧。
+ * 複数のアクションから使われる共通Viewは、このインデックスから全アクションを引いて変数を合成する。
+ */
+public class RenderTargetIndex extends FileBasedIndexExtension<String, List<String>> {
+    public static final ID<String, List<String>> NAME = ID.create("phpstormpluginviewvariable.RenderTargetIndex");
+
+    /**
+     * Viewを明示的に指定するメソッド名
+     */
+    public static final Set<String> RENDER_METHOD_NAMES = Set.of("render", "setView");
+
+    @Override
+    public @NotNull ID<String, List<String>> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, List<String>, FileContent> getIndexer() {
+        return inputData -> {
+            // render/setViewを含まないファイルはPSIを作らずに除外する
+            String text = inputData.getContentAsText().toString();
+            if (!text.contains("render") && !text.contains("setView")) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, List<String>> result = new HashMap<>();
+            PsiFile psiFile = inputData.getPsiFile();
+            for (MethodReference methodRef : PsiTreeUtil.findChildrenOfType(psiFile, MethodReference.class)) {
+                String viewName = getRenderTarget(methodRef);
+                Method method = viewName != null ? PsiTreeUtil.getParentOfType(methodRef, Method.class) : null;
+                if (method != null) {
+                    List<String> actions = result.computeIfAbsent(viewName, key -> new ArrayList<>());
+                    if (!actions.contains(method.getName())) {
+                        actions.add(method.getName());
+                    }
+                }
+            }
+            return result;
+        };
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<List<String>> getValueExternalizer() {
+        return new DataExternalizer<>() {
+            @Override
+            public void save(@NotNull DataOutput out, List<String> value) throws IOException {
+                DataInputOutputUtil.writeINT(out, value.size());
+                for (String actionName : value) {
+                    out.writeUTF(actionName);
+                }
+            }
+
+            @Override
+            public List<String> read(@NotNull DataInput in) throws IOException {
+                int size = DataInputOutputUtil.readINT(in);
+                List<String> actions = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    actions.add(in.readUTF());
+                }
+                return actions;
+            }
+        };
+    }
+
+    @Override
+    public int getVersion() {
+        return 2;
+    }
+
+    @Override
+    public FileBasedIndex.@NotNull InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(PhpFileType.INSTANCE) {
+            @Override
+            public boolean acceptInput(@NotNull VirtualFile file) {
+                return !ViewFile.isViewFile(file);
+            }
+        };
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    /**
+     * render/setView呼び出しで指定されたView名を返す。
+     * 第一引数が変数展開を含まない文字列リテラルでない場合はnullを返す。
+     * 例: render('/shared/list.php') -> shared/list
+     */
+    @Nullable
+    public static String getRenderTarget(@NotNull MethodReference methodRef) {
+        if (!RENDER_METHOD_NAMES.contains(methodRef.getName())) {
+            return null;
+        }
+        PsiElement[] args = methodRef.getParameters();
+        if (args.length == 0 || !(args[0] instanceof StringLiteralExpression literal) || literal.getFirstPsiChild() != null) {
+            return null;
+        }
+        return normalizeViewName(literal.getContents());
+    }
+
+    /**
+     * 指定したメソッド内で明示的に指定されているView名を返す。
+     */
+    @NotNull
+    public static Set<String> getRenderTargets(@NotNull Method method) {
+        Set<String> viewNames = new LinkedHashSet<>();
+        for (MethodReference methodRef : PsiTreeUtil.findChildrenOfType(method, MethodReference.class)) {
+            String viewName = getRenderTarget(methodRef);
+            if (viewName != null) {
+                viewNames.add(viewName);
+            }
+        }
+        return viewNames;
+    }
+
+    /**
+     * 指定したViewファイルを明示的に指定しているアクションを返す。
+     * 同じモジュール（同じviewsディレクトリ）のControllerのみを対象とする。
+     */
+    @NotNull
+    public static List<ControllerAction> findRenderingActions(@NotNull VirtualFile viewFile, @NotNull Project project) {
+        String path = viewFile.getPath();
+        int viewsIndex = path.indexOf("/views/");
+        if (viewsIndex == -1) {
+            return Collections.emptyList();
+        }
+        String viewsRootPath = path.substring(0, viewsIndex + "/views".length());
+        String viewName = normalizeViewName(path.substring(viewsIndex + "/views/".length()));
+        if (viewName == null) {
+            return Collections.emptyList();
+        }
+
+        List<ControllerAction> actions = new ArrayList<>();
+        FileBasedIndex index = FileBasedIndex.getInstance();
+        for (VirtualFile controllerFile : index.getContainingFiles(NAME, viewName, GlobalSearchScope.projectScope(project))) {
+            VirtualFile viewsRoot = ControllerFile.findViewsRoot(controllerFile);
+            if (viewsRoot == null || !viewsRootPath.equals(viewsRoot.getPath())) {
+                continue;
+            }
+            List<String> actionNames = index.getFileData(NAME, controllerFile, project).get(viewName);
+            if (actionNames != null) {
+                for (String actionName : actionNames) {
+                    actions.add(new ControllerAction(controllerFile, actionName));
+                }
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * 指定したアクションが明示的に指定しているViewファイルを返す。
+     */
+    @NotNull
+    public static List<VirtualFile> findRenderedViews(@NotNull ControllerAction action, @NotNull Project project) {
+        VirtualFile viewsRoot = ControllerFile.findViewsRoot(action.getControllerFile());
+        if (viewsRoot == null) {
+            return Collections.emptyList();
+        }
+
+        List<VirtualFile> viewFiles = new ArrayList<>();
+        Map<String, List<String>> targets = FileBasedIndex.getInstance().getFileData(NAME, action.getControllerFile(), project);
+        for (Map.Entry<String, List<String>> entry : targets.entrySet()) {
+            if (entry.getValue().contains(action.getActionName())) {
+                VirtualFile viewFile = ViewFile.findViewFile(viewsRoot, entry.getKey());
+                if (viewFile != null) {
+                    viewFiles.add(viewFile);
+                }
+            }
+        }
+        return viewFiles;
+    }
+
+    /**
+     * View名を viewsディレクトリからの相対パス（拡張子なし）に正規化する。
+     */
+    @Nullable
+    private static String normalizeViewName(@NotNull String name) {
+        String viewName = name.trim().replace("\\", "/");
+        while (viewName.startsWith("/")) {
+            viewName = viewName.substring(1);
+        }
+        viewName = ViewFile.removeViewExtension(viewName);
+        return viewName.isEmpty() ? null : viewName;
+    }
+}
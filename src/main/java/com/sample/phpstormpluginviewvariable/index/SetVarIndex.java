@@ -0,0 +1,179 @@
+package com.sample.phpstormpluginviewvariable.index;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.StringLiteralExpression;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SetVarIndex
+ * Controllerファイル内の setVar('name', ...) 呼び出しを、変数名をキーとしてインデックスする。
+ * 値はsetVarを呼び出しているメソッド名と第一引数のオフセットの一覧。
+ */
+public class SetVarIndex extends FileBasedIndexExtension<String, List<SetVarSite>> {
+    public static final ID<String, List<SetVarSite>> NAME = ID.create("phpstormpluginviewvariable.SetVarIndex");
+
+    @Override
+    public @NotNull ID<String, List<SetVarSite>> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, List<SetVarSite>, FileContent> getIndexer() {
+        return inputData -> {
+            // setVarを含まないファイルはPSIを作らずに除外する
+            if (!inputData.getContentAsText().toString().contains("setVar")) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, List<SetVarSite>> result = new HashMap<>();
+            PsiFile psiFile = inputData.getPsiFile();
+            psiFile.accept(new PsiRecursiveElementWalkingVisitor() {
+                @Override
+                public void visitElement(@NotNull PsiElement element) {
+                    if (element instanceof MethodReference methodRef && "setVar".equals(methodRef.getName())) {
+                        PsiElement[] args = methodRef.getParameters();
+                        if (args.length >= 2 && args[0] instanceof StringLiteralExpression keyArg) {
+                            Method method = PsiTreeUtil.getParentOfType(methodRef, Method.class);
+                            String methodName = method != null ? method.getName() : "";
+                            result.computeIfAbsent(keyArg.getContents(), key -> new ArrayList<>())
+                                    .add(new SetVarSite(methodName, keyArg.getTextRange().getStartOffset()));
+                        }
+                    }
+                    super.visitElement(element);
+                }
+            });
+            return result;
+        };
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<List<SetVarSite>> getValueExternalizer() {
+        return new DataExternalizer<>() {
+            @Override
+            public void save(@NotNull DataOutput out, List<SetVarSite> value) throws IOException {
+                DataInputOutputUtil.writeINT(out, value.size());
+                for (SetVarSite site : value) {
+                    out.writeUTF(site.getMethodName());
+                    DataInputOutputUtil.writeINT(out, site.getKeyOffset());
+                }
+            }
+
+            @Override
+            public List<SetVarSite> read(@NotNull DataInput in) throws IOException {
+                int size = DataInputOutputUtil.readINT(in);
+                List<SetVarSite> sites = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    sites.add(new SetVarSite(in.readUTF(), DataInputOutputUtil.readINT(in)));
+                }
+                return sites;
+            }
+        };
+    }
+
+    @Override
+    public int getVersion() {
+        return 2;
+    }
+
+    @Override
+    public FileBasedIndex.@NotNull InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(PhpFileType.INSTANCE) {
+            @Override
+            public boolean acceptInput(@NotNull VirtualFile file) {
+                return !ViewFile.isViewFile(file);
+            }
+        };
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    /**
+     * 指定したControllerファイルのsetVar一覧を返す（キー: 変数名）。
+     */
+    @NotNull
+    public static Map<String, List<SetVarSite>> getFileData(@NotNull VirtualFile controllerFile, @NotNull Project project) {
+        return FileBasedIndex.getInstance().getFileData(NAME, controllerFile, project);
+    }
+
+    /**
+     * 指定したアクションのViewに渡されるsetVarを列挙する。
+     * 対象はアクション本体・同じControllerのフックメソッド・親クラスのフックメソッドのsetVar。
+     */
+    public static void processVisibleSites(@NotNull ControllerAction action, @NotNull Project project, @NotNull SiteConsumer consumer) {
+        List<VirtualFile> hookFiles = ControllerFile.findHookFiles(action.getControllerFile(), project);
+        for (VirtualFile hookFile : hookFiles) {
+            processSites(hookFile, ControllerFile.HOOK_METHOD_NAMES, project, consumer);
+        }
+
+        Set<String> methodNames = new HashSet<>(ControllerFile.HOOK_METHOD_NAMES);
+        methodNames.add(action.getActionName());
+        processSites(action.getControllerFile(), methodNames, project, consumer);
+    }
+
+    private static void processSites(VirtualFile file, Set<String> methodNames, Project project, SiteConsumer consumer) {
+        for (Map.Entry<String, List<SetVarSite>> entry : getFileData(file, project).entrySet()) {
+            for (SetVarSite site : entry.getValue()) {
+                if (methodNames.contains(site.getMethodName())) {
+                    consumer.accept(file, entry.getKey(), site);
+                }
+            }
+        }
+    }
+
+    /**
+     * 指定したアクションのViewに渡される変数名を返す。
+     */
+    @NotNull
+    public static Set<String> getVisibleVariableNames(@NotNull ControllerAction action, @NotNull Project project) {
+        Set<String> names = new HashSet<>();
+        processVisibleSites(action, project, (file, name, site) -> names.add(name));
+        return names;
+    }
+
+    /**
+     * processVisibleSitesで列挙されたsetVarを受け取るコールバック。
+     */
+    public interface SiteConsumer {
+        void accept(@NotNull VirtualFile file, @NotNull String name, @NotNull SetVarSite site);
+    }
+}
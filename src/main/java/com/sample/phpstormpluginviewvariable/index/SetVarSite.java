@@ -0,0 +1,51 @@
+package com.sample.phpstormpluginviewvariable.index;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * SetVarSite
+ * SetVarIndexに格納される、setVar呼び出し1件分の情報（呼び出し元メソッド名と第一引数のオフセット）。
+ */
+public class SetVarSite {
+    private final String methodName;
+    private final int keyOffset;
+
+    public SetVarSite(@NotNull String methodName, int keyOffset) {
+        this.methodName = methodName;
+        this.keyOffset = keyOffset;
+    }
+
+    /**
+     * setVarを呼び出しているメソッド名（メソッド外の場合は空文字）
+     */
+    @NotNull
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * setVarの第一引数（文字列リテラル）の開始オフセット
+     */
+    public int getKeyOffset() {
+        return keyOffset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SetVarSite)) {
+            return false;
+        }
+        SetVarSite that = (SetVarSite) o;
+        return keyOffset == that.keyOffset && methodName.equals(that.methodName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(methodName, keyOffset);
+    }
+}
@@ -0,0 +1,197 @@
+package com.sample.phpstormpluginviewvariable.index;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.psi.PsiWhiteSpace;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.lexer.PhpTokenTypes;
+import com.jetbrains.php.lang.psi.elements.AssignmentExpression;
+import com.jetbrains.php.lang.psi.elements.Catch;
+import com.jetbrains.php.lang.psi.elements.ForeachStatement;
+import com.jetbrains.php.lang.psi.elements.Function;
+import com.jetbrains.php.lang.psi.elements.GroupStatement;
+import com.jetbrains.php.lang.psi.elements.MultiassignmentExpression;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewScope;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ViewVariableIndex
+ * Viewファイル内で読み取られている変数（View内で定義されていない変数）を、変数名をキーとしてインデックスする。
+ * 値は出現箇所のオフセットの一覧（出現順）。
+ * ViewScopeでファイルのスコープの変数を参照していると判定した箇所だけを対象にする。
+ * 引数を参照している箇所や、use で取り込まれていないクロージャ・関数の中の箇所は出現箇所に含めず、
+ * それらの中での代入もView内の定義として扱わない。
+ */
+public class ViewVariableIndex extends FileBasedIndexExtension<String, List<Integer>> {
+    public static final ID<String, List<Integer>> NAME = ID.create("phpstormpluginviewvariable.ViewVariableIndex");
+
+    /**
+     * Controllerから渡されることのない変数名
+     */
+    private static final Set<String> IGNORED_NAMES = Set.of(
+            "this", "GLOBALS", "_SERVER", "_GET", "_POST", "_FILES", "_COOKIE", "_SESSION", "_REQUEST", "_ENV");
+
+    @Override
+    public @NotNull ID<String, List<Integer>> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, List<Integer>, FileContent> getIndexer() {
+        return inputData -> {
+            PsiFile psiFile = inputData.getPsiFile();
+            ViewScope scope = ViewScope.build(psiFile);
+            Map<String, List<Integer>> occurrences = new HashMap<>();
+            Set<String> localNames = new HashSet<>();
+            psiFile.accept(new PsiRecursiveElementWalkingVisitor() {
+                @Override
+                public void visitElement(@NotNull PsiElement element) {
+                    if (element instanceof Variable variable) {
+                        String name = variable.getName();
+                        if (!name.isEmpty() && !IGNORED_NAMES.contains(name)
+                                && scope.resolvesToView(name, variable.getTextRange().getStartOffset())) {
+                            occurrences.computeIfAbsent(name, key -> new ArrayList<>())
+                                    .add(variable.getTextRange().getStartOffset());
+                            if (isLocalDefinition(variable)) {
+                                localNames.add(name);
+                            }
+                        }
+                    }
+                    super.visitElement(element);
+                }
+            });
+            occurrences.keySet().removeAll(localNames);
+            return occurrences;
+        };
+    }
+
+    /**
+     * View内で値を代入している変数かどうかを判定する。
+     * <ul>
+     *     <li>代入の左辺</li>
+     *     <li>foreachのキーと値（分割代入を含む）</li>
+     *     <li>list(...) / [...] による分割代入の左辺</li>
+     *     <li>catchの例外変数</li>
+     *     <li>global / static で宣言した変数</li>
+     * </ul>
+     */
+    private static boolean isLocalDefinition(Variable variable) {
+        PsiElement parent = variable.getParent();
+        if (parent instanceof AssignmentExpression assignment && !(parent instanceof MultiassignmentExpression)) {
+            return assignment.getVariable() == variable;
+        }
+        if (parent instanceof Catch catchClause) {
+            return catchClause.getException() == variable;
+        }
+        ForeachStatement foreach = PsiTreeUtil.getParentOfType(variable, ForeachStatement.class, true, Function.class, GroupStatement.class);
+        if (foreach != null && foreach.getVariables().contains(variable)) {
+            return true;
+        }
+        MultiassignmentExpression multiassignment = PsiTreeUtil.getParentOfType(variable, MultiassignmentExpression.class, true, Function.class);
+        if (multiassignment != null && multiassignment.getVariables().contains(variable)) {
+            return true;
+        }
+        return isGlobalOrStaticDeclaration(variable);
+    }
+
+    /**
+     * global $a; / static $a = ...; で宣言している変数かどうかを、文の先頭のキーワードで判定する。
+     */
+    private static boolean isGlobalOrStaticDeclaration(Variable variable) {
+        for (PsiElement element = variable.getParent(); element != null && !(element instanceof Function)
+                && !(element instanceof GroupStatement) && !(element instanceof PsiFile); element = element.getParent()) {
+            PsiElement first = element.getFirstChild();
+            while (first instanceof PsiWhiteSpace) {
+                first = first.getNextSibling();
+            }
+            IElementType type = first != null ? first.getNode().getElementType() : null;
+            if (type == PhpTokenTypes.kwGLOBAL || type == PhpTokenTypes.kwSTATIC) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<List<Integer>> getValueExternalizer() {
+        return new DataExternalizer<>() {
+            @Override
+            public void save(@NotNull DataOutput out, List<Integer> value) throws IOException {
+                DataInputOutputUtil.writeINT(out, value.size());
+                for (int offset : value) {
+                    DataInputOutputUtil.writeINT(out, offset);
+                }
+            }
+
+            @Override
+            public List<Integer> read(@NotNull DataInput in) throws IOException {
+                int size = DataInputOutputUtil.readINT(in);
+                List<Integer> offsets = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    offsets.add(DataInputOutputUtil.readINT(in));
+                }
+                return offsets;
+            }
+        };
+    }
+
+    @Override
+    public int getVersion() {
+        return 4;
+    }
+
+    @Override
+    public FileBasedIndex.@NotNull InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(PhpFileType.INSTANCE) {
+            @Override
+            public boolean acceptInput(@NotNull VirtualFile file) {
+                return ViewFile.isViewFile(file);
+            }
+        };
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    /**
+     * 指定したViewファイルで読み取られている変数の一覧を返す（キー: 変数名）。
+     */
+    @NotNull
+    public static Map<String, List<Integer>> getFileData(@NotNull VirtualFile viewFile, @NotNull Project project) {
+        return FileBasedIndex.getInstance().getFileData(NAME, viewFile, project);
+    }
+}
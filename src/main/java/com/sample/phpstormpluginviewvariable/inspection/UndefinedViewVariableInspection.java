@@ -0,0 +1,91 @@
+package com.sample.phpstormpluginviewvariable.inspection;
+
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.LocalQuickFix;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.ProblemHighlightType;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.sample.phpstormpluginviewvariable.index.SetVarIndex;
+import com.sample.phpstormpluginviewvariable.index.ViewVariableIndex;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * UndefinedViewVariableInspection
+ * Viewファイルで読み取られているが、対応するControllerのアクションでsetVarされていない変数を報告する。
+ */
+public class UndefinedViewVariableInspection extends ViewContractInspectionBase {
+
+    @Override
+    protected boolean isTargetFile(@NotNull VirtualFile file, @NotNull Project project) {
+        return ViewFile.isViewFile(file);
+    }
+
+    @Override
+    protected @NotNull List<ProblemDescriptor> checkFile(@NotNull VirtualFile viewFile,
+                                                         @NotNull PsiManager psiManager,
+                                                         @NotNull InspectionManager manager) {
+        List<ProblemDescriptor> problems = new ArrayList<>();
+
+        // 対応するアクションが無いViewは判定できないため対象外
+        List<ControllerAction> controllerActions = ControllerFile.findControllerActions(viewFile, psiManager.getProject());
+        if (controllerActions.isEmpty()) {
+            return problems;
+        }
+
+        Map<String, List<Integer>> usages = ViewVariableIndex.getFileData(viewFile, psiManager.getProject());
+        if (usages.isEmpty()) {
+            return problems;
+        }
+
+        // 複数のアクションから使われるViewは、いずれかのアクションでsetVarされていれば定義済みとする
+        Set<String> definedNames = new HashSet<>();
+        for (ControllerAction controllerAction : controllerActions) {
+            definedNames.addAll(SetVarIndex.getVisibleVariableNames(controllerAction, psiManager.getProject()));
+        }
+
+        PsiFile psiFile = null;
+        for (Map.Entry<String, List<Integer>> entry : usages.entrySet()) {
+            if (definedNames.contains(entry.getKey())) {
+                continue;
+            }
+            if (psiFile == null) {
+                psiFile = psiManager.findFile(viewFile);
+                if (psiFile == null) {
+                    return problems;
+                }
+            }
+
+            PsiElement leaf = psiFile.findElementAt(entry.getValue().get(0));
+            Variable variable = PsiTreeUtil.getParentOfType(leaf, Variable.class, false);
+            if (variable == null) {
+                continue;
+            }
+            problems.add(manager.createProblemDescriptor(variable,
+                    "Variable '$" + entry.getKey() + "' is not set by " + describe(controllerActions),
+                    false, LocalQuickFix.EMPTY_ARRAY, ProblemHighlightType.GENERIC_ERROR_OR_WARNING));
+        }
+        return problems;
+    }
+
+    private static String describe(List<ControllerAction> controllerActions) {
+        if (controllerActions.size() == 1) {
+            return controllerActions.get(0).toString();
+        }
+        return controllerActions.get(0) + " and " + (controllerActions.size() - 1) + " other action(s)";
+    }
+}
@@ -0,0 +1,91 @@
+package com.sample.phpstormpluginviewvariable.inspection;
+
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.LocalQuickFix;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.ProblemHighlightType;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.psi.elements.StringLiteralExpression;
+import com.sample.phpstormpluginviewvariable.index.SetVarIndex;
+import com.sample.phpstormpluginviewvariable.index.SetVarSite;
+import com.sample.phpstormpluginviewvariable.index.ViewVariableIndex;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * UnusedSetVarInspection
+ * ControllerのアクションでsetVarされているが、対応するViewファイルで読み取られていない変数を報告する。
+ */
+public class UnusedSetVarInspection extends ViewContractInspectionBase {
+
+    @Override
+    protected boolean isTargetFile(@NotNull VirtualFile file, @NotNull Project project) {
+        return ViewFile.isControllerFile(file, project);
+    }
+
+    @Override
+    protected @NotNull List<ProblemDescriptor> checkFile(@NotNull VirtualFile controllerFile,
+                                                         @NotNull PsiManager psiManager,
+                                                         @NotNull InspectionManager manager) {
+        List<ProblemDescriptor> problems = new ArrayList<>();
+        Map<String, List<SetVarSite>> setVars = SetVarIndex.getFileData(controllerFile, psiManager.getProject());
+        if (setVars.isEmpty()) {
+            return problems;
+        }
+
+        // アクションごとに対応するViewで読み取られている変数名をまとめて取得する
+        Map<String, Set<String>> usedNamesByAction = new HashMap<>();
+        PsiFile psiFile = null;
+        for (Map.Entry<String, List<SetVarSite>> entry : setVars.entrySet()) {
+            for (SetVarSite site : entry.getValue()) {
+                Set<String> usedNames = usedNamesByAction.computeIfAbsent(site.getMethodName(), action -> {
+                    List<VirtualFile> viewFiles = action.isEmpty()
+                            ? List.of()
+                            : ControllerFile.findViewFiles(controllerFile, action, psiManager.getProject());
+                    if (viewFiles.isEmpty()) {
+                        return null;
+                    }
+                    // render/setViewで複数のViewを使うアクションは、いずれかのViewで読まれていれば使用済みとする
+                    Set<String> names = new HashSet<>();
+                    for (VirtualFile viewFile : viewFiles) {
+                        names.addAll(ViewVariableIndex.getFileData(viewFile, psiManager.getProject()).keySet());
+                    }
+                    return names;
+                });
+                // Viewを持たないアクション（JSONを返す等）は対象外
+                if (usedNames == null || usedNames.contains(entry.getKey())) {
+                    continue;
+                }
+
+                if (psiFile == null) {
+                    psiFile = psiManager.findFile(controllerFile);
+                    if (psiFile == null) {
+                        return problems;
+                    }
+                }
+                PsiElement leaf = psiFile.findElementAt(site.getKeyOffset());
+                StringLiteralExpression keyArg = PsiTreeUtil.getParentOfType(leaf, StringLiteralExpression.class, false);
+                if (keyArg == null) {
+                    continue;
+                }
+                problems.add(manager.createProblemDescriptor(keyArg,
+                        "View variable '" + entry.getKey() + "' is never read in the view of " + site.getMethodName(),
+                        false, LocalQuickFix.EMPTY_ARRAY, ProblemHighlightType.LIKE_UNUSED_SYMBOL));
+            }
+        }
+        return problems;
+    }
+}
@@ -0,0 +1,97 @@
+package com.sample.phpstormpluginviewvariable.inspection;
+
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.codeInspection.CommonProblemDescriptor;
+import com.intellij.codeInspection.GlobalInspectionContext;
+import com.intellij.codeInspection.GlobalInspectionTool;
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.ProblemDescriptionsProcessor;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.reference.RefElement;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ViewContractInspectionBase
+ * Controller・View間の変数の受け渡しを検査するグローバルインスペクションの共通処理。
+ * 対象ファイルを並列の読み取りアクションで処理し、インデックスのみを使って問題を検出する。
+ * PSIは問題が見つかったファイルに対してだけ読み込む。
+ */
+public abstract class ViewContractInspectionBase extends GlobalInspectionTool {
+
+    /**
+     * 検査対象のファイルかどうかを判定する（PSIを読み込まず、パスとキャッシュされた対応表のみで判定すること）。
+     */
+    protected abstract boolean isTargetFile(@NotNull VirtualFile file, @NotNull Project project);
+
+    /**
+     * 1ファイル分の検査を行い、見つかった問題を返す。読み取りアクション内で呼び出される。
+     */
+    @NotNull
+    protected abstract List<ProblemDescriptor> checkFile(@NotNull VirtualFile file,
+                                                         @NotNull PsiManager psiManager,
+                                                         @NotNull InspectionManager manager);
+
+    @Override
+    public void runInspection(@NotNull AnalysisScope scope,
+                              @NotNull InspectionManager manager,
+                              @NotNull GlobalInspectionContext globalContext,
+                              @NotNull ProblemDescriptionsProcessor problemDescriptionsProcessor) {
+        Project project = manager.getProject();
+        PsiManager psiManager = PsiManager.getInstance(project);
+
+        List<VirtualFile> files = new ArrayList<>();
+        ReadAction.run(() -> scope.accept(file -> {
+            if (isTargetFile(file, project)) {
+                files.add(file);
+            }
+            return true;
+        }));
+        Log.info(getShortName() + ": checking " + files.size() + " files");
+
+        Map<PsiFile, List<ProblemDescriptor>> problems = new ConcurrentHashMap<>();
+        JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, ProgressManager.getInstance().getProgressIndicator(), file -> {
+            ReadAction.run(() -> {
+                if (!file.isValid()) {
+                    return;
+                }
+                for (ProblemDescriptor descriptor : checkFile(file, psiManager, manager)) {
+                    PsiFile psiFile = descriptor.getPsiElement().getContainingFile();
+                    problems.computeIfAbsent(psiFile, f -> Collections.synchronizedList(new ArrayList<>())).add(descriptor);
+                }
+            });
+            return true;
+        });
+
+        // 結果の登録は呼び出し元スレッドでまとめて行う
+        ReadAction.run(() -> problems.forEach((psiFile, descriptors) -> {
+            RefElement refElement = globalContext.getRefManager().getReference(psiFile);
+            if (refElement != null) {
+                problemDescriptionsProcessor.addProblemElement(refElement, descriptors.toArray(CommonProblemDescriptor[]::new));
+            }
+        }));
+    }
+
+    @Override
+    public boolean isGraphNeeded() {
+        return false;
+    }
+
+    @Override
+    public boolean isReadActionNeeded() {
+        return false;
+    }
+}
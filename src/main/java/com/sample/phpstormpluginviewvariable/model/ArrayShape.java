@@ -0,0 +1,278 @@
+package com.sample.phpstormpluginviewvariable.model;
+
+import com.intellij.psi.PsiElement;
+import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocComment;
+import com.jetbrains.php.lang.documentation.phpdoc.psi.tags.PhpDocReturnTag;
+import com.jetbrains.php.lang.psi.elements.ArrayAccessExpression;
+import com.jetbrains.php.lang.psi.elements.ArrayCreationExpression;
+import com.jetbrains.php.lang.psi.elements.ArrayHashElement;
+import com.jetbrains.php.lang.psi.elements.ArrayIndex;
+import com.jetbrains.php.lang.psi.elements.Function;
+import com.jetbrains.php.lang.psi.elements.FunctionReference;
+import com.jetbrains.php.lang.psi.elements.PhpExpression;
+import com.jetbrains.php.lang.psi.elements.StringLiteralExpression;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ArrayShape
+ * setVarで渡された配列のキーと値の型（配列シェイプ）を表す。
+ * 配列リテラル、または戻り値のPHPDocに書かれた array{...} 型から作成する。
+ */
+public class ArrayShape {
+    private final Map<String, Entry> entries;
+
+    private ArrayShape(@NotNull Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    @Nullable
+    public Entry get(@NotNull String key) {
+        return entries.get(key);
+    }
+
+    @NotNull
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * setVarの第二引数から配列シェイプを推論する。
+     * 配列リテラルの場合はそのキー、関数・メソッド呼び出しの場合は戻り値のPHPDocの array{...} を使用する。
+     */
+    @Nullable
+    public static ArrayShape fromSetVarValue(@Nullable PsiElement value) {
+        if (value instanceof ArrayCreationExpression arrayCreation) {
+            return fromLiteral(arrayCreation);
+        }
+        if (value instanceof FunctionReference functionRef) {
+            PsiElement resolved = functionRef.resolve();
+            if (resolved instanceof Function function) {
+                return fromReturnDoc(function);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * View内の式（$config や $config['items']）の配列シェイプを、Viewの変数テーブルから辿って返す。
+     */
+    @Nullable
+    public static ArrayShape resolveShape(@Nullable PsiElement expression, @NotNull ViewVariableTable table) {
+        if (expression instanceof Variable variable) {
+            ViewVariable viewVariable = table.get(variable.getName());
+            return viewVariable != null ? viewVariable.getArrayShape() : null;
+        }
+        if (expression instanceof ArrayAccessExpression access) {
+            Entry entry = resolveAccess(access, table);
+            return entry != null ? entry.getShape() : null;
+        }
+        return null;
+    }
+
+    /**
+     * View内の配列アクセス（$config['title']）に対応するシェイプの要素を返す。
+     * キーが文字列リテラルでない場合はnullを返す。
+     */
+    @Nullable
+    public static Entry resolveAccess(@NotNull ArrayAccessExpression access, @NotNull ViewVariableTable table) {
+        ArrayIndex index = access.getIndex();
+        if (index == null || !(index.getValue() instanceof StringLiteralExpression key)) {
+            return null;
+        }
+        ArrayShape shape = resolveShape(access.getValue(), table);
+        return shape != null ? shape.get(key.getContents()) : null;
+    }
+
+    /**
+     * 配列リテラルからシェイプを作成する。キーを持つ要素が無い場合はnullを返す。
+     */
+    @Nullable
+    public static ArrayShape fromLiteral(@NotNull ArrayCreationExpression arrayCreation) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (ArrayHashElement hashElement : arrayCreation.getHashElements()) {
+            PsiElement key = hashElement.getKey();
+            PsiElement value = hashElement.getValue();
+            if (key == null) {
+                continue;
+            }
+            String keyName = key instanceof StringLiteralExpression ? ((StringLiteralExpression) key).getContents() : key.getText();
+            PhpType type = value instanceof PhpExpression ? ((PhpExpression) value).getType() : PhpType.MIXED;
+            ArrayShape nested = value instanceof ArrayCreationExpression ? fromLiteral((ArrayCreationExpression) value) : null;
+            entries.put(keyName, new Entry(keyName, type, nested));
+        }
+        return entries.isEmpty() ? null : new ArrayShape(entries);
+    }
+
+    /**
+     * 関数・メソッドの @return array{...} からシェイプを作成する。
+     */
+    @Nullable
+    public static ArrayShape fromReturnDoc(@NotNull Function function) {
+        PhpDocComment docComment = function.getDocComment();
+        PhpDocReturnTag returnTag = docComment != null ? docComment.getReturnTag() : null;
+        if (returnTag == null) {
+            return null;
+        }
+
+        // 複数行に渡る場合に備えて行頭の * を除去する
+        String text = returnTag.getText().replaceAll("\\n\\s*\\*", " ");
+        int start = text.indexOf("array{");
+        if (start == -1) {
+            return null;
+        }
+        int end = findClosing(text, start + "array".length());
+        if (end == -1) {
+            return null;
+        }
+
+        ArrayShape shape = parseDocShape(text.substring(start + "array{".length(), end), function.getNamespaceName());
+        Log.info("Parsed array shape from PHPDoc of " + function.getName() + ": " + (shape != null ? shape.entries.keySet() : "null"));
+        return shape;
+    }
+
+    /**
+     * array{ と } の間の文字列（例: "title: string, items: list<Item>"）を解析する。
+     */
+    @Nullable
+    private static ArrayShape parseDocShape(@NotNull String body, @NotNull String namespace) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (String part : splitTopLevel(body)) {
+            int colon = part.indexOf(':');
+            if (colon == -1) {
+                continue;
+            }
+            String key = part.substring(0, colon).trim();
+            if (key.endsWith("?")) {
+                key = key.substring(0, key.length() - 1);
+            }
+            key = key.replaceAll("^['\"]|['\"]$", "");
+            String typeText = part.substring(colon + 1).trim();
+
+            ArrayShape nested = null;
+            if (typeText.startsWith("array{") && typeText.endsWith("}")) {
+                nested = parseDocShape(typeText.substring("array{".length(), typeText.length() - 1), namespace);
+                typeText = "array";
+            }
+            entries.put(key, new Entry(key, toPhpType(typeText, namespace), nested));
+        }
+        return entries.isEmpty() ? null : new ArrayShape(entries);
+    }
+
+    /**
+     * 完全修飾名で書かれた型文字列（PHPStanの型の表記など）をPhpTypeに変換する。
+     * 例: array<int, App\Model\Quest>|null -> \App\Model\Quest[]|null
+     */
+    @NotNull
+    public static PhpType toPhpType(@NotNull String typeText) {
+        return toPhpType(typeText.replace("non-empty-", ""), "\\");
+    }
+
+    /**
+     * PHPDocの型文字列をPhpTypeに変換する（list<T>・array<K, T> は T[] として扱う）。
+     */
+    private static PhpType toPhpType(@NotNull String typeText, @NotNull String namespace) {
+        PhpType.PhpTypeBuilder builder = PhpType.builder();
+        for (String part : splitTopLevel(typeText.replace('|', ','))) {
+            String type = part.trim();
+            String elementType = null;
+            if ((type.startsWith("list<") || type.startsWith("array<")) && type.endsWith(">")) {
+                List<String> params = splitTopLevel(type.substring(type.indexOf('<') + 1, type.length() - 1));
+                elementType = params.get(params.size() - 1).trim();
+            } else if (type.endsWith("[]")) {
+                elementType = type.substring(0, type.length() - 2);
+            }
+
+            if (elementType != null) {
+                builder.add(qualify(elementType, namespace) + "[]");
+            } else if (!type.isEmpty()) {
+                builder.add(qualify(type, namespace));
+            }
+        }
+        return builder.build();
+    }
+
+    private static String qualify(String type, String namespace) {
+        if (type.startsWith("\\") || PhpType.isPrimitiveType(type) || type.startsWith("array")) {
+            return type;
+        }
+        return (namespace.endsWith("\\") ? namespace : namespace + "\\") + type;
+    }
+
+    /**
+     * 括弧の内側を除いてカンマで分割する。
+     */
+    private static List<String> splitTopLevel(String text) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '{' || c == '<' || c == '(') {
+                depth++;
+            } else if (c == '}' || c == '>' || c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                parts.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    /**
+     * 開き括弧 { に対応する閉じ括弧の位置を返す。
+     */
+    private static int findClosing(String text, int openIndex) {
+        int depth = 0;
+        for (int i = openIndex; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 配列シェイプの1要素（キー・値の型・入れ子のシェイプ）。
+     */
+    public static class Entry {
+        private final String key;
+        private final PhpType type;
+        private final ArrayShape shape;
+
+        public Entry(@NotNull String key, @NotNull PhpType type, @Nullable ArrayShape shape) {
+            this.key = key;
+            this.type = type;
+            this.shape = shape;
+        }
+
+        @NotNull
+        public String getKey() {
+            return key;
+        }
+
+        @NotNull
+        public PhpType getType() {
+            return type;
+        }
+
+        @Nullable
+        public ArrayShape getShape() {
+            return shape;
+        }
+    }
+}
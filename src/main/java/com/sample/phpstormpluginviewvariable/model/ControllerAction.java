@@ -0,0 +1,55 @@
+package com.sample.phpstormpluginviewvariable.model;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * ControllerAction
+ * Viewファイルに対応するControllerファイルとアクションメソッド名の組を表す。
+ */
+public class ControllerAction {
+    private final VirtualFile controllerFile;
+    private final String actionName;
+
+    public ControllerAction(@NotNull VirtualFile controllerFile, @NotNull String actionName) {
+        this.controllerFile = controllerFile;
+        this.actionName = actionName;
+    }
+
+    @NotNull
+    public VirtualFile getControllerFile() {
+        return controllerFile;
+    }
+
+    /**
+     * アクションメソッド名（例: confirmStoreAction）
+     */
+    @NotNull
+    public String getActionName() {
+        return actionName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ControllerAction)) {
+            return false;
+        }
+        ControllerAction that = (ControllerAction) o;
+        return controllerFile.equals(that.controllerFile) && actionName.equals(that.actionName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(controllerFile, actionName);
+    }
+
+    @Override
+    public String toString() {
+        return controllerFile.getName() + "::" + actionName;
+    }
+}
@@ -6,12 +6,28 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.jetbrains.php.lang.PhpLanguage;
 import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.PhpClass;
 import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.sample.phpstormpluginviewvariable.index.RenderTargetIndex;
 import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * ControllerFile
@@ -19,12 +35,192 @@ import java.util.HashSet;
  * そのアクション内で呼ばれているsetVarのMethodReferenceを取得するユーティリティクラス。
  */
 public class ControllerFile {
+    /**
+     * アクションの前後で呼ばれるフックメソッド名。フック内でsetVarされた変数はすべてのViewで利用できる。
+     */
+    public static final Set<String> HOOK_METHOD_NAMES = Set.of("init", "preDispatch", "postDispatch");
+
+    private static final Key<CachedValue<List<VirtualFile>>> HOOK_FILES_KEY = Key.create("phpstormpluginviewvariable.ControllerFile.hookFiles");
+
     /**
      * 指定したViewファイル（VirtualFile）とProjectから、
      * 対応するControllerファイルのアクション内で呼ばれているsetVarのMethodReferenceを返す。
      * Viewファイル名からアクション名を推測し、Controllerファイルの該当メソッドのみを対象とする。
      */
     public static Collection<MethodReference> getMethodReferences(VirtualFile viewVirtualFile, Project project) {
+        Method actionMethod = findActionMethod(viewVirtualFile, project);
+        if (actionMethod == null) {
+            return Collections.emptyList();
+        }
+        return getMethodReferences(actionMethod);
+    }
+
+    /**
+     * 指定したアクションメソッド内で呼ばれているMethodReferenceを返す。
+     */
+    public static Collection<MethodReference> getMethodReferences(Method actionMethod) {
+        String actionName = actionMethod.getName();
+        Log.info("Found action method: " + actionName + ", searching for setVar calls");
+
+        PsiFile controllerFile = actionMethod.getContainingFile();
+        // PSI要素をハッシュしないよう、出現順のリストで返す
+        List<MethodReference> variables = new ArrayList<>();
+        for (MethodReference methodRef : PsiTreeUtil.findChildrenOfType(actionMethod, MethodReference.class)) {
+            // 参照元ファイルがcontrollerFileと一致する場合のみ追加
+            if (methodRef.getContainingFile() == controllerFile) {
+                variables.add(methodRef);
+                Log.info("Added method reference: " + methodRef.getName());
+            }
+        }
+        
+        Log.info("Found " + variables.size() + " method references in " + actionName);
+        return variables;
+    }
+
+    /**
+     * 指定したViewファイルに対応するControllerのアクションメソッドを返す。
+     * Controllerファイルまたはアクションが見つからない場合はnullを返す。
+     */
+    @Nullable
+    public static Method findActionMethod(VirtualFile viewVirtualFile, Project project) {
+        ControllerAction controllerAction = findControllerAction(viewVirtualFile, project);
+        if (controllerAction == null) {
+            return null;
+        }
+        return findActionMethod(controllerAction, project);
+    }
+
+    /**
+     * 指定したViewファイルを使うすべてのアクションメソッドを返す。
+     * 命名規約で対応するアクションと、render/setViewでこのViewを明示的に指定しているアクションを含む。
+     */
+    public static List<Method> findActionMethods(VirtualFile viewVirtualFile, Project project) {
+        List<Method> actionMethods = new ArrayList<>();
+        for (ControllerAction controllerAction : findControllerActions(viewVirtualFile, project)) {
+            Method actionMethod = findActionMethod(controllerAction, project);
+            if (actionMethod != null) {
+                actionMethods.add(actionMethod);
+            }
+        }
+        return actionMethods;
+    }
+
+    /**
+     * 指定したアクションのメソッドを返す。
+     */
+    @Nullable
+    public static Method findActionMethod(ControllerAction controllerAction, Project project) {
+        // コントローラーファイルをPsiManagerを使用して取得
+        PsiFile controllerFile = PsiManager.getInstance(project).findFile(controllerAction.getControllerFile());
+        if (controllerFile == null) {
+            Log.info("Controller file not found: " + controllerAction.getControllerFile().getPath());
+            return null;
+        }
+
+        // コントローラーファイル内の指定されたアクション名のメソッドを検索
+        String actionName = controllerAction.getActionName();
+        Method actionMethod = PsiTreeUtil.findChildrenOfType(controllerFile, Method.class).stream()
+            .filter(method -> actionName.equals(method.getName()))
+            .findFirst()
+            .orElse(null);
+
+        if (actionMethod == null) {
+            Log.info("Action method not found: " + actionName);
+        }
+        return actionMethod;
+    }
+
+    /**
+     * 指定したアクションメソッドのクラスと親クラスに定義されたフックメソッドを返す。
+     * 親クラスのフックが先になるように並べる（子クラスのsetVarで上書きされる順序）。
+     */
+    public static List<Method> findHookMethods(Method actionMethod) {
+        List<Method> hooks = new ArrayList<>();
+        PhpClass phpClass = actionMethod.getContainingClass();
+        if (phpClass == null || DumbService.isDumb(actionMethod.getProject())) {
+            return hooks;
+        }
+
+        Set<String> visited = new HashSet<>();
+        while (phpClass != null && visited.add(phpClass.getFQN())) {
+            List<Method> ownHooks = new ArrayList<>();
+            for (Method method : phpClass.getOwnMethods()) {
+                if (HOOK_METHOD_NAMES.contains(method.getName())) {
+                    ownHooks.add(method);
+                }
+            }
+            hooks.addAll(0, ownHooks);
+            phpClass = phpClass.getSuperClass();
+        }
+        Log.info("Found " + hooks.size() + " hook methods for " + actionMethod.getName());
+        return hooks;
+    }
+
+    /**
+     * 指定したControllerファイルのクラスの親クラスのうち、フックメソッドを持つクラスのファイルを返す。
+     * 結果はPHPのPSIが変更されるまでControllerファイルにキャッシュされる。
+     */
+    public static List<VirtualFile> findHookFiles(VirtualFile controllerVirtualFile, Project project) {
+        PsiFile controllerFile = PsiManager.getInstance(project).findFile(controllerVirtualFile);
+        if (controllerFile == null) {
+            return Collections.emptyList();
+        }
+        return CachedValuesManager.getCachedValue(controllerFile, HOOK_FILES_KEY, () -> {
+            Set<VirtualFile> files = new LinkedHashSet<>();
+            for (PhpClass phpClass : PsiTreeUtil.findChildrenOfType(controllerFile, PhpClass.class)) {
+                Set<String> visited = new HashSet<>();
+                PhpClass superClass = phpClass.getSuperClass();
+                while (superClass != null && visited.add(superClass.getFQN())) {
+                    VirtualFile superFile = superClass.getContainingFile().getVirtualFile();
+                    boolean hasHook = Arrays.stream(superClass.getOwnMethods())
+                            .anyMatch(method -> HOOK_METHOD_NAMES.contains(method.getName()));
+                    if (hasHook && superFile != null && !superFile.equals(controllerVirtualFile)) {
+                        files.add(superFile);
+                    }
+                    superClass = superClass.getSuperClass();
+                }
+            }
+            return CachedValueProvider.Result.create(List.copyOf(files),
+                    PsiModificationTracker.getInstance(project).forLanguage(PhpLanguage.INSTANCE));
+        });
+    }
+
+    /**
+     * 指定したViewファイルに対応するControllerファイルとアクション名を特定する。
+     * クラス階層による検出が有効な場合は基底Controllerのサブクラスの対応表を優先し、
+     * 見つからなければパスの命名規約で判定する。
+     */
+    @Nullable
+    public static ControllerAction findControllerAction(VirtualFile viewVirtualFile, Project project) {
+        ControllerAction controllerAction = ControllerHierarchy.getInstance(project).findControllerAction(viewVirtualFile);
+        if (controllerAction != null) {
+            return controllerAction;
+        }
+        return findControllerAction(viewVirtualFile);
+    }
+
+    /**
+     * 指定したViewファイルを使うすべてのアクションを返す。
+     * 命名規約で対応するアクションを先頭に、render/setViewで明示的に指定しているアクションをインデックスから引いて続ける。
+     */
+    public static List<ControllerAction> findControllerActions(VirtualFile viewVirtualFile, Project project) {
+        Set<ControllerAction> actions = new LinkedHashSet<>();
+        ControllerAction controllerAction = findControllerAction(viewVirtualFile, project);
+        if (controllerAction != null) {
+            actions.add(controllerAction);
+        }
+        if (!DumbService.isDumb(project)) {
+            actions.addAll(RenderTargetIndex.findRenderingActions(viewVirtualFile, project));
+        }
+        return new ArrayList<>(actions);
+    }
+
+    /**
+     * 指定したViewファイル（VirtualFile）のパスから、対応するControllerファイルとアクション名を特定する。
+     * PSIは読み込まず、パスの命名規約のみで判定する。
+     */
+    @Nullable
+    public static ControllerAction findControllerAction(VirtualFile viewVirtualFile) {
         // ビューファイルのパスからコントローラーファイルのパスを推測
         String viewPath = viewVirtualFile.getPath();
         // WindowsとUnixのパス区切り文字を正規化
@@ -33,14 +229,14 @@ public class ControllerFile {
 
         // ビューファイル名からアクション名を取得
         String viewFileName = viewVirtualFile.getName();
-        String baseActionName = viewFileName.replace(".php", "");
+        String baseActionName = ViewFile.removeViewExtension(viewFileName);
         String actionName = toCamelCase(baseActionName) + "Action";
         Log.info("Action name: " + actionName);
 
         int viewIndex = normalizedViewPath.indexOf("/views/");
         if (viewIndex == -1) {
             Log.info("Not a view file: " + normalizedViewPath);
-            return new HashSet<>();
+            return null;
         }
         String viewSubPath = normalizedViewPath.substring(viewIndex + "/views/".length());
         Log.info("View sub path: " + viewSubPath);
@@ -60,7 +256,7 @@ public class ControllerFile {
             controllerFileName = controllerName + "Controller.php";
         } else {
             Log.info("Unsupported path structure: " + pathParts.length + " parts");
-            return new HashSet<>();
+            return null;
         }
 
         String controllerPath = normalizedViewPath.substring(0, viewIndex) + "/Controller/" + controllerDir + controllerFileName;
@@ -69,42 +265,133 @@ public class ControllerFile {
         VirtualFile controllerVirtualFile = LocalFileSystem.getInstance().findFileByPath(controllerPath);
         if (controllerVirtualFile == null) {
             Log.info("Controller file not found: " + controllerPath);
-            return new HashSet<>();
+            return null;
         }
 
-        // コントローラーファイルをPsiManagerを使用して取得
-        PsiFile controllerFile = PsiManager.getInstance(project).findFile(controllerVirtualFile);
-        if (controllerFile == null) {
-            Log.info("Controller file not found: " + controllerPath);
-            return new HashSet<>();
+        return new ControllerAction(controllerVirtualFile, actionName);
+    }
+    
+    /**
+     * Controllerファイルとアクションメソッド名から、対応するViewファイルを返す。
+     * クラス階層による検出が有効な場合は基底Controllerのサブクラスの対応表を優先する。
+     */
+    @Nullable
+    public static VirtualFile findViewFile(VirtualFile controllerVirtualFile, String actionMethodName, Project project) {
+        String viewPath = ControllerHierarchy.getInstance(project).findViewPath(controllerVirtualFile, actionMethodName);
+        if (viewPath != null) {
+            VirtualFile viewVirtualFile = findViewFileByPath(viewPath);
+            if (viewVirtualFile != null) {
+                return viewVirtualFile;
+            }
         }
+        return findViewFile(controllerVirtualFile, actionMethodName);
+    }
 
-        // コントローラーファイル内の指定されたアクション名のメソッド内のsetVarメソッド呼び出しを検索
-        Method actionMethod = PsiTreeUtil.findChildrenOfType(controllerFile, Method.class).stream()
-            .filter(method -> actionName.equals(method.getName()))
-            .findFirst()
-            .orElse(null);
-
-        if (actionMethod == null) {
-            Log.info("Action method not found: " + actionName);
-            return new HashSet<>();
+    /**
+     * 指定したアクションが使うすべてのViewファイルを返す。
+     * 命名規約で対応するViewと、render/setViewで明示的に指定しているViewを含む。
+     */
+    public static List<VirtualFile> findViewFiles(VirtualFile controllerVirtualFile, String actionMethodName, Project project) {
+        Set<VirtualFile> viewFiles = new LinkedHashSet<>();
+        VirtualFile viewVirtualFile = findViewFile(controllerVirtualFile, actionMethodName, project);
+        if (viewVirtualFile != null) {
+            viewFiles.add(viewVirtualFile);
         }
-        
-        Log.info("Found action method: " + actionName + ", searching for setVar calls");
+        if (!DumbService.isDumb(project)) {
+            viewFiles.addAll(RenderTargetIndex.findRenderedViews(new ControllerAction(controllerVirtualFile, actionMethodName), project));
+        }
+        return new ArrayList<>(viewFiles);
+    }
 
-        Collection<MethodReference> variables = new HashSet<>();
-        for (MethodReference methodRef : PsiTreeUtil.findChildrenOfType(actionMethod, MethodReference.class)) {
-            // 参照元ファイルがcontrollerFileと一致する場合のみ追加
-            if (methodRef.getContainingFile() == controllerFile) {
-                variables.add(methodRef);
-                Log.info("Added method reference: " + methodRef.getName());
+    /**
+     * Controllerファイルが属するモジュールのviewsディレクトリを返す。
+     * Controllerファイルの祖先ディレクトリのうち、views ディレクトリを持つ最も近いものを対象とする。
+     */
+    @Nullable
+    public static VirtualFile findViewsRoot(VirtualFile controllerVirtualFile) {
+        VirtualFile dir = controllerVirtualFile.getParent();
+        while (dir != null) {
+            VirtualFile viewsDir = dir.findChild("views");
+            if (viewsDir != null && viewsDir.isDirectory()) {
+                return viewsDir;
             }
+            dir = dir.getParent();
         }
-        
-        Log.info("Found " + variables.size() + " method references in " + actionName);
-        return variables;
+        return null;
     }
-    
+
+    /**
+     * Controllerファイルとアクションメソッド名から、対応するViewファイルを返す。
+     * 例: /modules/GmTool/Controller/Debug/TestController.php の indexAction -> /modules/GmTool/views/debug/test/index.php
+     */
+    @Nullable
+    public static VirtualFile findViewFile(VirtualFile controllerVirtualFile, String actionMethodName) {
+        String viewPath = toViewPath(controllerVirtualFile.getPath(), actionMethodName);
+        if (viewPath == null) {
+            return null;
+        }
+
+        VirtualFile viewVirtualFile = findViewFileByPath(viewPath);
+        if (viewVirtualFile == null) {
+            Log.info("View file not found: " + viewPath);
+        }
+        return viewVirtualFile;
+    }
+
+    /**
+     * Viewファイルのパス（.php）のファイルを返す。無い場合は同じ名前の .phtml のファイルを返す。
+     */
+    @Nullable
+    private static VirtualFile findViewFileByPath(String viewPath) {
+        VirtualFile viewVirtualFile = LocalFileSystem.getInstance().findFileByPath(viewPath);
+        if (viewVirtualFile == null && viewPath.endsWith(".php")) {
+            viewVirtualFile = LocalFileSystem.getInstance().findFileByPath(ViewFile.removeViewExtension(viewPath) + ".phtml");
+        }
+        return viewVirtualFile;
+    }
+
+    /**
+     * Controllerファイルのパスとアクションメソッド名から、Viewファイルのパスを組み立てる。
+     */
+    @Nullable
+    public static String toViewPath(String controllerPath, String actionMethodName) {
+        int controllerIndex = controllerPath.indexOf("/Controller/");
+        if (controllerIndex == -1 || !controllerPath.endsWith("Controller.php")) {
+            return null;
+        }
+
+        // サブディレクトリとコントローラー名を取得（例: Debug/TestController.php）
+        String afterController = controllerPath.substring(controllerIndex + "/Controller/".length());
+        String subDir = "";
+        int slashIdx = afterController.lastIndexOf("/");
+        if (slashIdx > 0) {
+            subDir = afterController.substring(0, slashIdx); // 例: Debug
+        }
+        String controllerClassName = afterController.substring(slashIdx + 1).replace("Controller.php", ""); // 例: Test
+
+        String actionName = actionMethodName;
+        if (actionName.endsWith("Action")) {
+            actionName = actionName.substring(0, actionName.length() - "Action".length());
+        }
+
+        // Viewファイルのパスを組み立て
+        String viewPath = controllerPath.substring(0, controllerIndex) + "/views/";
+        if (!subDir.isEmpty()) {
+            viewPath += toKebabCase(subDir) + "/";
+        }
+        return viewPath + toKebabCase(controllerClassName) + "/" + toKebabCase(actionName) + ".php";
+    }
+
+    /**
+     * 文字列をケバブケースに変換
+     */
+    static String toKebabCase(String input) {
+        if (input == null || input.isEmpty()) {
+            return input;
+        }
+        return input.replaceAll("([a-z])([A-Z])", "$1-$2").toLowerCase();
+    }
+
     /**
      * 文字列をパスカルケースに変換
      */
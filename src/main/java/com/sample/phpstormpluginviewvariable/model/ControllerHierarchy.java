@@ -0,0 +1,180 @@
+package com.sample.phpstormpluginviewvariable.model;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.jetbrains.php.PhpIndex;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.PhpClass;
+import com.sample.phpstormpluginviewvariable.cache.ControllerActionModificationTracker;
+import com.sample.phpstormpluginviewvariable.settings.ViewVariableSettings;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ControllerHierarchy
+ * 設定された基底Controllerクラスのサブクラスを PhpIndex から検出し、Viewファイルとの対応表を作成する。
+ * 対応表はPHPのクラスの構造（ControllerActionModificationTracker.getClassStructureTracker）・ファイル構成・設定が
+ * 変更されるまでプロジェクトにキャッシュされ、以降の検索はO(1)で行う。メソッド本体の編集では作り直さない。
+ * PhpIndexを使うため、TypeProviderのgetTypeからは呼び出さないこと（ViewTypeProviderではcompleteから参照される）。
+ */
+public class ControllerHierarchy {
+    private static final Key<CachedValue<ControllerHierarchy>> KEY = Key.create("phpstormpluginviewvariable.ControllerHierarchy");
+    /**
+     * 最後に作成した対応表のControllerファイル（PhpIndexを参照できないときの判定に使う）
+     */
+    private static final Key<Set<VirtualFile>> LAST_CONTROLLER_FILES_KEY = Key.create("phpstormpluginviewvariable.ControllerHierarchy.lastControllerFiles");
+
+    private static final ControllerHierarchy EMPTY = new ControllerHierarchy(Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet());
+
+    /**
+     * Viewファイルのパス（拡張子なし） -> アクション
+     */
+    private final Map<String, ControllerAction> actionsByViewPath;
+    /**
+     * Controllerファイルのパス#アクション名 -> Viewファイルのパス
+     */
+    private final Map<String, String> viewPathsByAction;
+    /**
+     * 検出したControllerファイル
+     */
+    private final Set<VirtualFile> controllerFiles;
+
+    private ControllerHierarchy(@NotNull Map<String, ControllerAction> actionsByViewPath, @NotNull Map<String, String> viewPathsByAction,
+                                @NotNull Set<VirtualFile> controllerFiles) {
+        this.actionsByViewPath = actionsByViewPath;
+        this.viewPathsByAction = viewPathsByAction;
+        this.controllerFiles = controllerFiles;
+    }
+
+    /**
+     * 対応表を返す。クラス階層による検出が無効な場合やインデックス作成中は空の対応表を返す。
+     */
+    @NotNull
+    public static ControllerHierarchy getInstance(@NotNull Project project) {
+        if (!ViewVariableSettings.getInstance(project).isHierarchyDiscovery() || DumbService.isDumb(project)) {
+            return EMPTY;
+        }
+        return CachedValuesManager.getManager(project).getCachedValue(project, KEY, () -> compute(project), false);
+    }
+
+    @Nullable
+    public ControllerAction findControllerAction(@NotNull VirtualFile viewFile) {
+        return actionsByViewPath.get(ViewFile.removeViewExtension(viewFile.getPath()));
+    }
+
+    @Nullable
+    public String findViewPath(@NotNull VirtualFile controllerFile, @NotNull String actionMethodName) {
+        return viewPathsByAction.get(controllerFile.getPath() + "#" + actionMethodName);
+    }
+
+    /**
+     * 基底Controllerのサブクラスとして検出したControllerファイルを返す（/Controller/ 配下にないものを含む）。
+     */
+    @NotNull
+    public Set<VirtualFile> getControllerFiles() {
+        return Collections.unmodifiableSet(controllerFiles);
+    }
+
+    /**
+     * 指定したファイルが、クラス階層による検出で見つかったControllerファイルかどうかを判定する。
+     * 書き込みアクション中（PSIの変更イベントの中など）とインデックス作成中はPhpIndexを参照せず、最後に作成した対応表で判定する。
+     */
+    public static boolean isDiscoveredControllerFile(@NotNull VirtualFile file, @NotNull Project project) {
+        if (!ViewVariableSettings.getInstance(project).isHierarchyDiscovery()) {
+            return false;
+        }
+        if (ApplicationManager.getApplication().isWriteAccessAllowed() || DumbService.isDumb(project)) {
+            Set<VirtualFile> controllerFiles = project.getUserData(LAST_CONTROLLER_FILES_KEY);
+            return controllerFiles != null && controllerFiles.contains(file);
+        }
+        return getInstance(project).getControllerFiles().contains(file);
+    }
+
+    private static CachedValueProvider.Result<ControllerHierarchy> compute(@NotNull Project project) {
+        ViewVariableSettings settings = ViewVariableSettings.getInstance(project);
+        String baseFqn = settings.getBaseControllerFqn();
+
+        Map<String, ControllerAction> actionsByViewPath = new HashMap<>();
+        Map<String, String> viewPathsByAction = new HashMap<>();
+        Set<VirtualFile> controllerFiles = new HashSet<>();
+        for (PhpClass phpClass : PhpIndex.getInstance(project).getAllSubclasses(baseFqn)) {
+            if (phpClass.isAbstract() || phpClass.getContainingFile() == null) {
+                continue;
+            }
+            VirtualFile controllerFile = phpClass.getContainingFile().getVirtualFile();
+            String viewDir = toViewDirectory(phpClass, controllerFile);
+            if (viewDir == null) {
+                continue;
+            }
+            controllerFiles.add(controllerFile);
+
+            for (Method method : phpClass.getMethods()) {
+                String methodName = method.getName();
+                if (!methodName.endsWith("Action") || !method.getAccess().isPublic()) {
+                    continue;
+                }
+                String actionName = methodName.substring(0, methodName.length() - "Action".length());
+                String viewPath = viewDir + "/" + ControllerFile.toKebabCase(actionName) + ".php";
+                actionsByViewPath.putIfAbsent(ViewFile.removeViewExtension(viewPath), new ControllerAction(controllerFile, methodName));
+                viewPathsByAction.put(controllerFile.getPath() + "#" + methodName, viewPath);
+            }
+        }
+        Log.info("Controller hierarchy of " + baseFqn + ": " + actionsByViewPath.size() + " views");
+        project.putUserData(LAST_CONTROLLER_FILES_KEY, Set.copyOf(controllerFiles));
+
+        return CachedValueProvider.Result.create(
+                new ControllerHierarchy(actionsByViewPath, viewPathsByAction, controllerFiles),
+                ControllerActionModificationTracker.getInstance(project).getClassStructureTracker(),
+                VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS,
+                settings.getModificationTracker());
+    }
+
+    /**
+     * Controllerクラスに対応するViewディレクトリのパスを返す。
+     * Controllerファイルの祖先ディレクトリのうち views ディレクトリを持つものをモジュールのルートとし、
+     * 名前空間の Controller 以降の部分をケバブケースのディレクトリとして扱う。
+     * 例: \App\Modules\GmTool\Controller\Debug\QuestBattleController -> GmTool/views/debug/quest-battle
+     */
+    @Nullable
+    private static String toViewDirectory(@NotNull PhpClass phpClass, @Nullable VirtualFile controllerFile) {
+        if (controllerFile == null) {
+            return null;
+        }
+
+        VirtualFile viewsRoot = ControllerFile.findViewsRoot(controllerFile);
+        if (viewsRoot == null) {
+            return null;
+        }
+
+        String className = phpClass.getName();
+        if (className.endsWith("Controller")) {
+            className = className.substring(0, className.length() - "Controller".length());
+        }
+
+        StringBuilder viewDir = new StringBuilder(viewsRoot.getPath());
+        String namespace = phpClass.getNamespaceName(); // 例: \App\Modules\GmTool\Controller\Debug\
+        int controllerIndex = namespace.indexOf("\\Controller\\");
+        if (controllerIndex != -1) {
+            for (String part : namespace.substring(controllerIndex + "\\Controller\\".length()).split("\\\\")) {
+                if (!part.isEmpty()) {
+                    viewDir.append("/").append(ControllerFile.toKebabCase(part));
+                }
+            }
+        }
+        return viewDir.append("/").append(ControllerFile.toKebabCase(className)).toString();
+    }
+}
@@ -0,0 +1,194 @@
+package com.sample.phpstormpluginviewvariable.model;
+
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.sample.phpstormpluginviewvariable.index.ViewVariableIndex;
+import com.sample.phpstormpluginviewvariable.settings.ViewVariableSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LargeViewFile
+ * 自動生成されたViewなど、サイズや変数の出現数が設定の閾値を超えるViewファイルを判定する。
+ * 閾値を超えたViewでは、ファイル全体の走査（スコープの木・型の環境・変数の使用箇所の収集）を行わず、
+ * ViewVariableIndexに格納された変数名と出現位置だけで答える（縮退モード）。
+ * 判定結果はVirtualFileのユーザーデータに、ファイルの更新回数と設定の変更回数と共に保持する。
+ * 変数の出現数はインデックスから数えるため、TypeProviderのgetTypeからはisLargeWithoutIndexを使う。
+ */
+public class LargeViewFile {
+    private static final Key<Decision> DECISION_KEY = Key.create("phpstormpluginviewvariable.LargeViewFile.decision");
+
+    /**
+     * 指定したファイルが縮退モードで扱うViewファイルかどうかを判定する。
+     */
+    public static boolean isLarge(@Nullable PsiFile file) {
+        if (file == null) {
+            return false;
+        }
+        return isLarge(file.getOriginalFile().getVirtualFile(), file.getProject());
+    }
+
+    public static boolean isLarge(@Nullable VirtualFile file, @NotNull Project project) {
+        return getReason(file, project) != null;
+    }
+
+    /**
+     * インデックスを参照せずに縮退モードかどうかを判定する（TypeProviderのgetTypeから呼び出す）。
+     * ファイルサイズと、getTypeの外（補完・ハイライト・エディタの通知など）で判定済みの結果だけを使い、
+     * 変数の出現数が未判定の場合はサイズだけで判定する。
+     */
+    public static boolean isLargeWithoutIndex(@Nullable PsiFile file) {
+        VirtualFile virtualFile = file != null ? file.getOriginalFile().getVirtualFile() : null;
+        if (virtualFile == null || !ViewFile.isViewFile(virtualFile)) {
+            return false;
+        }
+        Decision cached = getCachedDecision(virtualFile, file.getProject());
+        if (cached != null) {
+            return cached.reason != null;
+        }
+        return getSizeReason(virtualFile, ViewVariableSettings.getInstance(file.getProject())) != null;
+    }
+
+    /**
+     * 縮退モードになった理由（例: "2.4 MB"）を返す。縮退モードでない場合はnullを返す。
+     */
+    @Nullable
+    public static String getReason(@Nullable VirtualFile file, @NotNull Project project) {
+        if (file == null || !ViewFile.isViewFile(file)) {
+            return null;
+        }
+        Decision cached = getCachedDecision(file, project);
+        if (cached != null) {
+            return cached.reason;
+        }
+
+        // インデックスの作成中は変数の出現数を数えられないため、サイズだけで判定し結果は保持しない
+        boolean dumb = DumbService.isDumb(project);
+        String reason = decide(file, project, dumb);
+        if (!dumb) {
+            long settingsStamp = ViewVariableSettings.getInstance(project).getModificationTracker().getModificationCount();
+            file.putUserData(DECISION_KEY, new Decision(file.getModificationStamp(), settingsStamp, reason));
+        }
+        return reason;
+    }
+
+    @Nullable
+    private static Decision getCachedDecision(VirtualFile file, Project project) {
+        long settingsStamp = ViewVariableSettings.getInstance(project).getModificationTracker().getModificationCount();
+        Decision cached = file.getUserData(DECISION_KEY);
+        return cached != null && cached.stamp == file.getModificationStamp() && cached.settingsStamp == settingsStamp ? cached : null;
+    }
+
+    @Nullable
+    private static String getSizeReason(VirtualFile file, ViewVariableSettings settings) {
+        long sizeLimit = settings.getLargeViewFileSizeLimit();
+        return sizeLimit > 0 && file.getLength() > sizeLimit ? StringUtil.formatFileSize(file.getLength()) : null;
+    }
+
+    private static String decide(VirtualFile file, Project project, boolean dumb) {
+        ViewVariableSettings settings = ViewVariableSettings.getInstance(project);
+        String sizeReason = getSizeReason(file, settings);
+        if (sizeReason != null) {
+            return sizeReason;
+        }
+
+        int elementLimit = settings.getLargeViewElementLimit();
+        if (elementLimit > 0 && !dumb) {
+            int count = 0;
+            for (List<Integer> offsets : ViewVariableIndex.getFileData(file, project).values()) {
+                count += offsets.size();
+            }
+            if (count > elementLimit) {
+                return count + " variable usages";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * ViewVariableIndexの出現位置から、変数名ごとの使用箇所を出現順に返す（ファイル全体を走査しない）。
+     * インデックスの対象はViewで読み取られている変数のみで、View内で代入している変数は含まれない。
+     */
+    @NotNull
+    public static Map<String, List<Variable>> findIndexedUsages(@NotNull PsiFile viewFile) {
+        VirtualFile file = viewFile.getOriginalFile().getVirtualFile();
+        if (file == null || DumbService.isDumb(viewFile.getProject())) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, List<Variable>> usages = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : ViewVariableIndex.getFileData(file, viewFile.getProject()).entrySet()) {
+            List<Variable> variables = new ArrayList<>();
+            for (int offset : entry.getValue()) {
+                Variable variable = findVariableAt(viewFile, offset, entry.getKey());
+                if (variable != null) {
+                    variables.add(variable);
+                }
+            }
+            if (!variables.isEmpty()) {
+                usages.put(entry.getKey(), variables);
+            }
+        }
+        return usages;
+    }
+
+    /**
+     * ViewVariableIndexの出現位置から、指定した変数の最初の使用箇所を返す（ファイル全体を走査しない）。
+     */
+    @Nullable
+    public static Variable findFirstIndexedUsage(@NotNull PsiFile viewFile, @NotNull String name) {
+        VirtualFile file = viewFile.getOriginalFile().getVirtualFile();
+        if (file == null || DumbService.isDumb(viewFile.getProject())) {
+            return null;
+        }
+        List<Integer> offsets = ViewVariableIndex.getFileData(file, viewFile.getProject()).get(name);
+        if (offsets == null) {
+            return null;
+        }
+        for (int offset : offsets) {
+            Variable variable = findVariableAt(viewFile, offset, name);
+            if (variable != null) {
+                return variable;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * インデックスの出現位置にある変数を返す。インデックスの作成後に内容が変わり、位置がずれている場合はnullを返す。
+     */
+    @Nullable
+    private static Variable findVariableAt(PsiFile viewFile, int offset, String name) {
+        PsiElement element = viewFile.findElementAt(offset);
+        Variable variable = PsiTreeUtil.getParentOfType(element, Variable.class, false);
+        return variable != null && name.equals(variable.getName()) ? variable : null;
+    }
+
+    /**
+     * 判定結果と、判定したときのファイルの更新回数・設定の変更回数
+     */
+    private static final class Decision {
+        final long stamp;
+        final long settingsStamp;
+        final String reason;
+
+        Decision(long stamp, long settingsStamp, @Nullable String reason) {
+            this.stamp = stamp;
+            this.settingsStamp = settingsStamp;
+            this.reason = reason;
+        }
+    }
+}
@@ -1,29 +1,184 @@
 package com.sample.phpstormpluginviewvariable.model;
 
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
 import com.jetbrains.php.lang.psi.PhpFile;
-import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ViewFile
+ * ファイルがViewかControllerかを判定する。
+ * 判定結果はVirtualFileのユーザーデータに、判定したときの親ディレクトリ・ファイル名・ディレクトリの移動回数と共に保持し、
+ * ファイル自身のリネーム・移動か、いずれかのディレクトリのリネーム・移動（DirectoryMoveListenerで数える）があるまでは
+ * パスの文字列を作らずに結果を返す。他のファイルの作成・削除では判定し直さない。
+ */
 public class ViewFile {
+    private static final Key<Classification> CLASSIFICATION_KEY = Key.create("phpstormpluginviewvariable.ViewFile.classification");
+
+    /**
+     * Viewファイルの拡張子（探す順）
+     */
+    private static final String[] VIEW_EXTENSIONS = {".php", ".phtml"};
+
+    /**
+     * ディレクトリのリネーム・移動の回数。祖先のディレクトリが変わるとファイルのパスが変わるため、すべての判定結果を無効にする。
+     */
+    private static final AtomicLong directoryMoves = new AtomicLong();
+
+    /**
+     * ファイルの種類
+     */
+    public enum Kind {
+        VIEW,
+        CONTROLLER,
+        OTHER
+    }
 
     public static boolean isViewFile(PhpFile phpFile) {
-        VirtualFile virtualFile = phpFile.getVirtualFile();
-        if (virtualFile == null) {
-            Log.info("Virtual file is null");
+        return isViewFile(phpFile.getVirtualFile());
+    }
+
+    public static boolean isViewFile(@Nullable VirtualFile file) {
+        return classify(file) == Kind.VIEW;
+    }
+
+    /**
+     * /Controller/ 配下のPHPファイル（Viewを除く）かどうかを判定する
+     */
+    public static boolean isControllerFile(@Nullable VirtualFile file) {
+        return classify(file) == Kind.CONTROLLER;
+    }
+
+    /**
+     * /Controller/ 配下のPHPファイルか、クラス階層による検出（ControllerHierarchy）で見つかったControllerファイルかどうかを判定する。
+     * クラス階層による検出が無効な場合は、パスのみで判定する。
+     */
+    public static boolean isControllerFile(@Nullable VirtualFile file, @NotNull Project project) {
+        if (file == null) {
             return false;
         }
-        String filePath = virtualFile.getPath();
-        return isViewFile(filePath);
+        return isControllerFile(file) || ControllerHierarchy.isDiscoveredControllerFile(file, project);
+    }
+
+    /**
+     * ファイルの種類を返す。結果はファイルまたはディレクトリがリネーム・移動されるまでファイルごとに保持される。
+     */
+    @NotNull
+    public static Kind classify(@Nullable VirtualFile file) {
+        if (file == null) {
+            return Kind.OTHER;
+        }
+        long stamp = directoryMoves.get();
+        VirtualFile parent = file.getParent();
+        String name = file.getName();
+        Classification cached = file.getUserData(CLASSIFICATION_KEY);
+        if (cached != null && cached.stamp == stamp && cached.parent == parent && cached.name.equals(name)) {
+            return cached.kind;
+        }
+
+        // リネーム・移動の後はパスから判定し直す
+        Kind kind = classify(file.getPath());
+        file.putUserData(CLASSIFICATION_KEY, new Classification(stamp, parent, name, kind));
+        return kind;
     }
 
     /**
      * 指定したファイルパスがViewのファイルか検証する
      */
     public static boolean isViewFile(String filePath) {
+        return classify(filePath) == Kind.VIEW;
+    }
+
+    /**
+     * ファイルパスからファイルの種類を判定する（結果は保持しない）。削除・移動されたファイルのイベントの判定などに使う。
+     */
+    @NotNull
+    public static Kind classify(@NotNull String filePath) {
         // WindowsとUnixのパス区切り文字に対応
-        String normalizedPath = filePath.replace("\\", "/");
-        boolean isView = normalizedPath.contains("/views/") && (filePath.endsWith(".php") || filePath.endsWith(".phtml"));
-        Log.info("File path: " + filePath + " (normalized: " + normalizedPath + "), is view: " + isView);
-        return isView;
+        String normalizedPath = filePath.indexOf('\\') >= 0 ? filePath.replace('\\', '/') : filePath;
+        boolean php = normalizedPath.endsWith(".php");
+        if (normalizedPath.contains("/views/") && (php || normalizedPath.endsWith(".phtml"))) {
+            return Kind.VIEW;
+        }
+        if (php && normalizedPath.contains("/Controller/")) {
+            return Kind.CONTROLLER;
+        }
+        return Kind.OTHER;
+    }
+
+    /**
+     * ファイル名からViewの拡張子（.php / .phtml）を除いた名前を返す。Viewの拡張子でない場合はそのまま返す。
+     */
+    @NotNull
+    public static String removeViewExtension(@NotNull String fileName) {
+        for (String extension : VIEW_EXTENSIONS) {
+            if (fileName.endsWith(extension)) {
+                return fileName.substring(0, fileName.length() - extension.length());
+            }
+        }
+        return fileName;
+    }
+
+    /**
+     * viewsディレクトリからの相対パス（拡張子なし）に対応するViewファイルを、.php、.phtml の順に探す。
+     */
+    @Nullable
+    public static VirtualFile findViewFile(@NotNull VirtualFile viewsRoot, @NotNull String viewName) {
+        for (String extension : VIEW_EXTENSIONS) {
+            VirtualFile viewFile = viewsRoot.findFileByRelativePath(viewName + extension);
+            if (viewFile != null) {
+                return viewFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 判定結果と、判定したときの親ディレクトリ・ファイル名・ディレクトリの移動回数
+     */
+    private static final class Classification {
+        final long stamp;
+        final VirtualFile parent;
+        final String name;
+        final Kind kind;
+
+        Classification(long stamp, @Nullable VirtualFile parent, @NotNull String name, @NotNull Kind kind) {
+            this.stamp = stamp;
+            this.parent = parent;
+            this.name = name;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * ディレクトリのリネーム・移動を数えるアプリケーションのリスナー（plugin.xml の applicationListeners で登録する）。
+     * ファイル自身のリネーム・移動は、保持している親ディレクトリ・ファイル名との比較で検出する。
+     */
+    public static final class DirectoryMoveListener implements BulkFileListener {
+        @Override
+        public void after(@NotNull List<? extends @NotNull VFileEvent> events) {
+            for (VFileEvent event : events) {
+                if (isDirectoryMove(event)) {
+                    directoryMoves.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        private static boolean isDirectoryMove(VFileEvent event) {
+            if (event instanceof VFileMoveEvent move) {
+                return move.getFile().isDirectory();
+            }
+            return event instanceof VFilePropertyChangeEvent change && change.isRename() && change.getFile().isDirectory();
+        }
     }
 }
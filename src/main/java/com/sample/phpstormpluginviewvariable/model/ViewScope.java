@@ -0,0 +1,239 @@
+package com.sample.phpstormpluginviewvariable.model;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.parser.PhpElementTypes;
+import com.jetbrains.php.lang.psi.elements.Function;
+import com.jetbrains.php.lang.psi.elements.Parameter;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ViewScope
+ * Viewファイル内の変数のスコープ（ファイル・クロージャ・アロー関数・関数）の木。
+ * <ul>
+ *     <li>ファイルのスコープの変数はControllerのsetVarで渡された変数になる</li>
+ *     <li>クロージャは use (...) で取り込んだ変数だけを親のスコープから参照する</li>
+ *     <li>アロー関数（fn）は引数以外のすべての変数を親のスコープから自動的に取り込む</li>
+ *     <li>関数・メソッドは親のスコープの変数を参照しない</li>
+ * </ul>
+ * 引数と同じ名前の変数は引数として扱い、外側の変数で上書きしない。
+ * スコープの木はViewファイルごとに1回だけ作成してキャッシュし、変数の解決はスコープの深さ分の探索で行う。
+ */
+public class ViewScope {
+    private static final Key<CachedValue<ViewScope>> KEY = Key.create("phpstormpluginviewvariable.ViewScope");
+
+    public enum Kind {
+        FILE,
+        CLOSURE,
+        ARROW_FUNCTION,
+        FUNCTION
+    }
+
+    private final Kind kind;
+    private final int start;
+    private final int end;
+    private final ViewScope parent;
+    private final Function function;
+    private final Map<String, Parameter> parameters;
+    private final Set<String> captures;
+
+    /**
+     * 子のスコープ（開始位置の順）
+     */
+    private final List<ViewScope> children = new ArrayList<>();
+
+    private ViewScope(@NotNull Kind kind, int start, int end, @Nullable ViewScope parent, @Nullable Function function,
+                      @NotNull Map<String, Parameter> parameters, @NotNull Set<String> captures) {
+        this.kind = kind;
+        this.start = start;
+        this.end = end;
+        this.parent = parent;
+        this.function = function;
+        this.parameters = parameters;
+        this.captures = captures;
+    }
+
+    /**
+     * 指定したファイルのスコープの木の根（ファイルのスコープ）を返す（キャッシュ済みであれば再計算しない）。
+     */
+    @NotNull
+    public static ViewScope getRoot(@NotNull PsiFile file) {
+        return CachedValuesManager.getCachedValue(file, KEY, () -> CachedValueProvider.Result.create(build(file), file));
+    }
+
+    /**
+     * 指定した位置を含む最も内側のスコープを返す。
+     */
+    @NotNull
+    public ViewScope findScope(int offset) {
+        ViewScope scope = this;
+        while (true) {
+            ViewScope child = scope.findChild(offset);
+            if (child == null) {
+                return scope;
+            }
+            scope = child;
+        }
+    }
+
+    /**
+     * 指定した位置の変数が、Controllerから渡された変数（ファイルのスコープの変数）を参照しているかどうかを判定する。
+     * 引数で隠されている場合や、取り込まれていないクロージャ・関数の中ではfalseを返す。
+     */
+    public boolean resolvesToView(@NotNull String name, int offset) {
+        ViewScope scope = findScope(offset);
+        while (scope.kind != Kind.FILE) {
+            if (scope.parameters.containsKey(name) || !scope.captures(name)) {
+                return false;
+            }
+            scope = scope.parent;
+        }
+        return true;
+    }
+
+    /**
+     * このスコープが、引数でない指定した変数を親のスコープから取り込むかどうかを返す。
+     */
+    public boolean captures(@NotNull String name) {
+        return switch (kind) {
+            case FILE, FUNCTION -> false;
+            case ARROW_FUNCTION -> true;
+            case CLOSURE -> captures.contains(name);
+        };
+    }
+
+    @NotNull
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    @Nullable
+    public ViewScope getParent() {
+        return parent;
+    }
+
+    /**
+     * スコープを作った関数（ファイルのスコープではnull）
+     */
+    @Nullable
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * 指定した名前の引数（無い場合はnull）
+     */
+    @Nullable
+    public Parameter getParameter(@NotNull String name) {
+        return parameters.get(name);
+    }
+
+    @Nullable
+    private ViewScope findChild(int offset) {
+        int low = 0;
+        int high = children.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            ViewScope child = children.get(middle);
+            if (offset < child.start) {
+                high = middle - 1;
+            } else if (offset >= child.end) {
+                low = middle + 1;
+            } else {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * ファイルを1回走査してスコープの木を作成する。関数は出現順（開始位置の順）に訪問されるため、子は常に開始位置の順に並ぶ。
+     * 作成した木はキャッシュしない。インデックスの作成時のように、一度しか使わないPSIではgetRootではなくこちらを使う。
+     */
+    @NotNull
+    public static ViewScope build(@NotNull PsiFile file) {
+        ViewScope root = new ViewScope(Kind.FILE, 0, file.getTextLength() + 1, null, null,
+                Collections.emptyMap(), Collections.emptySet());
+        file.accept(new PsiRecursiveElementWalkingVisitor() {
+            @Override
+            public void visitElement(@NotNull PsiElement element) {
+                if (element instanceof Function function) {
+                    ViewScope parent = root.findScope(function.getTextRange().getStartOffset());
+                    parent.children.add(create(function, parent));
+                }
+                super.visitElement(element);
+            }
+        });
+        return root;
+    }
+
+    private static ViewScope create(Function function, ViewScope parent) {
+        Map<String, Parameter> parameters = new HashMap<>();
+        for (Parameter parameter : function.getParameters()) {
+            parameters.put(parameter.getName(), parameter);
+        }
+
+        Kind kind;
+        Set<String> captures = Collections.emptySet();
+        if (!function.isClosure()) {
+            kind = Kind.FUNCTION;
+        } else if (isArrowFunction(function)) {
+            kind = Kind.ARROW_FUNCTION;
+        } else {
+            kind = Kind.CLOSURE;
+            captures = collectUseVariables(function);
+        }
+        return new ViewScope(kind, function.getTextRange().getStartOffset(), function.getTextRange().getEndOffset(), parent,
+                function, parameters, captures);
+    }
+
+    /**
+     * fn (...) =&gt; ... の形のクロージャかどうかを判定する。
+     */
+    private static boolean isArrowFunction(Function function) {
+        PsiElement first = function.getFirstChild();
+        while (first != null && (first.getTextLength() == 0 || first.getText().isBlank() || "static".equalsIgnoreCase(first.getText()))) {
+            first = first.getNextSibling();
+        }
+        return first != null && "fn".equalsIgnoreCase(first.getText());
+    }
+
+    /**
+     * クロージャの use (...) で取り込まれている変数名を返す。
+     */
+    private static Set<String> collectUseVariables(Function function) {
+        Set<String> names = new HashSet<>();
+        for (PsiElement child = function.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNode().getElementType() == PhpElementTypes.LEXICAL_VARS) {
+                for (Variable variable : PsiTreeUtil.findChildrenOfType(child, Variable.class)) {
+                    names.add(variable.getName());
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,509 @@
+package com.sample.phpstormpluginviewvariable.model;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.jetbrains.php.PhpIndex;
+import com.jetbrains.php.lang.PhpLanguage;
+import com.jetbrains.php.lang.psi.elements.ArrayAccessExpression;
+import com.jetbrains.php.lang.psi.elements.AssignmentExpression;
+import com.jetbrains.php.lang.psi.elements.Field;
+import com.jetbrains.php.lang.psi.elements.FieldReference;
+import com.jetbrains.php.lang.psi.elements.ForeachStatement;
+import com.jetbrains.php.lang.psi.elements.Function;
+import com.jetbrains.php.lang.psi.elements.FunctionReference;
+import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.MultiassignmentExpression;
+import com.jetbrains.php.lang.psi.elements.Parameter;
+import com.jetbrains.php.lang.psi.elements.ParameterList;
+import com.jetbrains.php.lang.psi.elements.PhpClass;
+import com.jetbrains.php.lang.psi.elements.PhpPsiElement;
+import com.jetbrains.php.lang.psi.elements.PhpTypedElement;
+import com.jetbrains.php.lang.psi.elements.SelfAssignmentExpression;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import com.sample.phpstormpluginviewvariable.cache.MethodReturnTypeCache;
+import com.sample.phpstormpluginviewvariable.cache.PhpStanTypeStore;
+import com.sample.phpstormpluginviewvariable.settings.ViewVariableSettings;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import com.sample.phpstormpluginviewvariable.util.PhpTypeString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ViewTypeEnvironment
+ * 1つのViewファイル内で定義される変数（foreachのキー・値、list()/[...]の分割代入、代入）の型の環境。
+ * Viewファイルを1回だけ走査して変数の束縛（変数名・有効範囲・値の式）を集め、型は要求されたときに計算して束縛ごとに保持する。
+ * 変数はスコープの木（ViewScope）に沿って解決し、クロージャの use やアロー関数の自動の取り込み、引数による隠蔽に従う。
+ * ファイルのスコープまで束縛が無い変数はControllerのsetVarで渡された変数（ViewVariableTable）として解決する。
+ * <pre>
+ * &lt;?php foreach ($episodes as $id =&gt; $episode): ?&gt;
+ *     &lt;?php foreach ($episode-&gt;getQuests() as [$quest, $count]): ?&gt;
+ *         &lt;?= $quest-&gt;getReward()-&gt;name ?&gt;
+ * </pre>
+ * 環境はViewファイル（オリジナルファイル）ごとにキャッシュされ、PHPのPSIか変数テーブルの入力が変わったときに破棄される。
+ * $a->b()->c のような連鎖のメンバーの型もクラス・メンバー名ごとに保持し、同じテンプレート内で繰り返し解決しない。
+ */
+public class ViewTypeEnvironment {
+    private static final Key<CachedValue<ViewTypeEnvironment>> KEY = Key.create("phpstormpluginviewvariable.ViewTypeEnvironment");
+
+    /**
+     * 連鎖した式を解決する最大の深さ
+     */
+    private static final int MAX_DEPTH = 16;
+
+    private final PsiFile viewFile;
+    private final Project project;
+
+    /**
+     * Viewファイルのスコープの木
+     */
+    private final ViewScope root;
+
+    /**
+     * 変数名 -> 束縛（ファイル内の出現順）
+     */
+    private final Map<String, List<Binding>> bindings;
+
+    /**
+     * クラス・メンバー名（\A\B->name / \A\B->name()）-> 型
+     */
+    private final Map<String, PhpType> memberTypes = new ConcurrentHashMap<>();
+
+    private ViewTypeEnvironment(@NotNull PsiFile viewFile, @NotNull ViewScope root) {
+        this.viewFile = viewFile;
+        this.project = viewFile.getProject();
+        this.root = root;
+        this.bindings = collectBindings(viewFile, root);
+    }
+
+    /**
+     * 指定したViewファイルの型の環境を返す（キャッシュ済みであれば再計算しない）。
+     * 補完用のコピーファイルが渡された場合はオリジナルファイルの環境を返す。
+     */
+    @NotNull
+    public static ViewTypeEnvironment getInstance(@NotNull PsiFile viewFile) {
+        PsiFile originalFile = viewFile.getOriginalFile();
+        return CachedValuesManager.getCachedValue(originalFile, KEY, () -> {
+            Project project = originalFile.getProject();
+            return CachedValueProvider.Result.create(new ViewTypeEnvironment(originalFile, ViewScope.getRoot(originalFile)),
+                    originalFile,
+                    PsiModificationTracker.getInstance(project).forLanguage(PhpLanguage.INSTANCE),
+                    VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS,
+                    ViewVariableSettings.getInstance(project).getModificationTracker(),
+                    PhpStanTypeStore.getInstance(project).getModificationTracker());
+        });
+    }
+
+    /**
+     * View内の式（変数・メソッド呼び出し・プロパティ参照・配列アクセス）の型を返す。解決できない場合は空の型を返す。
+     * 補完用のコピーファイルの式も、カーソルより前にあればオリジナルファイルと同じオフセットで解決できる。
+     */
+    @NotNull
+    public PhpType getType(@NotNull PsiElement expression) {
+        return typeOf(expression, expression.getTextRange().getStartOffset(), 0);
+    }
+
+    private PhpType typeOf(@Nullable PsiElement expression, int offset, int depth) {
+        if (expression == null || depth > MAX_DEPTH) {
+            return PhpType.EMPTY;
+        }
+
+        if (expression instanceof Variable variable) {
+            String name = variable.getName();
+            PhpType type = name != null ? variableType(name, offset, depth) : PhpType.EMPTY;
+            // 環境で分からない変数（@varで宣言された変数など）はPhpStorm自身の推論結果を使う
+            return type.isEmpty() ? MethodReturnTypeCache.getInstance(project).resolve(variable.getType()) : type;
+        }
+
+        if (expression instanceof MethodReference methodRef) {
+            String name = methodRef.getName();
+            PhpType receiverType = typeOf(methodRef.getClassReference(), offset, depth + 1);
+            return name != null ? memberType(receiverType, name, true) : PhpType.EMPTY;
+        }
+
+        if (expression instanceof FieldReference fieldRef) {
+            String name = fieldRef.getName();
+            PhpType receiverType = typeOf(fieldRef.getClassReference(), offset, depth + 1);
+            return name != null ? memberType(receiverType, name, false) : PhpType.EMPTY;
+        }
+
+        if (expression instanceof ArrayAccessExpression access) {
+            // setVarで渡された配列シェイプのキーであればその型を優先する
+            ArrayShape.Entry entry = ArrayShape.resolveAccess(access, ViewVariableTable.getInstance(viewFile));
+            if (entry != null && !entry.getType().isEmpty()) {
+                return entry.getType();
+            }
+            return elementType(typeOf(access.getValue(), offset, depth + 1));
+        }
+
+        // その他の式はPhpStorm自身の推論結果を使い、含まれるメソッドシグネチャを解決する
+        if (expression instanceof PhpTypedElement typed) {
+            return MethodReturnTypeCache.getInstance(project).resolve(typed.getType());
+        }
+        return PhpType.EMPTY;
+    }
+
+    /**
+     * 変数の型を、出現位置のスコープから外側へ順に探して返す。
+     * スコープ内の束縛、引数、取り込み（use / アロー関数）の順に調べ、ファイルのスコープまで辿り着いた変数だけを
+     * setVarで渡された変数として解決する。
+     */
+    private PhpType variableType(String name, int offset, int depth) {
+        ViewScope scope = root.findScope(offset);
+        while (true) {
+            Binding binding = findBinding(name, offset, scope);
+            if (binding != null) {
+                return binding.getType(this, depth);
+            }
+            Parameter parameter = scope.getParameter(name);
+            if (parameter != null) {
+                return parameterType(scope, parameter, depth);
+            }
+            if (scope.getKind() == ViewScope.Kind.FILE) {
+                break;
+            }
+            if (!scope.captures(name)) {
+                return PhpType.EMPTY;
+            }
+            // 取り込まれた変数は、クロージャが定義された位置での外側の変数の型になる
+            offset = scope.getStart();
+            scope = scope.getParent();
+        }
+
+        // View内で定義されていない変数はsetVarで渡された変数として解決する
+        ViewVariable viewVariable = ViewVariableTable.getInstance(viewFile).get(name);
+        if (viewVariable == null) {
+            return PhpType.EMPTY;
+        }
+        return MethodReturnTypeCache.getInstance(project).resolve(viewVariable.getType());
+    }
+
+    /**
+     * 指定したスコープの束縛のうち、指定した位置で有効な最も内側（開始位置が最も後ろ）の束縛を返す。
+     */
+    @Nullable
+    private Binding findBinding(String name, int offset, ViewScope scope) {
+        List<Binding> candidates = bindings.get(name);
+        if (candidates == null) {
+            return null;
+        }
+        Binding found = null;
+        for (Binding binding : candidates) {
+            if (binding.start > offset) {
+                break;
+            }
+            if (binding.scope == scope && offset <= binding.end) {
+                found = binding;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 引数の型を返す。宣言された型が無い場合、array_map / array_filter などのコールバックであれば配列の要素の型を返す。
+     */
+    private PhpType parameterType(ViewScope scope, Parameter parameter, int depth) {
+        PhpType declaredType = parameter.getDeclaredType();
+        if (!declaredType.isEmpty()) {
+            return MethodReturnTypeCache.getInstance(project).resolve(declaredType);
+        }
+
+        Function function = scope.getFunction();
+        PsiElement argumentList = function != null ? function.getParent() : null;
+        // クロージャは引数リストの中でPhpExpression（クロージャ式）に包まれている場合がある
+        PsiElement callback = function;
+        if (argumentList != null && !(argumentList instanceof ParameterList)) {
+            callback = argumentList;
+            argumentList = argumentList.getParent();
+        }
+        if (!(argumentList instanceof ParameterList) || !(argumentList.getParent() instanceof FunctionReference call)
+                || call instanceof MethodReference || call.getName() == null) {
+            return PhpType.EMPTY;
+        }
+
+        PsiElement[] arguments = call.getParameters();
+        int callbackIndex = indexOf(arguments, callback);
+        int parameterIndex = indexOf(function.getParameters(), parameter);
+        PsiElement iterable = switch (call.getName()) {
+            // array_map($callback, $array1, $array2, ...)
+            case "array_map" -> callbackIndex == 0 && parameterIndex + 1 < arguments.length ? arguments[parameterIndex + 1] : null;
+            // array_filter($array, $callback) / usort($array, $callback) など
+            case "array_filter", "array_walk", "usort", "uasort" -> callbackIndex == 1 && parameterIndex <= 1 ? arguments[0] : null;
+            default -> null;
+        };
+        if (iterable == null) {
+            return PhpType.EMPTY;
+        }
+        return elementType(typeOf(iterable, iterable.getTextRange().getStartOffset(), depth + 1));
+    }
+
+    private static int indexOf(PsiElement[] elements, PsiElement element) {
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * レシーバの型のクラスから、プロパティまたはメソッドの戻り値の型を返す。
+     */
+    private PhpType memberType(PhpType receiverType, String name, boolean method) {
+        PhpType.PhpTypeBuilder builder = PhpType.builder();
+        for (String typeName : receiverType.getTypes()) {
+            if (typeName.startsWith("#") || typeName.endsWith("[]") || PhpType.isPrimitiveType(typeName)) {
+                continue;
+            }
+            String classFqn = typeName.startsWith("\\") ? typeName : "\\" + typeName;
+            String key = classFqn + (method ? "->" + name + "()" : "->" + name);
+            PhpType cached = memberTypes.get(key);
+            if (cached == null) {
+                cached = method
+                        ? MethodReturnTypeCache.getInstance(project).getReturnType("#M#C" + classFqn + "." + name)
+                        : fieldType(classFqn, name);
+                memberTypes.put(key, cached);
+            }
+            builder.add(cached);
+        }
+        return builder.build();
+    }
+
+    private PhpType fieldType(String classFqn, String name) {
+        PhpType.PhpTypeBuilder builder = PhpType.builder();
+        for (PhpClass phpClass : PhpIndex.getInstance(project).getAnyByFQN(classFqn)) {
+            Field field = phpClass.findFieldByName(name, false);
+            if (field != null) {
+                builder.add(MethodReturnTypeCache.getInstance(project).resolve(field.getType()));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 反復可能な型の要素の型を返す（Quest[] / array&lt;Quest&gt; / array&lt;int, Quest&gt; / list&lt;Quest&gt; -> Quest）。
+     * 要素の型が分からないクラス型は、以前の推論と同様にそのクラス自身を要素の型とみなす。
+     */
+    @NotNull
+    PhpType elementType(@NotNull PhpType iterableType) {
+        PhpType resolved = MethodReturnTypeCache.getInstance(project).resolve(iterableType);
+        PhpType.PhpTypeBuilder elements = PhpType.builder();
+        PhpType.PhpTypeBuilder classes = PhpType.builder();
+        boolean found = false;
+        for (String typeName : resolved.getTypes()) {
+            for (String part : typeName.split("\\|")) {
+                String element = extractElementTypeName(part);
+                if (element != null) {
+                    elements.add(element);
+                    found = true;
+                } else if (part.contains("\\") && !part.startsWith("#")) {
+                    classes.add(part);
+                }
+            }
+        }
+        return found ? elements.build() : classes.build();
+    }
+
+    /**
+     * 反復可能な型のキーの型を返す（array&lt;K, V&gt; の場合は K、その他の配列は int|string）。
+     */
+    @NotNull
+    PhpType keyType(@NotNull PhpType iterableType) {
+        for (String typeName : iterableType.getTypes()) {
+            List<String> arguments = genericArguments(typeName);
+            if (arguments != null && arguments.size() == 2) {
+                return PhpType.builder().add(arguments.get(0)).build();
+            }
+        }
+        return PhpType.builder().add(PhpType.INT).add(PhpType.STRING).build();
+    }
+
+    @Nullable
+    private static String extractElementTypeName(String typeName) {
+        if (typeName.endsWith("[]")) {
+            return typeName.substring(0, typeName.length() - 2);
+        }
+        List<String> arguments = genericArguments(typeName);
+        if (arguments != null && !arguments.isEmpty()) {
+            return arguments.get(arguments.size() - 1);
+        }
+        // 関数シグネチャ型: #π(...)
+        if (typeName.startsWith("#π(")) {
+            int endIndex = typeName.indexOf(")", 3);
+            if (endIndex > 3) {
+                return extractElementTypeName(typeName.substring(3, endIndex));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * array&lt;...&gt; / list&lt;...&gt; / iterable&lt;...&gt; などの型引数を返す（ジェネリクスでない場合はnull）。
+     */
+    @Nullable
+    private static List<String> genericArguments(String typeName) {
+        int open = typeName.indexOf('<');
+        if (open <= 0 || !typeName.endsWith(">")) {
+            return null;
+        }
+        List<String> arguments = new ArrayList<>(2);
+        int nesting = 0;
+        int start = open + 1;
+        for (int i = start; i < typeName.length() - 1; i++) {
+            char c = typeName.charAt(i);
+            if (c == '<' || c == '{') {
+                nesting++;
+            } else if (c == '>' || c == '}') {
+                nesting--;
+            } else if (c == ',' && nesting == 0) {
+                arguments.add(typeName.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        arguments.add(typeName.substring(start, typeName.length() - 1).trim());
+        return arguments;
+    }
+
+    /**
+     * Viewファイルを走査し、foreach・分割代入・代入による変数の束縛を出現順に集める。
+     */
+    private static Map<String, List<Binding>> collectBindings(@NotNull PsiFile viewFile, @NotNull ViewScope root) {
+        Map<String, List<Binding>> bindings = new HashMap<>();
+        viewFile.accept(new PsiRecursiveElementWalkingVisitor() {
+            @Override
+            public void visitElement(@NotNull PsiElement element) {
+                if (element instanceof ForeachStatement foreach) {
+                    collectForeach(foreach, bindings, root);
+                } else if (element instanceof MultiassignmentExpression multiassignment) {
+                    collectDestructuring(multiassignment, bindings, root);
+                } else if (element instanceof AssignmentExpression assignment && !(element instanceof SelfAssignmentExpression)
+                        && assignment.getVariable() instanceof Variable variable && variable.getName() != null) {
+                    PsiElement value = assignment.getValue();
+                    int start = assignment.getTextRange().getEndOffset();
+                    add(bindings, root, new Binding(variable.getName(), start, root.findScope(start).getEnd(),
+                            (environment, depth) -> environment.typeOf(value, value != null ? value.getTextRange().getStartOffset() : 0, depth + 1)));
+                }
+                super.visitElement(element);
+            }
+        });
+        for (List<Binding> list : bindings.values()) {
+            list.sort((a, b) -> Integer.compare(a.start, b.start));
+        }
+        Log.info("Collected view variable bindings: " + bindings.keySet());
+        return bindings;
+    }
+
+    /**
+     * foreach ($items as $key =&gt; $value) / foreach ($items as [$a, $b]) の束縛を追加する。
+     */
+    private static void collectForeach(ForeachStatement foreach, Map<String, List<Binding>> bindings, ViewScope root) {
+        PsiElement iterable = foreach.getArray();
+        if (iterable == null) {
+            return;
+        }
+        int iterableOffset = iterable.getTextRange().getStartOffset();
+        int end = foreach.getTextRange().getEndOffset();
+
+        Variable key = foreach.getKey();
+        if (key != null && key.getName() != null) {
+            add(bindings, root, new Binding(key.getName(), key.getTextRange().getEndOffset(), end,
+                    (environment, depth) -> environment.keyType(environment.typeOf(iterable, iterableOffset, depth + 1))));
+        }
+
+        Variable value = foreach.getValue();
+        if (value != null && value.getName() != null) {
+            add(bindings, root, new Binding(value.getName(), value.getTextRange().getEndOffset(), end,
+                    (environment, depth) -> environment.elementType(environment.typeOf(iterable, iterableOffset, depth + 1))));
+        }
+
+        // 値を分割代入している場合は、要素の型のさらに要素の型を各変数に束縛する
+        for (Variable variable : foreach.getVariables()) {
+            if (variable == key || variable == value || variable.getName() == null) {
+                continue;
+            }
+            add(bindings, root, new Binding(variable.getName(), variable.getTextRange().getEndOffset(), end,
+                    (environment, depth) -> environment.elementType(
+                            environment.elementType(environment.typeOf(iterable, iterableOffset, depth + 1)))));
+        }
+    }
+
+    /**
+     * list($a, $b) = ... / [$a, $b] = ... の束縛を追加する。
+     */
+    private static void collectDestructuring(MultiassignmentExpression multiassignment, Map<String, List<Binding>> bindings,
+                                             ViewScope root) {
+        PsiElement value = multiassignment.getValue();
+        if (value == null) {
+            return;
+        }
+        int valueOffset = value.getTextRange().getStartOffset();
+        int start = multiassignment.getTextRange().getEndOffset();
+        int end = root.findScope(start).getEnd();
+        for (PhpPsiElement element : multiassignment.getVariables()) {
+            if (element instanceof Variable variable && variable.getName() != null) {
+                add(bindings, root, new Binding(variable.getName(), start, end,
+                        (environment, depth) -> environment.elementType(environment.typeOf(value, valueOffset, depth + 1))));
+            }
+        }
+    }
+
+    /**
+     * 束縛を追加する。束縛は開始位置を含むスコープに属し、そのスコープの中でのみ参照される。
+     */
+    private static void add(Map<String, List<Binding>> bindings, ViewScope root, Binding binding) {
+        binding.scope = root.findScope(binding.start);
+        bindings.computeIfAbsent(binding.name, name -> new ArrayList<>()).add(binding);
+    }
+
+    /**
+     * 束縛の型を環境から計算する関数
+     */
+    private interface TypeComputation {
+        PhpType compute(ViewTypeEnvironment environment, int depth);
+    }
+
+    /**
+     * 1つの変数の束縛（変数名・有効範囲・型）。型は最初に要求されたときに計算して保持する。
+     */
+    private static final class Binding {
+        final String name;
+        final int start;
+        final int end;
+        ViewScope scope;
+        private final TypeComputation computation;
+        private volatile PhpType type;
+
+        Binding(String name, int start, int end, TypeComputation computation) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.computation = computation;
+        }
+
+        PhpType getType(ViewTypeEnvironment environment, int depth) {
+            PhpType result = type;
+            if (result != null) {
+                return result;
+            }
+            // 値の式は束縛の開始位置より前にあるため自身を参照することはなく、連鎖の深さで必ず停止する
+            result = computation.compute(environment, depth);
+            type = result;
+            Log.info("Inferred type of $" + name + "@" + start + ": " + PhpTypeString.getSafeTypeString(result));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.sample.phpstormpluginviewvariable.model;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Segment;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocComment;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.PhpClass;
+import com.jetbrains.php.lang.psi.elements.Statement;
+import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import com.sample.phpstormpluginviewvariable.util.PhpTypeString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * ViewVariable
+ * ControllerのsetVarでViewに渡される1つの変数（変数名・型・setVar呼び出しの位置）を表す。
+ * キャッシュされてもControllerのASTを保持しないよう、PSIはSmartPsiElementPointerでのみ参照する。
+ */
+public class ViewVariable {
+    private final String name;
+    private final PhpType type;
+    private final VirtualFile controllerFile;
+    private final int keyOffset;
+    private final SmartPsiElementPointer<MethodReference> setVarPointer;
+
+    /**
+     * setVarを呼び出しているメソッドとクラス（ドキュメントの表示用に、テーブル作成時に記録する）
+     */
+    private final String methodName;
+    private final String classFqn;
+
+    /**
+     * setVar文のPHPDoc（初回要求時に取得してキャッシュする。無い場合は空文字）
+     */
+    private volatile String docComment;
+
+    /**
+     * 表示用の型文字列（初回要求時に計算してキャッシュする）
+     */
+    private volatile String typeText;
+
+    /**
+     * 配列シェイプ（初回要求時に計算してキャッシュする）
+     */
+    private volatile ArrayShape arrayShape;
+    private volatile boolean arrayShapeComputed;
+
+    public ViewVariable(@NotNull String name, @NotNull PhpType type, @NotNull MethodReference setVarCall) {
+        this.name = name;
+        this.type = type;
+        PsiFile file = setVarCall.getContainingFile();
+        this.controllerFile = file.getVirtualFile();
+        PsiElement[] args = setVarCall.getParameters();
+        this.keyOffset = (args.length > 0 ? args[0] : setVarCall).getTextRange().getStartOffset();
+        this.setVarPointer = SmartPointerManager.getInstance(setVarCall.getProject()).createSmartPsiElementPointer(setVarCall, file);
+        Method method = PsiTreeUtil.getParentOfType(setVarCall, Method.class);
+        PhpClass phpClass = method != null ? method.getContainingClass() : null;
+        this.methodName = method != null ? method.getName() : null;
+        this.classFqn = phpClass != null ? phpClass.getFQN() : null;
+    }
+
+    private ViewVariable(@NotNull ViewVariable origin, @NotNull PhpType type) {
+        this.name = origin.name;
+        this.type = type;
+        this.controllerFile = origin.controllerFile;
+        this.keyOffset = origin.keyOffset;
+        this.setVarPointer = origin.setVarPointer;
+        this.methodName = origin.methodName;
+        this.classFqn = origin.classFqn;
+    }
+
+    /**
+     * 型だけを差し替えた変数を返す（setVarの位置は元の変数のものを使用する）。
+     */
+    @NotNull
+    public ViewVariable withType(@NotNull PhpType type) {
+        return new ViewVariable(this, type);
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * setVarの第二引数の型（未解決のシグネチャを含む場合がある）
+     */
+    @NotNull
+    public PhpType getType() {
+        return type;
+    }
+
+    /**
+     * setVarを呼び出しているControllerファイル
+     */
+    public VirtualFile getControllerFile() {
+        return controllerFile;
+    }
+
+    /**
+     * テーブル作成時点でのsetVarの第一引数の開始オフセット
+     */
+    public int getKeyOffset() {
+        return keyOffset;
+    }
+
+    /**
+     * setVarを呼び出しているメソッド名（アクションまたはフックメソッド）
+     */
+    @Nullable
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * setVarを呼び出しているメソッドのクラスの完全修飾名（親クラスのフックメソッドの場合は親クラス）
+     */
+    @Nullable
+    public String getClassFqn() {
+        return classFqn;
+    }
+
+    /**
+     * setVarを呼び出しているのがフックメソッド（init / preDispatch / postDispatch）かどうか
+     */
+    public boolean isSetInHook() {
+        return methodName != null && ControllerFile.HOOK_METHOD_NAMES.contains(methodName);
+    }
+
+    /**
+     * setVarの現在の行番号（1始まり）を返す。Controllerのドキュメントが取得できない場合は-1を返す。
+     * 位置はSmartPsiElementPointerが編集に追従して保持するものを使い、ポインタが無効になった場合のみテーブル作成時点の位置を使う。
+     */
+    public int getLineNumber() {
+        Document document = controllerFile != null ? FileDocumentManager.getInstance().getDocument(controllerFile) : null;
+        if (document == null) {
+            return -1;
+        }
+        Segment range = setVarPointer.getRange();
+        int offset = range != null ? range.getStartOffset() : keyOffset;
+        if (offset > document.getTextLength()) {
+            return -1;
+        }
+        return document.getLineNumber(offset) + 1;
+    }
+
+    /**
+     * setVar文の直前のPHPDocのテキストを返す（無い場合は空文字）。
+     * 初回のみsetVar呼び出しを再解決し、以降はキャッシュした結果を返す。
+     */
+    @NotNull
+    public String getDocComment() {
+        String text = docComment;
+        if (text == null) {
+            MethodReference setVarCall = getSetVarCall();
+            if (setVarCall == null) {
+                return "";
+            }
+            Statement statement = PsiTreeUtil.getParentOfType(setVarCall, Statement.class);
+            PsiElement previous = statement != null ? PsiTreeUtil.skipWhitespacesBackward(statement) : null;
+            text = previous instanceof PhpDocComment ? previous.getText() : "";
+            docComment = text;
+        }
+        return text;
+    }
+
+    /**
+     * setVar呼び出しを再解決して返す。ナビゲーションなどPSIが必要な場合にのみ使用する。
+     */
+    @Nullable
+    public MethodReference getSetVarCall() {
+        return setVarPointer.getElement();
+    }
+
+    /**
+     * setVar呼び出しのポインタ（ナビゲーション先として渡す場合に使用する）
+     */
+    @NotNull
+    public SmartPsiElementPointer<MethodReference> getSetVarPointer() {
+        return setVarPointer;
+    }
+
+    /**
+     * 表示用の型文字列を返す。
+     * シグネチャの解決はインデックスを使うため、TypeProviderの中からは呼び出さないこと。
+     */
+    @NotNull
+    public String getTypeText(@NotNull Project project) {
+        String text = typeText;
+        if (text == null) {
+            text = type.isEmpty() ? "mixed" : PhpTypeString.getSafeTypeString(type.global(project));
+            typeText = text;
+        }
+        return text;
+    }
+
+    /**
+     * PHPDoc（@var）に書く型を返す。クラス名は先頭のバックスラッシュ付きの完全修飾名になる。
+     * 解決できないシグネチャは除外し、何も残らない場合は mixed を返す。
+     */
+    @NotNull
+    public String getDocTypeText(@NotNull Project project) {
+        StringBuilder docType = new StringBuilder();
+        for (String typeName : type.global(project).getTypes()) {
+            if (typeName.startsWith("#") || typeName.startsWith("?")) {
+                continue;
+            }
+            if (docType.length() > 0) {
+                docType.append('|');
+            }
+            docType.append(typeName);
+        }
+        return docType.length() > 0 ? docType.toString() : "mixed";
+    }
+
+    /**
+     * setVarの第二引数から推論した配列シェイプを返す（配列でない場合はnull）。
+     * setVar呼び出しごとに1回だけ計算し、以降は変数テーブルと共にキャッシュされた結果を返す。
+     */
+    @Nullable
+    public ArrayShape getArrayShape() {
+        if (!arrayShapeComputed) {
+            MethodReference setVarCall = getSetVarCall();
+            if (setVarCall == null) {
+                return null;
+            }
+            PsiElement[] args = setVarCall.getParameters();
+            arrayShape = ArrayShape.fromSetVarValue(args.length >= 2 ? args[1] : null);
+            arrayShapeComputed = true;
+        }
+        return arrayShape;
+    }
+}
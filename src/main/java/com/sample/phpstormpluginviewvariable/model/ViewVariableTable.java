@@ -0,0 +1,271 @@
+package com.sample.phpstormpluginviewvariable.model;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.testFramework.LightVirtualFile;
+import com.jetbrains.php.lang.PhpLanguage;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.PhpClass;
+import com.jetbrains.php.lang.psi.elements.PhpExpression;
+import com.jetbrains.php.lang.psi.elements.StringLiteralExpression;
+import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import com.sample.phpstormpluginviewvariable.cache.ControllerActionModificationTracker;
+import com.sample.phpstormpluginviewvariable.cache.PhpStanTypeStore;
+import com.sample.phpstormpluginviewvariable.cache.ViewCache;
+import com.sample.phpstormpluginviewvariable.cache.ViewCacheManager;
+import com.sample.phpstormpluginviewvariable.settings.ViewVariableSettings;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import com.sample.phpstormpluginviewvariable.util.ResolutionTrace;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ViewVariableTable
+ * 1つのViewファイルで利用できる変数（ControllerのsetVarで渡された変数）の一覧。
+ * Viewファイルごとにキャッシュされ、TypeProvider・補完・インレイヒントなどから共有して参照される。
+ * テーブルは変数名・オフセット・型シグネチャとSmartPsiElementPointerのみを保持し、ControllerのPSIを保持しない。
+ * render/setViewで複数のアクションから使われるViewは、すべてのアクションのsetVarを合成したテーブルになる。
+ * キャッシュは対応するアクション・フックメソッド（親クラスを含む）が変更されるか、ファイル構成が変わったときに破棄される。
+ * テーブルはPsiFileのユーザーデータではなくViewCacheManagerの件数上限つきキャッシュに保持し、
+ * 長く使われていないView・メモリ不足時・プロジェクトを閉じたときに破棄する。
+ * VirtualFileを持たないPsiFile（メモリ上だけのファイル）は、元になったファイルがあればそのテーブルを返し、無ければ空のテーブルを返す。
+ */
+public class ViewVariableTable {
+    private static final Key<ViewCache<VirtualFile, CachedValue<ViewVariableTable>>> KEY = Key.create("phpstormpluginviewvariable.ViewVariableTable");
+
+    /**
+     * テーブルを保持するViewファイルの最大数
+     */
+    private static final int MAX_ENTRIES = 2000;
+
+    public static final ViewVariableTable EMPTY = new ViewVariableTable(Collections.emptyMap());
+
+    private final Map<String, ViewVariable> variables;
+
+    private ViewVariableTable(@NotNull Map<String, ViewVariable> variables) {
+        this.variables = variables;
+    }
+
+    /**
+     * 指定したViewファイルの変数テーブルを返す（キャッシュ済みであれば再計算しない）。
+     * 補完用のコピーファイルが渡された場合はオリジナルファイルのテーブルを返す。
+     */
+    @NotNull
+    public static ViewVariableTable getInstance(@NotNull PsiFile viewFile) {
+        VirtualFile virtualFile = findViewVirtualFile(viewFile);
+        if (virtualFile == null) {
+            // Controllerはパスから求めるため、元になったファイルが無ければ変数を求められない
+            return EMPTY;
+        }
+
+        long start = System.nanoTime();
+        Project project = viewFile.getProject();
+        ViewCache<VirtualFile, CachedValue<ViewVariableTable>> cache = getCache(project);
+        CachedValue<ViewVariableTable> cachedValue = cache.get(virtualFile);
+        if (cachedValue == null) {
+            // 値はPSIを保持せず、再計算のたびにVirtualFileからPsiFileを取得する
+            cachedValue = CachedValuesManager.getManager(project).createCachedValue(() -> {
+                PsiFile psiFile = virtualFile.isValid() ? PsiManager.getInstance(project).findFile(virtualFile) : null;
+                return psiFile != null
+                        ? compute(psiFile)
+                        : CachedValueProvider.Result.create(EMPTY, VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS);
+            }, false);
+            cache.put(virtualFile, cachedValue);
+        }
+        boolean hit = cachedValue.hasUpToDateValue();
+        ViewVariableTable table = cachedValue.getValue();
+        if (hit) {
+            ResolutionTrace.record("ViewVariableTable", virtualFile, null, null, true, start);
+        }
+        return table;
+    }
+
+    /**
+     * テーブルのキーにするViewファイルのVirtualFileを返す。
+     * メモリ上だけのファイル（LightVirtualFile）は元になったファイルを返し、元になったファイルが無ければnullを返す。
+     */
+    @Nullable
+    private static VirtualFile findViewVirtualFile(@NotNull PsiFile viewFile) {
+        VirtualFile virtualFile = viewFile.getOriginalFile().getVirtualFile();
+        if (virtualFile == null) {
+            virtualFile = viewFile.getViewProvider().getVirtualFile();
+        }
+        while (virtualFile instanceof LightVirtualFile lightVirtualFile) {
+            virtualFile = lightVirtualFile.getOriginalFile();
+        }
+        return virtualFile;
+    }
+
+    private static ViewCache<VirtualFile, CachedValue<ViewVariableTable>> getCache(@NotNull Project project) {
+        return ViewCacheManager.getInstance(project).getCache(KEY, MAX_ENTRIES, (file, cachedValue) -> {
+            // 計算済みのテーブルのみを集計する（診断のために再計算しない）
+            ViewVariableTable table = cachedValue.hasUpToDateValue() ? cachedValue.getValue() : null;
+            return 128 + 2L * file.getPath().length() + (table != null ? table.estimateBytes() : 0);
+        }, null);
+    }
+
+    /**
+     * テーブルの推定バイト数（変数名・型の文字列と、ViewVariable・SmartPsiElementPointerなどのオブジェクト）
+     */
+    public long estimateBytes() {
+        long bytes = 64;
+        for (ViewVariable variable : variables.values()) {
+            bytes += 256 + 2L * variable.getName().length();
+            for (String typeName : variable.getType().getTypes()) {
+                bytes += 48 + 2L * typeName.length();
+            }
+        }
+        return bytes;
+    }
+
+    @Nullable
+    public ViewVariable get(@NotNull String name) {
+        return variables.get(name);
+    }
+
+    public boolean contains(@NotNull String name) {
+        return variables.containsKey(name);
+    }
+
+    public boolean isEmpty() {
+        return variables.isEmpty();
+    }
+
+    @NotNull
+    public Collection<ViewVariable> getVariables() {
+        return variables.values();
+    }
+
+    /**
+     * ControllerのアクションメソッドのsetVar呼び出しを走査してテーブルを作成する。
+     */
+    private static CachedValueProvider.Result<ViewVariableTable> compute(@NotNull PsiFile viewFile) {
+        long start = System.nanoTime();
+        VirtualFile viewVirtualFile = viewFile.getVirtualFile();
+        if (viewVirtualFile == null) {
+            Log.info("View virtual file is null");
+            return CachedValueProvider.Result.create(EMPTY, viewFile);
+        }
+
+        Log.info("Building view variable table: " + viewVirtualFile.getPath());
+
+        ViewVariableSettings settings = ViewVariableSettings.getInstance(viewFile.getProject());
+        ControllerActionModificationTracker tracker = ControllerActionModificationTracker.getInstance(viewFile.getProject());
+        List<Method> actionMethods = ControllerFile.findActionMethods(viewVirtualFile, viewFile.getProject());
+        if (actionMethods.isEmpty()) {
+            // Controllerが作成・リネームされたとき（クラス階層による検出ではクラスが追加されたとき）、
+            // render/setViewの指定が変わったときに再計算する
+            if (settings.isHierarchyDiscovery()) {
+                return CachedValueProvider.Result.create(EMPTY, VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS,
+                        PsiModificationTracker.getInstance(viewFile.getProject()).forLanguage(PhpLanguage.INSTANCE),
+                        settings.getModificationTracker(), tracker.getRenderTargetTracker());
+            }
+            return CachedValueProvider.Result.create(EMPTY, VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS,
+                    settings.getModificationTracker(), tracker.getRenderTargetTracker());
+        }
+
+        Set<Object> dependencies = new LinkedHashSet<>();
+        dependencies.add(VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS);
+        dependencies.add(settings.getModificationTracker());
+        dependencies.add(tracker.getRenderTargetTracker());
+        dependencies.add(PhpStanTypeStore.getInstance(viewFile.getProject()).getModificationTracker());
+
+        // 複数のアクションから使われるViewは、すべてのアクションのsetVarを合成する
+        Map<String, ViewVariable> variables = new LinkedHashMap<>();
+        Set<String> visitedMethods = new HashSet<>();
+        for (Method actionMethod : actionMethods) {
+            // フックメソッド（親クラスを含む）のsetVarを先に、アクションのsetVarを後に登録する
+            List<Method> methods = new ArrayList<>(ControllerFile.findHookMethods(actionMethod));
+            methods.add(actionMethod);
+            // Controller自身はアクション単位のトラッカーに依存し、他のアクションの編集では破棄されないようにする
+            VirtualFile controllerVirtualFile = actionMethod.getContainingFile().getVirtualFile();
+            dependencies.add(tracker.getActionTracker(new ControllerAction(controllerVirtualFile, actionMethod.getName())));
+            dependencies.add(tracker.getFileTracker(controllerVirtualFile));
+
+            for (Method method : methods) {
+                // 同じControllerのアクション間で共通のフックメソッドは一度だけ走査する
+                if (!visitedMethods.add(method.getFQN())) {
+                    continue;
+                }
+                PsiFile methodFile = method.getContainingFile();
+                if (!controllerVirtualFile.equals(methodFile.getVirtualFile())) {
+                    // 親クラスのフックはファイル単位で依存する
+                    dependencies.add(methodFile);
+                }
+                collectSetVars(method, variables);
+            }
+        }
+
+        Log.info("Total variables found: " + variables.size());
+        if (ResolutionTrace.isEnabled()) {
+            Method firstAction = actionMethods.get(0);
+            ResolutionTrace.record("ViewVariableTable", viewVirtualFile, firstAction.getContainingFile().getName(),
+                    actionMethods.size() == 1 ? firstAction.getName() : firstAction.getName() + " +" + (actionMethods.size() - 1),
+                    false, start);
+        }
+        ViewVariableTable table = variables.isEmpty() ? EMPTY : new ViewVariableTable(variables);
+        return CachedValueProvider.Result.create(table, dependencies.toArray());
+    }
+
+    /**
+     * メソッド内のsetVar呼び出しをテーブルに追加する。
+     * PHPStanで推論した型が読み込まれている場合は、PSIから推論した型よりも優先する。
+     */
+    private static void collectSetVars(@NotNull Method method, @NotNull Map<String, ViewVariable> variables) {
+        PhpStanTypeStore phpStanTypes = PhpStanTypeStore.getInstance(method.getProject());
+        PhpClass containingClass = method.getContainingClass();
+        for (MethodReference methodRef : ControllerFile.getMethodReferences(method)) {
+            if (!"setVar".equals(methodRef.getName())) {
+                continue;
+            }
+
+            PsiElement[] args = methodRef.getParameters();
+            if (args.length < 2) {
+                continue;
+            }
+
+            if (!(args[0] instanceof StringLiteralExpression)) {
+                continue;
+            }
+
+            String varName = ((StringLiteralExpression) args[0]).getContents();
+            String phpStanType = containingClass != null ? phpStanTypes.getType(containingClass.getFQN(), method.getName(), varName) : null;
+            PhpType type;
+            if (phpStanType != null) {
+                type = ArrayShape.toPhpType(phpStanType);
+                Log.info("Using PHPStan type for " + varName + ": " + phpStanType);
+            } else {
+                type = args[1] instanceof PhpExpression ? ((PhpExpression) args[1]).getType() : PhpType.EMPTY;
+            }
+
+            // 同じ変数が複数回setVarされている場合は型を合成する
+            ViewVariable existing = variables.get(varName);
+            if (existing != null) {
+                variables.put(varName, existing.withType(PhpType.builder().add(existing.getType()).add(type).build()));
+            } else {
+                variables.put(varName, new ViewVariable(varName, type, methodRef));
+            }
+            Log.info("Found variable in controller: " + varName);
+        }
+    }
+}
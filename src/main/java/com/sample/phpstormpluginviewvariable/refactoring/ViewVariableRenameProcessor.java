@@ -0,0 +1,375 @@
+package com.sample.phpstormpluginviewvariable.refactoring;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiSearchHelper;
+import com.intellij.psi.search.SearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.refactoring.listeners.RefactoringElementListener;
+import com.intellij.refactoring.rename.RenamePsiElementProcessor;
+import com.intellij.refactoring.util.CommonRefactoringUtil;
+import com.intellij.usageView.UsageInfo;
+import com.intellij.util.IncorrectOperationException;
+import com.jetbrains.php.lang.psi.elements.BinaryExpression;
+import com.jetbrains.php.lang.psi.elements.Include;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.ParameterList;
+import com.jetbrains.php.lang.psi.elements.StringLiteralExpression;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import com.sample.phpstormpluginviewvariable.index.SetVarIndex;
+import com.sample.phpstormpluginviewvariable.index.ViewVariableIndex;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewScope;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * ViewVariableRenameProcessor
+ * View内の変数（$sum）またはControllerのsetVarの第一引数（'sum'）のリネームを行うProcessor。
+ * 対象箇所はSetVarIndexとViewVariableIndexから特定し、プロジェクト全体のテキスト検索は行わない。
+ * 対象箇所: 対応するアクションのsetVar、View本体とViewからincludeされる部分View内の変数（ViewScopeでファイルのスコープに解決されるもの）。
+ * 書き換えるViewを他のアクションも使っている場合（render/setViewで共有されるView、複数のViewからincludeされる部分View）は、
+ * それらのアクションのsetVarとViewも、共有がなくなるまで辿って書き換える。
+ * フックメソッド（親クラスを含む）のsetVarで渡される変数は、他のアクションのViewと共有されているためリネームしない。
+ */
+public class ViewVariableRenameProcessor extends RenamePsiElementProcessor {
+    private static final String TITLE = "Rename View Variable";
+
+    @Override
+    public boolean canProcessElement(@NotNull PsiElement element) {
+        if (DumbService.isDumb(element.getProject())) {
+            return false;
+        }
+        if (element instanceof Variable variable) {
+            VirtualFile viewFile = getVirtualFile(variable);
+            return viewFile != null
+                    && ViewFile.isViewFile(viewFile)
+                    && !ControllerFile.findControllerActions(viewFile, element.getProject()).isEmpty()
+                    && ViewVariableIndex.getFileData(viewFile, element.getProject()).containsKey(variable.getName());
+        }
+        if (element instanceof StringLiteralExpression keyArg) {
+            return isSetVarKey(keyArg) && !findActions(keyArg).isEmpty();
+        }
+        return false;
+    }
+
+    @Override
+    public @Nullable PsiElement substituteElementToRename(@NotNull PsiElement element, @Nullable Editor editor) {
+        Project project = element.getProject();
+        String message = findHookConflict(getOldName(element), collectTargets(findTargetActions(element), project), project);
+        if (message != null) {
+            CommonRefactoringUtil.showErrorHint(element.getProject(), editor, message, TITLE, null);
+            return null;
+        }
+        return element;
+    }
+
+    @Override
+    public boolean isInplaceRenameSupported() {
+        // ファイルをまたいでまとめて書き換えるため、インプレースリネームは使わない
+        return false;
+    }
+
+    @Override
+    public @NotNull Collection<PsiReference> findReferences(@NotNull PsiElement element,
+                                                            @NotNull SearchScope searchScope,
+                                                            boolean searchInCommentsAndStrings) {
+        // 書き換え対象はrenameElementでインデックスから特定する
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isToSearchInComments(@NotNull PsiElement element) {
+        return false;
+    }
+
+    @Override
+    public boolean isToSearchForTextOccurrences(@NotNull PsiElement element) {
+        return false;
+    }
+
+    @Override
+    public void renameElement(@NotNull PsiElement element,
+                              @NotNull String newName,
+                              UsageInfo @NotNull [] usages,
+                              @Nullable RefactoringElementListener listener) throws IncorrectOperationException {
+        String oldName = getOldName(element);
+        Targets targets = collectTargets(findTargetActions(element), element.getProject());
+
+        // substituteElementToRenameを経由しない呼び出しに備えて、書き換える前にもう一度確認する
+        String conflict = findHookConflict(oldName, targets, element.getProject());
+        if (conflict != null) {
+            throw new IncorrectOperationException(conflict);
+        }
+
+        String plainNewName = StringUtil.trimStart(newName, "$");
+        Map<VirtualFile, Set<Integer>> sites = collectSites(targets, oldName, element.getProject());
+        applyEdits(sites, oldName, plainNewName, element.getProject());
+
+        if (listener != null && element.isValid()) {
+            listener.elementRenamed(element);
+        }
+    }
+
+    /**
+     * リネーム対象の変数がフックメソッドのsetVarで渡されている場合に、リネームできない理由を返す（問題が無い場合はnull）。
+     */
+    @Nullable
+    private String findHookConflict(String name, Targets targets, Project project) {
+        Set<String> hookSites = new LinkedHashSet<>();
+        for (ControllerAction action : targets.actions) {
+            SetVarIndex.processVisibleSites(action, project, (file, siteName, site) -> {
+                if (name.equals(siteName) && ControllerFile.HOOK_METHOD_NAMES.contains(site.getMethodName())) {
+                    hookSites.add(file.getName() + "::" + site.getMethodName() + "()");
+                }
+            });
+        }
+        if (hookSites.isEmpty()) {
+            return null;
+        }
+        return "'" + name + "' is set in " + String.join(", ", hookSites)
+                + " and shared with the views of every action of the controller. Rename it there and in all views manually.";
+    }
+
+    private String getOldName(PsiElement element) {
+        return element instanceof Variable variable
+                ? variable.getName()
+                : ((StringLiteralExpression) element).getContents();
+    }
+
+    private List<ControllerAction> findTargetActions(PsiElement element) {
+        return element instanceof Variable
+                ? ControllerFile.findControllerActions(Objects.requireNonNull(getVirtualFile(element)), element.getProject())
+                : findActions((StringLiteralExpression) element);
+    }
+
+    /**
+     * リネームの起点のアクションから、同じ変数を共有するアクションとViewをすべて集める。
+     * <ul>
+     *     <li>アクションが使うView（命名規約・render/setView）</li>
+     *     <li>Viewがincludeする部分Viewと、Viewをincludeしている他のView</li>
+     *     <li>Viewを使う他のアクション（命名規約・クラス階層・render/setView）</li>
+     * </ul>
+     * を、新しいアクション・Viewが見つからなくなるまで辿る。
+     */
+    private Targets collectTargets(List<ControllerAction> seeds, Project project) {
+        Targets targets = new Targets();
+        PsiManager psiManager = PsiManager.getInstance(project);
+        Deque<ControllerAction> actionQueue = new ArrayDeque<>(seeds);
+        Deque<VirtualFile> viewQueue = new ArrayDeque<>();
+        while (!actionQueue.isEmpty() || !viewQueue.isEmpty()) {
+            ControllerAction action = actionQueue.poll();
+            if (action != null) {
+                if (targets.actions.add(action)) {
+                    viewQueue.addAll(ControllerFile.findViewFiles(action.getControllerFile(), action.getActionName(), project));
+                }
+                continue;
+            }
+            VirtualFile viewFile = viewQueue.poll();
+            if (!targets.viewFiles.add(viewFile)) {
+                continue;
+            }
+            viewQueue.addAll(findPartials(viewFile, psiManager));
+            viewQueue.addAll(findIncludingViews(viewFile, project, psiManager));
+            actionQueue.addAll(ControllerFile.findControllerActions(viewFile, project));
+        }
+        Log.info("Rename targets: " + targets.actions.size() + " actions, " + targets.viewFiles.size() + " views");
+        return targets;
+    }
+
+    /**
+     * 書き換え対象の箇所（ファイルごとの変数名の開始オフセット）を収集する。
+     * フックメソッドのsetVarはfindHookConflictで除外済みのため、対象はアクション本体のsetVarのみになる。
+     */
+    private Map<VirtualFile, Set<Integer>> collectSites(Targets targets, String name, Project project) {
+        Map<VirtualFile, Set<Integer>> sites = new HashMap<>();
+        PsiManager psiManager = PsiManager.getInstance(project);
+        for (ControllerAction action : targets.actions) {
+            // setVar('name', ...) の引用符の直後
+            SetVarIndex.processVisibleSites(action, project, (file, siteName, site) -> {
+                if (name.equals(siteName)) {
+                    sites.computeIfAbsent(file, f -> new LinkedHashSet<>()).add(site.getKeyOffset() + 1);
+                }
+            });
+        }
+
+        // $name の $ の直後（引数や取り込まれていないクロージャ内の同名の変数は除く）
+        for (VirtualFile file : targets.viewFiles) {
+            List<Integer> offsets = ViewVariableIndex.getFileData(file, project).get(name);
+            PsiFile psiFile = psiManager.findFile(file);
+            if (offsets == null || psiFile == null) {
+                continue;
+            }
+            ViewScope scope = ViewScope.getRoot(psiFile);
+            for (int offset : offsets) {
+                if (scope.resolvesToView(name, offset)) {
+                    sites.computeIfAbsent(file, f -> new LinkedHashSet<>()).add(offset + 1);
+                }
+            }
+        }
+        Log.info("Rename sites for " + name + ": " + sites.size() + " files");
+        return sites;
+    }
+
+    /**
+     * 収集した箇所をドキュメントごとに後ろから書き換える。
+     * RenameProcessorの書き込みアクション内で1回だけ呼ばれる。
+     */
+    private void applyEdits(Map<VirtualFile, Set<Integer>> sites, String oldName, String newName, Project project) {
+        FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
+        for (Map.Entry<VirtualFile, Set<Integer>> entry : sites.entrySet()) {
+            Document document = fileDocumentManager.getDocument(entry.getKey());
+            if (document == null) {
+                continue;
+            }
+            List<Integer> offsets = new ArrayList<>(entry.getValue());
+            offsets.sort(Comparator.reverseOrder());
+            CharSequence text = document.getCharsSequence();
+            for (int offset : offsets) {
+                int end = offset + oldName.length();
+                // インデックスが古い場合に備えて、変数名と一致する箇所のみ書き換える
+                if (end <= text.length() && StringUtil.equals(text.subSequence(offset, end), oldName)) {
+                    document.replaceString(offset, end, newName);
+                }
+            }
+        }
+        PsiDocumentManager.getInstance(project).commitAllDocuments();
+    }
+
+    /**
+     * setVarの第一引数からリネーム対象のアクションを特定する。
+     * アクション内であればそのアクション、同じControllerのフックメソッド内であればControllerの全アクションを返す。
+     */
+    private List<ControllerAction> findActions(StringLiteralExpression keyArg) {
+        Method method = PsiTreeUtil.getParentOfType(keyArg, Method.class);
+        VirtualFile controllerFile = getVirtualFile(keyArg);
+        if (method == null || controllerFile == null) {
+            return Collections.emptyList();
+        }
+
+        List<ControllerAction> actions = new ArrayList<>();
+        if (ControllerFile.HOOK_METHOD_NAMES.contains(method.getName()) && method.getContainingClass() != null) {
+            for (Method action : method.getContainingClass().getOwnMethods()) {
+                if (action.getName().endsWith("Action")) {
+                    actions.add(new ControllerAction(controllerFile, action.getName()));
+                }
+            }
+        } else if (!ControllerFile.findViewFiles(controllerFile, method.getName(), keyArg.getProject()).isEmpty()) {
+            actions.add(new ControllerAction(controllerFile, method.getName()));
+        }
+        return actions;
+    }
+
+    /**
+     * Viewからinclude/requireされている部分Viewを返す。
+     * 'path/to/partial.php' と __DIR__ . '/partial.php' の形式のみ対象とする。
+     */
+    private List<VirtualFile> findPartials(VirtualFile viewFile, PsiManager psiManager) {
+        List<VirtualFile> partials = new ArrayList<>();
+        PsiFile viewPsiFile = psiManager.findFile(viewFile);
+        if (viewPsiFile == null || viewFile.getParent() == null) {
+            return partials;
+        }
+
+        for (Include include : PsiTreeUtil.findChildrenOfType(viewPsiFile, Include.class)) {
+            PsiElement argument = include.getArgument();
+            if (argument instanceof BinaryExpression binary && "__DIR__".equals(binary.getLeftOperand() != null ? binary.getLeftOperand().getText() : null)) {
+                argument = binary.getRightOperand();
+            }
+            if (!(argument instanceof StringLiteralExpression pathLiteral)) {
+                continue;
+            }
+            String relativePath = StringUtil.trimStart(pathLiteral.getContents(), "/");
+            VirtualFile partial = viewFile.getParent().findFileByRelativePath(relativePath);
+            if (partial != null && !partial.equals(viewFile) && ViewFile.isViewFile(partial)) {
+                partials.add(partial);
+            }
+        }
+        return partials;
+    }
+
+    /**
+     * 指定したViewをinclude/requireしている他のViewを返す。
+     * ファイル名を文字列リテラル内の単語として含むファイルをインデックスから探し、findPartialsで確認する。
+     */
+    private List<VirtualFile> findIncludingViews(VirtualFile viewFile, Project project, PsiManager psiManager) {
+        String word = findLongestWord(viewFile.getNameWithoutExtension());
+        if (word.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<VirtualFile> includingViews = new ArrayList<>();
+        PsiSearchHelper.getInstance(project).processAllFilesWithWordInLiterals(word, GlobalSearchScope.projectScope(project), file -> {
+            VirtualFile candidate = file.getVirtualFile();
+            if (candidate != null && !candidate.equals(viewFile) && ViewFile.isViewFile(candidate)
+                    && findPartials(candidate, psiManager).contains(viewFile)) {
+                includingViews.add(candidate);
+            }
+            return true;
+        });
+        return includingViews;
+    }
+
+    /**
+     * ファイル名のうち、単語として索引される最も長い部分（英数字と _ の並び）を返す。
+     */
+    private static String findLongestWord(String name) {
+        String longest = "";
+        for (String word : name.split("[^A-Za-z0-9_]+")) {
+            if (word.length() > longest.length()) {
+                longest = word;
+            }
+        }
+        return longest;
+    }
+
+    private boolean isSetVarKey(StringLiteralExpression keyArg) {
+        if (!(keyArg.getParent() instanceof ParameterList parameterList)
+                || !(parameterList.getParent() instanceof MethodReference methodRef)) {
+            return false;
+        }
+        PsiElement[] args = methodRef.getParameters();
+        return "setVar".equals(methodRef.getName()) && args.length >= 2 && args[0] == keyArg;
+    }
+
+    @Nullable
+    private static VirtualFile getVirtualFile(PsiElement element) {
+        PsiFile file = element.getContainingFile();
+        return file != null ? file.getOriginalFile().getVirtualFile() : null;
+    }
+
+    /**
+     * リネームで書き換えるアクションとViewファイル
+     */
+    private static final class Targets {
+        final Set<ControllerAction> actions = new LinkedHashSet<>();
+        final Set<VirtualFile> viewFiles = new LinkedHashSet<>();
+    }
+}
@@ -1,5 +1,9 @@
 package com.sample.phpstormpluginviewvariable.reference.stringliteral;
 
+import com.intellij.codeInsight.completion.PrioritizedLookupElement;
+import com.intellij.codeInsight.lookup.LookupElement;
+import com.intellij.codeInsight.lookup.LookupElementBuilder;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -8,15 +12,24 @@ import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.PsiReferenceBase;
 import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.PhpIcons;
 import com.jetbrains.php.lang.psi.elements.*;
+import com.sample.phpstormpluginviewvariable.index.ViewVariableIndex;
 import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.LargeViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
 import com.sample.phpstormpluginviewvariable.util.Log;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * ViewStringLiteralExpressionReference
@@ -26,6 +39,12 @@ import java.util.Set;
 public class ViewStringLiteralExpressionReference extends PsiReferenceBase<StringLiteralExpression> {
     private static final Object[] EMPTY_ARRAY = new Object[0];
 
+    /**
+     * Viewで読み取られているがsetVarされていない変数の補完候補の優先度（既にsetVarされている変数より上に表示する）
+     */
+    private static final double UNSET_PRIORITY = 100;
+    private static final double SET_PRIORITY = 0;
+
     public ViewStringLiteralExpressionReference(@NotNull StringLiteralExpression element) {
         super(element);
     }
@@ -59,14 +78,11 @@ public class ViewStringLiteralExpressionReference extends PsiReferenceBase<Strin
             return null;
         }
 
-        String filePath = currentFile.getVirtualFile().getPath();
-        boolean isControllerFile = filePath.contains("/Controller/");
-        boolean isViewFile = filePath.contains("/views/");
-
-        if (isControllerFile) {
+        VirtualFile currentVirtualFile = currentFile.getVirtualFile();
+        if (ViewFile.isControllerFile(currentVirtualFile, project)) {
             // コントローラーファイルからビューファイルへのジャンプ
             return resolveToViewFile(currentFile, varName, project);
-        } else if (isViewFile) {
+        } else if (ViewFile.isViewFile(currentVirtualFile)) {
             // ビューファイルからコントローラーファイルへのジャンプ
             return resolveToControllerFile(currentFile, varName, project);
         }
@@ -78,44 +94,12 @@ public class ViewStringLiteralExpressionReference extends PsiReferenceBase<Strin
      * コントローラーファイルからビューファイルへのジャンプを実装
      */
     private PsiElement resolveToViewFile(PsiFile controllerFile, String varName, Project project) {
-        // コントローラーファイルのパス例: /modules/Cli/Controller/Debug/TestController.php
-        String controllerPath = controllerFile.getVirtualFile().getPath();
-        String fileName = controllerFile.getVirtualFile().getName(); // TestController.php
-
-        // サブディレクトリとコントローラー名を取得
-        String[] split = controllerPath.split("/Controller/");
-        String subDir = "";
-        String controllerClassName = fileName.replace("Controller.php", ""); // Test
-        if (split.length == 2) {
-            String afterController = split[1]; // 例: Debug/TestController.php
-            int slashIdx = afterController.lastIndexOf("/");
-            if (slashIdx > 0) {
-                subDir = afterController.substring(0, slashIdx); // 例: Debug
-            }
-        }
-
         // setVarの呼び出し元メソッド（アクション名）を取得
         Method containingMethod = PsiTreeUtil.getParentOfType(myElement, Method.class);
-        String actionName = "index"; // デフォルト
-        if (containingMethod != null) {
-            String methodName = containingMethod.getName();
-            if (methodName.endsWith("Action")) {
-                actionName = methodName.substring(0, methodName.length() - "Action".length());
-            } else {
-                actionName = methodName;
-            }
-        }
-
-        // Viewファイルのパスを組み立て
-        String viewPath = controllerPath.substring(0, controllerPath.indexOf("/Controller/")) + "/views/";
-        if (!subDir.isEmpty()) {
-            viewPath += toKebabCase(subDir) + "/";
-        }
-        viewPath += toKebabCase(controllerClassName).toLowerCase() + "/" + toKebabCase(actionName) + ".php";
+        String actionName = containingMethod != null ? containingMethod.getName() : "index"; // デフォルト
 
-        VirtualFile viewVirtualFile = LocalFileSystem.getInstance().findFileByPath(viewPath);
+        VirtualFile viewVirtualFile = ControllerFile.findViewFile(controllerFile.getVirtualFile(), actionName, project);
         if (viewVirtualFile == null) {
-            Log.info("View file not found: " + viewPath);
             return null;
         }
 
@@ -124,6 +108,11 @@ public class ViewStringLiteralExpressionReference extends PsiReferenceBase<Strin
             return null;
         }
 
+        // 縮退モードのViewでは走査せず、インデックスの出現位置から最初の使用箇所を返す
+        if (LargeViewFile.isLarge(viewFile)) {
+            return LargeViewFile.findFirstIndexedUsage(viewFile, varName);
+        }
+
         // ビューファイル内の変数を検索
         Collection<Variable> variables = PsiTreeUtil.findChildrenOfType(viewFile, Variable.class);
         for (Variable variable : variables) {
@@ -156,9 +145,9 @@ public class ViewStringLiteralExpressionReference extends PsiReferenceBase<Strin
             String part = pathParts[i];
             // /Controller/ 以降の部分をパスカルケースに変換
             if (i >= getControllerIndex(pathParts) && !part.isEmpty()) {
-                // 最後のパーツ（ファイル名）の場合は.phpを除去してから変換
-                if (i == pathParts.length - 1 && part.endsWith(".php")) {
-                    part = part.replace(".php", "");
+                // 最後のパーツ（ファイル名）の場合は.php / .phtmlを除去してから変換
+                if (i == pathParts.length - 1) {
+                    part = ViewFile.removeViewExtension(part);
                 }
                 convertedPath.append(toPascalCase(part));
             } else {
@@ -235,86 +224,88 @@ public class ViewStringLiteralExpressionReference extends PsiReferenceBase<Strin
             return false;
         }
 
-        // ビューファイルとコントローラーファイルの対応関係を確認
-        Project project = myElement.getProject();
-        VirtualFile viewVirtualFile = viewFile.getVirtualFile();
-        if (viewVirtualFile == null) {
+        // ビューファイルの変数テーブルに登録されたsetVarと一致するか確認
+        ViewVariable viewVariable = ViewVariableTable.getInstance(viewFile).get(varName);
+        if (viewVariable == null || !viewVariable.getControllerFile().equals(controllerFile.getVirtualFile())) {
             return false;
         }
 
-        // コントローラーのメソッド参照を取得
-        Collection<MethodReference> methodRefs = ControllerFile.getMethodReferences(viewVirtualFile, project);
-
-        // 現在の要素がsetVarの第一引数として使用されているか確認
-        for (MethodReference methodRef : methodRefs) {
-            if (!"setVar".equals(methodRef.getName())) {
-                continue;
-            }
-
-            PsiElement[] args = methodRef.getParameters();
-            if (args.length < 1) {
-                continue;
-            }
-
-            if (args[0] == myElement) {
-                return true;
-            }
+        MethodReference setVarCall = viewVariable.getSetVarCall();
+        if (setVarCall == null) {
+            return false;
         }
-
-        return false;
+        PsiElement[] args = setVarCall.getParameters();
+        return args.length > 0 && args[0] == myElement;
     }
 
     /**
-     * 補完候補の配列を返す。
-     * 対応するコントローラーのアクション内のsetVarの第一引数のみを候補として提供する。
+     * 補完候補の配列を返す（setVarの第一引数）。
+     * 対応するViewで読み取られているが、アクション（フックメソッドを含む）でまだsetVarされていない変数を先頭に、
+     * 既にsetVarされている変数をその後に提供する。
+     * Viewで読み取られている変数はViewVariableIndexから取得し、補完中にViewファイルを解析しない。
      */
     @Override
     public Object @NotNull [] getVariants() {
-        Project project = myElement.getProject();
+        Method actionMethod = PsiTreeUtil.getParentOfType(myElement, Method.class);
         PsiFile controllerFile = myElement.getContainingFile();
-        if (controllerFile == null) {
-            return EMPTY_ARRAY;
-        }
-
-        VirtualFile controllerVirtualFile = controllerFile.getVirtualFile();
-        if (controllerVirtualFile == null) {
+        VirtualFile controllerVirtualFile = controllerFile != null ? controllerFile.getOriginalFile().getVirtualFile() : null;
+        if (actionMethod == null || controllerVirtualFile == null || !isSetVarKey()) {
             return EMPTY_ARRAY;
         }
+        Project project = myElement.getProject();
 
-        // コントローラーのメソッド参照を取得
-        Collection<MethodReference> methodRefs = ControllerFile.getMethodReferences(controllerVirtualFile, project);
-        Set<String> variants = new HashSet<>();
-
-        // setVarの第一引数を収集
-        for (MethodReference methodRef : methodRefs) {
-            if (!"setVar".equals(methodRef.getName())) {
-                continue;
+        // アクションとフックメソッドで既にsetVarされている変数
+        Set<String> setKeys = new LinkedHashSet<>();
+        List<Method> methods = new ArrayList<>(ControllerFile.findHookMethods(actionMethod));
+        methods.add(actionMethod);
+        for (Method method : methods) {
+            for (MethodReference methodRef : ControllerFile.getMethodReferences(method)) {
+                PsiElement[] args = methodRef.getParameters();
+                if ("setVar".equals(methodRef.getName()) && args.length > 0 && args[0] != myElement
+                        && args[0] instanceof StringLiteralExpression keyArg) {
+                    setKeys.add(keyArg.getContents());
+                }
             }
+        }
 
-            PsiElement[] args = methodRef.getParameters();
-            if (args.length < 1) {
-                continue;
+        // 対応するViewで読み取られている変数
+        Set<String> readNames = new TreeSet<>();
+        if (!DumbService.isDumb(project)) {
+            for (VirtualFile viewFile : ControllerFile.findViewFiles(controllerVirtualFile, actionMethod.getName(), project)) {
+                readNames.addAll(ViewVariableIndex.getFileData(viewFile, project).keySet());
             }
+        }
 
-            if (args[0] instanceof StringLiteralExpression) {
-                StringLiteralExpression keyArg = (StringLiteralExpression) args[0];
-                variants.add(keyArg.getContents());
+        List<LookupElement> variants = new ArrayList<>();
+        for (String name : readNames) {
+            if (!setKeys.contains(name)) {
+                variants.add(PrioritizedLookupElement.withPriority(LookupElementBuilder.create(name)
+                        .withIcon(PhpIcons.VARIABLE)
+                        .withTypeText("read in view, not set")
+                        .withBoldness(true), UNSET_PRIORITY));
             }
         }
-
+        for (String name : setKeys) {
+            variants.add(PrioritizedLookupElement.withPriority(LookupElementBuilder.create(name)
+                    .withIcon(PhpIcons.VARIABLE)
+                    .withTypeText(readNames.contains(name) ? "set" : "set, not read in view"), SET_PRIORITY));
+        }
+        Log.info("setVar key variants for " + actionMethod.getName() + ": " + variants.size());
         return variants.toArray();
     }
 
     /**
-     * 文字列をケバブケースに変換
+     * この文字列リテラルがsetVarの第一引数かどうかを判定する。
      */
-    private String toKebabCase(String input) {
-        if (input == null || input.isEmpty()) {
-            return input;
+    private boolean isSetVarKey() {
+        PsiElement parameterList = myElement.getParent();
+        if (!(parameterList instanceof ParameterList) || !(parameterList.getParent() instanceof MethodReference methodRef)) {
+            return false;
         }
-        return input.replaceAll("([a-z])([A-Z])", "$1-$2").toLowerCase();
+        PsiElement[] args = methodRef.getParameters();
+        return "setVar".equals(methodRef.getName()) && args.length > 0 && args[0] == myElement;
     }
-    
+
     /**
      * 文字列をパスカルケースに変換
      */
@@ -0,0 +1,124 @@
+package com.sample.phpstormpluginviewvariable.settings;
+
+import com.intellij.openapi.options.Configurable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.ComboBox;
+import com.intellij.ui.EditorNotifications;
+import com.intellij.ui.JBIntSpinner;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBTextField;
+import com.sample.phpstormpluginviewvariable.cache.PhpStanTypeStore;
+import com.sample.phpstormpluginviewvariable.stub.ViewContractStubService;
+import com.intellij.util.ui.FormBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import java.util.Objects;
+
+/**
+ * ViewVariableConfigurable
+ * ViewVariableSettingsを編集する設定画面（Settings | Tools | Controller-View Resolver）。
+ */
+public class ViewVariableConfigurable implements Configurable {
+    private final Project project;
+
+    private ComboBox<ViewVariableSettings.ControllerDiscovery> controllerDiscoveryField;
+    private JBTextField baseControllerFqnField;
+    private JBTextField phpStanTypesFileField;
+    private JBCheckBox generatedStubsField;
+    private JBIntSpinner largeViewFileSizeField;
+    private JBIntSpinner largeViewElementCountField;
+
+    public ViewVariableConfigurable(@NotNull Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public @Nls String getDisplayName() {
+        return "Controller-View Resolver";
+    }
+
+    @Override
+    public @Nullable JComponent createComponent() {
+        controllerDiscoveryField = new ComboBox<>(ViewVariableSettings.ControllerDiscovery.values());
+        baseControllerFqnField = new JBTextField();
+        phpStanTypesFileField = new JBTextField();
+        phpStanTypesFileField.getEmptyText().setText("e.g. php/.phpstan-view-types.json");
+        generatedStubsField = new JBCheckBox("Resolve view variables from generated stub files");
+        largeViewFileSizeField = new JBIntSpinner(1024, 0, 1024 * 1024, 256);
+        largeViewElementCountField = new JBIntSpinner(20000, 0, 10_000_000, 1000);
+
+        JPanel panel = FormBuilder.createFormBuilder()
+                .addLabeledComponent("Controller discovery:", controllerDiscoveryField)
+                .addLabeledComponent("Base controller class:", baseControllerFqnField)
+                .addLabeledComponent("PHPStan types file:", phpStanTypesFileField)
+                .addTooltip("Output of phpstan analyse --error-format=viewVariableTypes, relative to the project root")
+                .addComponent(generatedStubsField)
+                .addTooltip("Writes a contract class per view to the system directory and lets the PHP index answer variable types")
+                .addLabeledComponent("Large view file size (KB):", largeViewFileSizeField)
+                .addLabeledComponent("Large view variable usages:", largeViewElementCountField)
+                .addTooltip("Larger views are answered from the index only (no full-file walks, name-only completion). 0 disables the check")
+                .addComponentFillVertically(new JPanel(), 0)
+                .getPanel();
+        reset();
+        return panel;
+    }
+
+    @Override
+    public boolean isModified() {
+        ViewVariableSettings.State state = ViewVariableSettings.getInstance(project).getState();
+        return controllerDiscoveryField.getSelectedItem() != state.controllerDiscovery
+                || !Objects.equals(baseControllerFqnField.getText(), state.baseControllerFqn)
+                || !Objects.equals(phpStanTypesFileField.getText(), state.phpStanTypesFile)
+                || generatedStubsField.isSelected() != state.generatedStubs
+                || largeViewFileSizeField.getNumber() != state.largeViewFileSizeKb
+                || largeViewElementCountField.getNumber() != state.largeViewElementCount;
+    }
+
+    @Override
+    public void apply() {
+        ViewVariableSettings settings = ViewVariableSettings.getInstance(project);
+        ViewVariableSettings.State state = settings.getState();
+        state.controllerDiscovery = (ViewVariableSettings.ControllerDiscovery) controllerDiscoveryField.getSelectedItem();
+        state.baseControllerFqn = baseControllerFqnField.getText();
+        boolean phpStanTypesFileChanged = !Objects.equals(state.phpStanTypesFile, phpStanTypesFileField.getText());
+        state.phpStanTypesFile = phpStanTypesFileField.getText();
+        boolean stubModeChanged = state.generatedStubs != generatedStubsField.isSelected();
+        state.generatedStubs = generatedStubsField.isSelected();
+        state.largeViewFileSizeKb = largeViewFileSizeField.getNumber();
+        state.largeViewElementCount = largeViewElementCountField.getNumber();
+        settings.update(state);
+        if (stubModeChanged) {
+            ViewContractStubService.getInstance(project).stubModeChanged();
+        }
+        if (phpStanTypesFileChanged) {
+            PhpStanTypeStore.getInstance(project).typesPathChanged();
+        }
+        // 縮退モードの閾値が変わった場合に、開いているViewの通知を更新する
+        EditorNotifications.getInstance(project).updateAllNotifications();
+    }
+
+    @Override
+    public void reset() {
+        ViewVariableSettings.State state = ViewVariableSettings.getInstance(project).getState();
+        controllerDiscoveryField.setSelectedItem(state.controllerDiscovery);
+        baseControllerFqnField.setText(state.baseControllerFqn);
+        phpStanTypesFileField.setText(state.phpStanTypesFile);
+        generatedStubsField.setSelected(state.generatedStubs);
+        largeViewFileSizeField.setNumber(state.largeViewFileSizeKb);
+        largeViewElementCountField.setNumber(state.largeViewElementCount);
+    }
+
+    @Override
+    public void disposeUIResources() {
+        controllerDiscoveryField = null;
+        baseControllerFqnField = null;
+        phpStanTypesFileField = null;
+        generatedStubsField = null;
+        largeViewFileSizeField = null;
+        largeViewElementCountField = null;
+    }
+}
@@ -0,0 +1,130 @@
+package com.sample.phpstormpluginviewvariable.settings;
+
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.util.SimpleModificationTracker;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * ViewVariableSettings
+ * プラグインのプロジェクト単位の設定。
+ * 設定が変更されるとmodificationTrackerが更新され、設定に依存するキャッシュが破棄される。
+ */
+@Service(Service.Level.PROJECT)
+@State(name = "PhpStormPluginViewVariableSettings", storages = @Storage("phpstormpluginviewvariable.xml"))
+public final class ViewVariableSettings implements PersistentStateComponent<ViewVariableSettings.State> {
+
+    /**
+     * Controllerの検出方法
+     */
+    public enum ControllerDiscovery {
+        /**
+         * /Controller/&lt;Name&gt;Controller.php の命名規約で検出する
+         */
+        PATH,
+        /**
+         * 基底クラスのサブクラスとして検出する（命名規約による検出も併用する）
+         */
+        HIERARCHY
+    }
+
+    public static class State {
+        public ControllerDiscovery controllerDiscovery = ControllerDiscovery.PATH;
+        public String baseControllerFqn = "\\App\\Modules\\GmTool\\Foundation\\Controller";
+        /**
+         * PHPStanで出力した変数の型のJSONファイル（プロジェクトルートからの相対パスまたは絶対パス。空の場合は使用しない）
+         */
+        public String phpStanTypesFile = "";
+        /**
+         * Viewの変数をTypeProviderで都度推論せず、生成したスタブファイル（PHPのインデックス）から解決する
+         */
+        public boolean generatedStubs = false;
+        /**
+         * このサイズ（KB）を超えるViewファイルは縮退モードで扱う（0の場合はサイズで判定しない）
+         */
+        public int largeViewFileSizeKb = 1024;
+        /**
+         * 読み取っている変数の出現数がこの数を超えるViewファイルは縮退モードで扱う（0の場合は出現数で判定しない）
+         */
+        public int largeViewElementCount = 20000;
+    }
+
+    private final SimpleModificationTracker modificationTracker = new SimpleModificationTracker();
+    private State state = new State();
+
+    public static ViewVariableSettings getInstance(@NotNull Project project) {
+        return project.getService(ViewVariableSettings.class);
+    }
+
+    @Override
+    public @NotNull State getState() {
+        return state;
+    }
+
+    @Override
+    public void loadState(@NotNull State state) {
+        this.state = state;
+        modificationTracker.incModificationCount();
+    }
+
+    /**
+     * 設定画面で変更された値を反映する。
+     */
+    public void update(@NotNull State state) {
+        loadState(state);
+    }
+
+    @NotNull
+    public ModificationTracker getModificationTracker() {
+        return modificationTracker;
+    }
+
+    public boolean isStubMode() {
+        return state.generatedStubs;
+    }
+
+    /**
+     * 縮退モードにするViewファイルのサイズ（バイト）。0の場合はサイズで判定しない。
+     */
+    public long getLargeViewFileSizeLimit() {
+        return Math.max(0, state.largeViewFileSizeKb) * 1024L;
+    }
+
+    /**
+     * 縮退モードにするViewファイルの変数の出現数。0の場合は出現数で判定しない。
+     */
+    public int getLargeViewElementLimit() {
+        return Math.max(0, state.largeViewElementCount);
+    }
+
+    public boolean isHierarchyDiscovery() {
+        return state.controllerDiscovery == ControllerDiscovery.HIERARCHY;
+    }
+
+    /**
+     * PHPStanで出力した変数の型のJSONファイルのパスを返す。設定されていない場合はnullを返す。
+     */
+    @Nullable
+    public String getPhpStanTypesPath(@NotNull Project project) {
+        String path = state.phpStanTypesFile != null ? state.phpStanTypesFile.trim() : "";
+        if (path.isEmpty()) {
+            return null;
+        }
+        path = path.replace('\\', '/');
+        if (path.startsWith("/") || path.matches("^[A-Za-z]:/.*") || project.getBasePath() == null) {
+            return path;
+        }
+        return project.getBasePath() + "/" + path;
+    }
+
+    @NotNull
+    public String getBaseControllerFqn() {
+        String fqn = state.baseControllerFqn != null ? state.baseControllerFqn.trim() : "";
+        return fqn.startsWith("\\") ? fqn : "\\" + fqn;
+    }
+}
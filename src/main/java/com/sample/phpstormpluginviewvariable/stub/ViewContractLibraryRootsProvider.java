@@ -0,0 +1,45 @@
+package com.sample.phpstormpluginviewvariable.stub;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.AdditionalLibraryRootsProvider;
+import com.intellij.openapi.roots.SyntheticLibrary;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ViewContractLibraryRootsProvider
+ * ViewContractStubService が生成したスタブのディレクトリをライブラリとしてプロジェクトに追加する。
+ * スタブモードが無効な場合は何も追加しない。
+ */
+public class ViewContractLibraryRootsProvider extends AdditionalLibraryRootsProvider {
+
+    @Override
+    public @NotNull Collection<SyntheticLibrary> getAdditionalProjectLibraries(@NotNull Project project) {
+        VirtualFile stubRoot = findEnabledStubRoot(project);
+        if (stubRoot == null) {
+            return Collections.emptyList();
+        }
+        return List.of(SyntheticLibrary.newImmutableLibrary("phpstormpluginviewvariable.stubs",
+                List.of(stubRoot), List.of(), Set.of(), null));
+    }
+
+    @Override
+    public @NotNull Collection<VirtualFile> getRootsToWatch(@NotNull Project project) {
+        VirtualFile stubRoot = findEnabledStubRoot(project);
+        return stubRoot != null ? List.of(stubRoot) : Collections.emptyList();
+    }
+
+    private static VirtualFile findEnabledStubRoot(Project project) {
+        ViewContractStubService stubService = ViewContractStubService.getInstance(project);
+        if (!stubService.isEnabled()) {
+            return null;
+        }
+        VirtualFile stubRoot = stubService.findStubRoot();
+        return stubRoot != null && stubRoot.isValid() ? stubRoot : null;
+    }
+}
@@ -0,0 +1,373 @@
+package com.sample.phpstormpluginviewvariable.stub;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.AdditionalLibraryRootsListener;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.ui.update.MergingUpdateQueue;
+import com.intellij.util.ui.update.Update;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.sample.phpstormpluginviewvariable.cache.ControllerActionListener;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import com.sample.phpstormpluginviewvariable.settings.ViewVariableSettings;
+import com.sample.phpstormpluginviewvariable.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ViewContractStubService
+ * Viewごとの変数の契約（setVarで渡される変数と型）を、システムディレクトリにPHPのスタブファイルとして書き出すサービス。
+ * スタブはViewごとに1クラス（例: \PhpStormViewContract\View_modules_sGmTool_sviews_ssample_sindex_dphp）で、変数をプロパティとして持つ。
+ * スタブのディレクトリは ViewContractLibraryRootsProvider でライブラリとして登録され、PHPのインデックスに載る。
+ * スタブモードでは ViewTypeProvider は #P#C\...View_xxx.name のシグネチャを返すだけになり、型の解決はPHPのインデックスが行う。
+ * Controllerのアクションが変更されると、そのアクションのViewのスタブだけを作り直す。
+ */
+@Service(Service.Level.PROJECT)
+public final class ViewContractStubService implements Disposable {
+    public static final String NAMESPACE = "PhpStormViewContract";
+
+    private static final String LIBRARY_NAME = "View contract stubs";
+
+    private final Project project;
+    private final Path stubRoot;
+    private final MergingUpdateQueue queue;
+
+    /**
+     * スタブの作り直しを待っているアクション・Controllerファイル
+     */
+    private final Set<ControllerAction> pendingActions = ConcurrentHashMap.newKeySet();
+    private final Set<VirtualFile> pendingControllers = ConcurrentHashMap.newKeySet();
+
+    public ViewContractStubService(@NotNull Project project) {
+        this.project = project;
+        this.stubRoot = Path.of(PathManager.getSystemPath(), "phpstormpluginviewvariable", "stubs", project.getLocationHash());
+        this.queue = new MergingUpdateQueue("ViewContractStubs", 500, true, null, this, null, false);
+        project.getMessageBus().connect(this).subscribe(ControllerActionListener.TOPIC, new ControllerActionListener() {
+            @Override
+            public void actionChanged(@NotNull ControllerAction action) {
+                if (isEnabled()) {
+                    pendingActions.add(action);
+                    scheduleUpdate();
+                }
+            }
+
+            @Override
+            public void controllerChanged(@NotNull VirtualFile controllerFile) {
+                if (isEnabled()) {
+                    pendingControllers.add(controllerFile);
+                    scheduleUpdate();
+                }
+            }
+        });
+    }
+
+    public static ViewContractStubService getInstance(@NotNull Project project) {
+        return project.getService(ViewContractStubService.class);
+    }
+
+    public boolean isEnabled() {
+        return ViewVariableSettings.getInstance(project).isStubMode();
+    }
+
+    /**
+     * 指定したViewファイルの契約クラスの完全修飾名を返す。
+     * プロジェクトからの相対パス（拡張子を含む）をエスケープした名前にするため、異なるViewが同じクラス名になることはない。
+     */
+    @NotNull
+    public String getContractFqn(@NotNull VirtualFile viewFile) {
+        return "\\" + NAMESPACE + "\\" + getContractClassName(viewFile);
+    }
+
+    /**
+     * スタブのディレクトリを返す（まだ作成されていない場合はnull）。
+     */
+    @Nullable
+    public VirtualFile findStubRoot() {
+        return LocalFileSystem.getInstance().findFileByNioFile(stubRoot);
+    }
+
+    /**
+     * スタブモードの設定が変わったときに呼ばれる。
+     * 有効になった場合はすべてのViewのスタブを作成し、ライブラリの登録を更新する。
+     */
+    public void stubModeChanged() {
+        if (!isEnabled()) {
+            fireRootsChanged(findStubRoot(), null);
+            return;
+        }
+        regenerateAll();
+    }
+
+    /**
+     * すべてのViewのスタブをバックグラウンドで作り直す。
+     * どのViewにも対応しなくなったスタブ（削除・移動されたView）は削除し、VFSの更新は最後に1回だけ行う。
+     */
+    public void regenerateAll() {
+        new Task.Backgroundable(project, "Generating view contract stubs", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                List<VirtualFile> viewFiles = new ArrayList<>();
+                ReadAction.run(() -> ProjectFileIndex.getInstance(project).iterateContent(file -> {
+                    if (!file.isDirectory() && ViewFile.isViewFile(file)) {
+                        viewFiles.add(file);
+                    }
+                    return true;
+                }));
+
+                VirtualFile oldRoot = findStubRoot();
+                Set<Path> stubPaths = new HashSet<>();
+                List<Path> changed = new ArrayList<>();
+                for (int i = 0; i < viewFiles.size(); i++) {
+                    indicator.checkCanceled();
+                    indicator.setFraction((double) i / viewFiles.size());
+                    VirtualFile viewFile = viewFiles.get(i);
+                    Map<Path, String> stubs = ReadAction.nonBlocking(() -> buildStubs(List.of(viewFile))).inSmartMode(project).executeSynchronously();
+                    stubPaths.addAll(stubs.keySet());
+                    changed.addAll(writeStubs(stubs));
+                }
+                changed.addAll(deleteStaleStubs(stubPaths));
+                changed.add(stubRoot);
+                LocalFileSystem.getInstance().refreshNioFiles(changed);
+                VirtualFile newRoot = findStubRoot();
+                Log.info("Generated view contract stubs for " + viewFiles.size() + " views (" + (changed.size() - 1) + " files changed)");
+                if (oldRoot == null && newRoot != null) {
+                    fireRootsChanged(null, newRoot);
+                }
+            }
+        }.queue();
+    }
+
+    private void scheduleUpdate() {
+        queue.queue(Update.create(this, this::flush));
+    }
+
+    /**
+     * 変更されたアクションのViewのスタブを作り直す。
+     */
+    private void flush() {
+        List<ControllerAction> actions = new ArrayList<>(pendingActions);
+        List<VirtualFile> controllers = new ArrayList<>(pendingControllers);
+        pendingActions.removeAll(actions);
+        pendingControllers.removeAll(controllers);
+        if (actions.isEmpty() && controllers.isEmpty()) {
+            return;
+        }
+
+        ReadAction.nonBlocking(() -> buildStubs(collectViewFiles(actions, controllers)))
+                .inSmartMode(project)
+                .expireWith(this)
+                .submit(AppExecutorUtil.getAppExecutorService())
+                .onSuccess(stubs -> {
+                    List<Path> changed = writeStubs(stubs);
+                    if (!changed.isEmpty()) {
+                        LocalFileSystem.getInstance().refreshNioFiles(changed);
+                    }
+                });
+    }
+
+    /**
+     * 変更されたアクション・Controllerが使うViewファイルを返す。
+     */
+    private List<VirtualFile> collectViewFiles(List<ControllerAction> actions, List<VirtualFile> controllers) {
+        List<ControllerAction> allActions = new ArrayList<>(actions);
+        PsiManager psiManager = PsiManager.getInstance(project);
+        for (VirtualFile controller : controllers) {
+            PsiFile controllerFile = controller.isValid() ? psiManager.findFile(controller) : null;
+            if (controllerFile == null) {
+                continue;
+            }
+            for (Method method : PsiTreeUtil.findChildrenOfType(controllerFile, Method.class)) {
+                if (method.getName().endsWith("Action")) {
+                    allActions.add(new ControllerAction(controller, method.getName()));
+                }
+            }
+        }
+
+        Set<VirtualFile> viewFiles = ConcurrentHashMap.newKeySet();
+        for (ControllerAction action : allActions) {
+            if (action.getControllerFile().isValid()) {
+                viewFiles.addAll(ControllerFile.findViewFiles(action.getControllerFile(), action.getActionName(), project));
+            }
+        }
+        return new ArrayList<>(viewFiles);
+    }
+
+    /**
+     * Viewファイルごとのスタブの内容を作成する（変数が無いViewは空文字）。読み取りアクション内で呼び出すこと。
+     */
+    private Map<Path, String> buildStubs(Collection<VirtualFile> viewFiles) {
+        Map<Path, String> stubs = new LinkedHashMap<>();
+        PsiManager psiManager = PsiManager.getInstance(project);
+        for (VirtualFile viewFile : viewFiles) {
+            PsiFile psiFile = viewFile.isValid() ? psiManager.findFile(viewFile) : null;
+            if (psiFile == null) {
+                continue;
+            }
+            String className = getContractClassName(viewFile);
+            stubs.put(stubRoot.resolve(className + ".php"), buildStub(className, viewFile, ViewVariableTable.getInstance(psiFile)));
+        }
+        return stubs;
+    }
+
+    private String buildStub(String className, VirtualFile viewFile, ViewVariableTable table) {
+        if (table.isEmpty()) {
+            return "";
+        }
+        List<ViewVariable> variables = new ArrayList<>(table.getVariables());
+        variables.sort(Comparator.comparing(ViewVariable::getName));
+
+        StringBuilder stub = new StringBuilder()
+                .append("<?php\n")
+                .append("// Generated by Controller-View Resolver. Do not edit.\n")
+                .append("namespace ").append(NAMESPACE).append(";\n\n")
+                .append("/** View contract of ").append(getRelativePath(viewFile)).append(" */\n")
+                .append("final class ").append(className).append("\n{\n");
+        for (ViewVariable variable : variables) {
+            stub.append("    /** @var ").append(variable.getDocTypeText(project)).append(" */\n")
+                    .append("    public $").append(variable.getName()).append(";\n");
+        }
+        return stub.append("}\n").toString();
+    }
+
+    /**
+     * スタブを書き出す。内容が変わっていないファイルは書き込まない。
+     * VFSの更新は呼び出し元で行う。
+     *
+     * @return 書き込んだ・削除したファイル
+     */
+    private List<Path> writeStubs(Map<Path, String> stubs) {
+        List<Path> changed = new ArrayList<>();
+        try {
+            Files.createDirectories(stubRoot);
+            for (Map.Entry<Path, String> entry : stubs.entrySet()) {
+                Path path = entry.getKey();
+                String content = entry.getValue();
+                if (content.isEmpty()) {
+                    if (Files.deleteIfExists(path)) {
+                        changed.add(path);
+                    }
+                    continue;
+                }
+                if (Files.exists(path) && content.equals(Files.readString(path, StandardCharsets.UTF_8))) {
+                    continue;
+                }
+                Files.writeString(path, content, StandardCharsets.UTF_8);
+                changed.add(path);
+            }
+        } catch (IOException e) {
+            Log.warn("Failed to write view contract stubs: " + e.getMessage());
+        }
+
+        if (!changed.isEmpty()) {
+            Log.info("Updated " + changed.size() + " view contract stubs");
+        }
+        return changed;
+    }
+
+    /**
+     * スタブのディレクトリにある、指定したスタブ以外のファイルを削除する。
+     *
+     * @return 削除したファイル
+     */
+    private List<Path> deleteStaleStubs(Set<Path> stubPaths) {
+        List<Path> deleted = new ArrayList<>();
+        if (!Files.isDirectory(stubRoot)) {
+            return deleted;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(stubRoot, "*.php")) {
+            for (Path path : files) {
+                if (!stubPaths.contains(path) && Files.deleteIfExists(path)) {
+                    deleted.add(path);
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Failed to delete stale view contract stubs: " + e.getMessage());
+        }
+        if (!deleted.isEmpty()) {
+            Log.info("Deleted " + deleted.size() + " stale view contract stubs");
+        }
+        return deleted;
+    }
+
+    private void fireRootsChanged(@Nullable VirtualFile oldRoot, @Nullable VirtualFile newRoot) {
+        ApplicationManager.getApplication().invokeLater(() -> WriteAction.run(() ->
+                AdditionalLibraryRootsListener.fireAdditionalLibraryChanged(project, LIBRARY_NAME,
+                        oldRoot != null ? List.of(oldRoot) : Collections.emptyList(),
+                        newRoot != null ? List.of(newRoot) : Collections.emptyList(),
+                        LIBRARY_NAME)), project.getDisposed());
+    }
+
+    /**
+     * 相対パスをクラス名に使える文字にエスケープする。_ はエスケープの開始にだけ使い、元に戻せる（異なるパスが同じ名前にならない）形にする。
+     * <pre>
+     * _ -> __, / -> _s, . -> _d, - -> _h, その他の英数字以外 -> _uXXXX（UTF-16のコード）
+     * </pre>
+     */
+    private String getContractClassName(VirtualFile viewFile) {
+        String relativePath = getRelativePath(viewFile);
+        StringBuilder className = new StringBuilder("View_");
+        for (int i = 0; i < relativePath.length(); i++) {
+            char c = relativePath.charAt(i);
+            switch (c) {
+                case '_' -> className.append("__");
+                case '/' -> className.append("_s");
+                case '.' -> className.append("_d");
+                case '-' -> className.append("_h");
+                default -> {
+                    if (c < 128 && Character.isLetterOrDigit(c)) {
+                        className.append(c);
+                    } else {
+                        className.append(String.format("_u%04X", (int) c));
+                    }
+                }
+            }
+        }
+        return className.toString();
+    }
+
+    private String getRelativePath(VirtualFile viewFile) {
+        VirtualFile baseDir = project.getBasePath() != null ? LocalFileSystem.getInstance().findFileByPath(project.getBasePath()) : null;
+        String relativePath = baseDir != null ? VfsUtilCore.getRelativePath(viewFile, baseDir) : null;
+        return relativePath != null ? relativePath : viewFile.getPath();
+    }
+
+    @Override
+    public void dispose() {
+        pendingActions.clear();
+        pendingControllers.clear();
+    }
+}
@@ -0,0 +1,109 @@
+package com.sample.phpstormpluginviewvariable.toolwindow;
+
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.sample.phpstormpluginviewvariable.index.SetVarIndex;
+import com.sample.phpstormpluginviewvariable.index.SetVarSite;
+import com.sample.phpstormpluginviewvariable.index.ViewVariableIndex;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ViewContractFilter
+ * View Contractツールウィンドウの検索条件。
+ * 検索文字列を含む変数名をSetVarIndexとViewVariableIndexのキーから探し、その変数をsetVarしているアクションと、
+ * その変数を読んでいるViewを使うアクションだけを残す。ファイルの内容は読まずにインデックスだけで絞り込む。
+ */
+public class ViewContractFilter {
+    /**
+     * フックメソッドでsetVarしている場合に、Controllerのすべてのアクションを対象にすることを表す
+     */
+    private static final String ALL_ACTIONS = "*";
+
+    private final Set<String> names;
+    private final Map<VirtualFile, Set<String>> actions;
+
+    private ViewContractFilter(@NotNull Set<String> names, @NotNull Map<VirtualFile, Set<String>> actions) {
+        this.names = names;
+        this.actions = actions;
+    }
+
+    /**
+     * 検索文字列（大文字小文字を区別しない部分一致）から絞り込み条件を作成する。読み取りアクション内で呼び出すこと。
+     */
+    @NotNull
+    public static ViewContractFilter create(@NotNull Project project, @NotNull String text) {
+        String lowerText = text.toLowerCase(Locale.ROOT);
+        Set<String> names = new HashSet<>();
+        FileBasedIndex index = FileBasedIndex.getInstance();
+        index.processAllKeys(SetVarIndex.NAME, key -> {
+            if (key.toLowerCase(Locale.ROOT).contains(lowerText)) {
+                names.add(key);
+            }
+            return true;
+        }, project);
+        index.processAllKeys(ViewVariableIndex.NAME, key -> {
+            if (key.toLowerCase(Locale.ROOT).contains(lowerText)) {
+                names.add(key);
+            }
+            return true;
+        }, project);
+
+        GlobalSearchScope scope = GlobalSearchScope.projectScope(project);
+        Map<VirtualFile, Set<String>> actions = new HashMap<>();
+        Set<VirtualFile> viewFiles = new HashSet<>();
+        for (String name : names) {
+            ProgressManager.checkCanceled();
+            index.processValues(SetVarIndex.NAME, name, null, (file, sites) -> {
+                Set<String> methodNames = actions.computeIfAbsent(file, k -> new HashSet<>());
+                for (SetVarSite site : sites) {
+                    methodNames.add(ControllerFile.HOOK_METHOD_NAMES.contains(site.getMethodName()) ? ALL_ACTIONS : site.getMethodName());
+                }
+                return true;
+            }, scope);
+            viewFiles.addAll(index.getContainingFiles(ViewVariableIndex.NAME, name, scope));
+        }
+
+        // setVarされていない変数を読んでいるViewも、そのViewを使うアクションから辿れるようにする
+        for (VirtualFile viewFile : viewFiles) {
+            ProgressManager.checkCanceled();
+            List<ControllerAction> controllerActions = ControllerFile.findControllerActions(viewFile, project);
+            for (ControllerAction action : controllerActions) {
+                actions.computeIfAbsent(action.getControllerFile(), k -> new HashSet<>()).add(action.getActionName());
+            }
+        }
+        return new ViewContractFilter(names, actions);
+    }
+
+    /**
+     * 条件に一致するアクションを持つControllerファイル
+     */
+    @NotNull
+    public Set<VirtualFile> getControllerFiles() {
+        return actions.keySet();
+    }
+
+    public boolean acceptsController(@NotNull VirtualFile controllerFile) {
+        return actions.containsKey(controllerFile);
+    }
+
+    public boolean acceptsAction(@NotNull VirtualFile controllerFile, @NotNull String actionName) {
+        Set<String> actionNames = actions.get(controllerFile);
+        return actionNames != null && (actionNames.contains(actionName) || actionNames.contains(ALL_ACTIONS));
+    }
+
+    public boolean acceptsVariable(@NotNull String name) {
+        return names.contains(name);
+    }
+}
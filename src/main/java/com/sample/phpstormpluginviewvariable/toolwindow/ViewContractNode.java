@@ -0,0 +1,420 @@
+package com.sample.phpstormpluginviewvariable.toolwindow;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.FileTypeIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.PhpIcons;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.sample.phpstormpluginviewvariable.index.ViewVariableIndex;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import com.sample.phpstormpluginviewvariable.model.ControllerFile;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import com.sample.phpstormpluginviewvariable.model.ViewVariable;
+import com.sample.phpstormpluginviewvariable.model.ViewVariableTable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.Icon;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * ViewContractNode
+ * View Contractツールウィンドウの木のノード（モジュール → Controller → アクション → View → 変数）。
+ * 子ノードは展開されたときにloadChildrenでバックグラウンドの読み取りアクション内で作成する。
+ * ノードはPSIを保持せず、VirtualFileと名前・オフセットだけを持つ。
+ */
+public abstract class ViewContractNode {
+    /**
+     * 子ノードを読み込み済みかどうか（EDTでのみ参照・更新する）
+     */
+    boolean loaded;
+
+    /**
+     * 子ノードの読み込みの要求番号。再読み込みで更新し、古い要求の結果を捨てるために使う（EDTでのみ参照・更新する）
+     */
+    int request;
+
+    @NotNull
+    public abstract String getText();
+
+    @Nullable
+    public String getDetail() {
+        return null;
+    }
+
+    @Nullable
+    public abstract Icon getIcon();
+
+    public boolean isLeaf() {
+        return false;
+    }
+
+    /**
+     * ダブルクリックで開くファイル（無い場合はnull）
+     */
+    @Nullable
+    public VirtualFile getFile() {
+        return null;
+    }
+
+    /**
+     * ダブルクリックで開く位置（ファイル先頭の場合は0）。読み取りアクション内で呼び出すこと。
+     */
+    public int getNavigationOffset(@NotNull Project project) {
+        return 0;
+    }
+
+    /**
+     * 子ノードを作成する。読み取りアクション内（スマートモード）で呼び出すこと。
+     *
+     * @param filter 検索条件（検索していない場合はnull）
+     */
+    @NotNull
+    public abstract List<ViewContractNode> loadChildren(@NotNull Project project, @Nullable ViewContractFilter filter);
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+    /**
+     * 指定したControllerファイルのパスから、モジュールのディレクトリのパス（/Controller/ の手前まで）を返す。
+     */
+    @NotNull
+    static String getModulePath(@NotNull String controllerPath) {
+        int index = controllerPath.indexOf("/Controller/");
+        return index != -1 ? controllerPath.substring(0, index) : controllerPath;
+    }
+
+    /**
+     * 指定したViewファイルのパスから、モジュールのディレクトリのパス（/views/ の手前まで）を返す。
+     */
+    @NotNull
+    static String getViewModulePath(@NotNull String viewPath) {
+        int index = viewPath.indexOf("/views/");
+        return index != -1 ? viewPath.substring(0, index) : viewPath;
+    }
+
+    private static String relativePath(Project project, String path) {
+        String basePath = project.getBasePath();
+        if (basePath != null && path.startsWith(basePath + "/")) {
+            return path.substring(basePath.length() + 1);
+        }
+        return path;
+    }
+
+    /**
+     * 検索条件に一致するControllerファイルを列挙する。検索していない場合はプロジェクトのPHPファイルをFileTypeIndexから列挙する。
+     */
+    private static List<VirtualFile> findControllerFiles(Project project, @Nullable ViewContractFilter filter, @Nullable String modulePath) {
+        List<VirtualFile> controllerFiles = new ArrayList<>();
+        if (filter != null) {
+            for (VirtualFile file : filter.getControllerFiles()) {
+                if (file.isValid() && (modulePath == null || getModulePath(file.getPath()).equals(modulePath))) {
+                    controllerFiles.add(file);
+                }
+            }
+        } else {
+            FileTypeIndex.processFiles(PhpFileType.INSTANCE, file -> {
+                ProgressManager.checkCanceled();
+                if (ViewFile.isControllerFile(file, project) && (modulePath == null || getModulePath(file.getPath()).equals(modulePath))) {
+                    controllerFiles.add(file);
+                }
+                return true;
+            }, GlobalSearchScope.projectScope(project));
+        }
+        controllerFiles.sort(Comparator.comparing(VirtualFile::getPath));
+        return controllerFiles;
+    }
+
+    /**
+     * 木の根（表示しない）。子はモジュール。
+     */
+    public static class Root extends ViewContractNode {
+        @Override
+        public @NotNull String getText() {
+            return "View Contract";
+        }
+
+        @Override
+        public @Nullable Icon getIcon() {
+            return null;
+        }
+
+        @Override
+        public @NotNull List<ViewContractNode> loadChildren(@NotNull Project project, @Nullable ViewContractFilter filter) {
+            TreeSet<String> modulePaths = new TreeSet<>();
+            for (VirtualFile controllerFile : findControllerFiles(project, filter, null)) {
+                modulePaths.add(getModulePath(controllerFile.getPath()));
+            }
+
+            List<ViewContractNode> children = new ArrayList<>();
+            for (String modulePath : modulePaths) {
+                children.add(new Module(modulePath, relativePath(project, modulePath)));
+            }
+            return children;
+        }
+    }
+
+    /**
+     * モジュール（Controllerディレクトリを持つディレクトリ）
+     */
+    public static class Module extends ViewContractNode {
+        private final String path;
+        private final String text;
+
+        Module(@NotNull String path, @NotNull String text) {
+            this.path = path;
+            this.text = text;
+        }
+
+        /**
+         * モジュールのディレクトリの絶対パス
+         */
+        @NotNull
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public @NotNull String getText() {
+            return text;
+        }
+
+        @Override
+        public @Nullable Icon getIcon() {
+            return AllIcons.Nodes.Module;
+        }
+
+        @Override
+        public @NotNull List<ViewContractNode> loadChildren(@NotNull Project project, @Nullable ViewContractFilter filter) {
+            String controllerRoot = path + "/Controller/";
+            List<ViewContractNode> children = new ArrayList<>();
+            for (VirtualFile controllerFile : findControllerFiles(project, filter, path)) {
+                String controllerPath = controllerFile.getPath();
+                String text = controllerPath.startsWith(controllerRoot)
+                        ? controllerPath.substring(controllerRoot.length())
+                        : controllerFile.getName();
+                children.add(new Controller(controllerFile, text));
+            }
+            return children;
+        }
+    }
+
+    /**
+     * Controllerファイル
+     */
+    public static class Controller extends ViewContractNode {
+        private final VirtualFile file;
+        private final String text;
+
+        Controller(@NotNull VirtualFile file, @NotNull String text) {
+            this.file = file;
+            this.text = text;
+        }
+
+        @Override
+        public @NotNull String getText() {
+            return text;
+        }
+
+        @Override
+        public @Nullable Icon getIcon() {
+            return PhpIcons.CLASS;
+        }
+
+        @Override
+        public @NotNull VirtualFile getFile() {
+            return file;
+        }
+
+        @Override
+        public @NotNull List<ViewContractNode> loadChildren(@NotNull Project project, @Nullable ViewContractFilter filter) {
+            PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+            if (psiFile == null) {
+                return Collections.emptyList();
+            }
+
+            List<ViewContractNode> children = new ArrayList<>();
+            for (Method method : PsiTreeUtil.findChildrenOfType(psiFile, Method.class)) {
+                String actionName = method.getName();
+                if (actionName.endsWith("Action") && (filter == null || filter.acceptsAction(file, actionName))) {
+                    children.add(new Action(new ControllerAction(file, actionName)));
+                }
+            }
+            return children;
+        }
+    }
+
+    /**
+     * アクションメソッド
+     */
+    public static class Action extends ViewContractNode {
+        private final ControllerAction action;
+
+        Action(@NotNull ControllerAction action) {
+            this.action = action;
+        }
+
+        @NotNull
+        public ControllerAction getAction() {
+            return action;
+        }
+
+        @Override
+        public @NotNull String getText() {
+            return action.getActionName();
+        }
+
+        @Override
+        public @Nullable Icon getIcon() {
+            return PhpIcons.METHOD;
+        }
+
+        @Override
+        public @NotNull VirtualFile getFile() {
+            return action.getControllerFile();
+        }
+
+        @Override
+        public int getNavigationOffset(@NotNull Project project) {
+            Method method = ControllerFile.findActionMethod(action, project);
+            return method != null ? method.getTextOffset() : 0;
+        }
+
+        @Override
+        public @NotNull List<ViewContractNode> loadChildren(@NotNull Project project, @Nullable ViewContractFilter filter) {
+            if (!action.getControllerFile().isValid()) {
+                return Collections.emptyList();
+            }
+            List<ViewContractNode> children = new ArrayList<>();
+            for (VirtualFile viewFile : ControllerFile.findViewFiles(action.getControllerFile(), action.getActionName(), project)) {
+                String viewPath = viewFile.getPath();
+                int viewsIndex = viewPath.indexOf("/views/");
+                children.add(new View(viewFile, viewsIndex != -1 ? viewPath.substring(viewsIndex + "/views/".length()) : viewFile.getName()));
+            }
+            return children;
+        }
+    }
+
+    /**
+     * Viewファイル
+     */
+    public static class View extends ViewContractNode {
+        private final VirtualFile file;
+        private final String text;
+
+        View(@NotNull VirtualFile file, @NotNull String text) {
+            this.file = file;
+            this.text = text;
+        }
+
+        @Override
+        public @NotNull String getText() {
+            return text;
+        }
+
+        @Override
+        public @Nullable Icon getIcon() {
+            return PhpFileType.INSTANCE.getIcon();
+        }
+
+        @Override
+        public @NotNull VirtualFile getFile() {
+            return file;
+        }
+
+        /**
+         * setVarで渡される変数（型付き）と、Viewで読んでいるがsetVarされていない変数を名前の順に作成する。
+         */
+        @Override
+        public @NotNull List<ViewContractNode> loadChildren(@NotNull Project project, @Nullable ViewContractFilter filter) {
+            PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+            if (psiFile == null) {
+                return Collections.emptyList();
+            }
+
+            TreeMap<String, ViewContractNode> children = new TreeMap<>();
+            for (ViewVariable viewVariable : ViewVariableTable.getInstance(psiFile).getVariables()) {
+                String name = viewVariable.getName();
+                if (filter == null || filter.acceptsVariable(name)) {
+                    children.put(name, new Variable(name, viewVariable.getTypeText(project),
+                            viewVariable.getControllerFile(), viewVariable.getKeyOffset()));
+                }
+            }
+            for (String name : ViewVariableIndex.getFileData(file, project).keySet()) {
+                if (!children.containsKey(name) && (filter == null || filter.acceptsVariable(name))) {
+                    children.put(name, new Variable(name, null, null, 0));
+                }
+            }
+            return new ArrayList<>(children.values());
+        }
+    }
+
+    /**
+     * Viewに渡される変数（setVarされていない場合は型とControllerファイルがnull）
+     */
+    public static class Variable extends ViewContractNode {
+        private final String name;
+        private final String typeText;
+        private final VirtualFile controllerFile;
+        private final int keyOffset;
+
+        Variable(@NotNull String name, @Nullable String typeText, @Nullable VirtualFile controllerFile, int keyOffset) {
+            this.name = name;
+            this.typeText = typeText;
+            this.controllerFile = controllerFile;
+            this.keyOffset = keyOffset;
+        }
+
+        @Override
+        public @NotNull String getText() {
+            return "$" + name;
+        }
+
+        @Override
+        public @Nullable String getDetail() {
+            return typeText != null ? typeText : "read in view, not set";
+        }
+
+        @Override
+        public @Nullable Icon getIcon() {
+            return typeText != null ? PhpIcons.VARIABLE : AllIcons.General.Warning;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+
+        /**
+         * setVarしているControllerファイル（setVarされていない場合はnull）
+         */
+        @Override
+        public @Nullable VirtualFile getFile() {
+            return controllerFile;
+        }
+
+        @Override
+        public int getNavigationOffset(@NotNull Project project) {
+            return keyOffset;
+        }
+
+        @Override
+        public @NotNull List<ViewContractNode> loadChildren(@NotNull Project project, @Nullable ViewContractFilter filter) {
+            return Collections.emptyList();
+        }
+    }
+}
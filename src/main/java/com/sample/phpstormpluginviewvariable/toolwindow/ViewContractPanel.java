@@ -0,0 +1,373 @@
+package com.sample.phpstormpluginviewvariable.toolwindow;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.SimpleToolWindowPanel;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.ui.ColoredTreeCellRenderer;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.DoubleClickListener;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.SearchTextField;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.treeStructure.Tree;
+import com.intellij.util.Alarm;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.sample.phpstormpluginviewvariable.cache.ControllerActionListener;
+import com.sample.phpstormpluginviewvariable.model.ControllerAction;
+import com.sample.phpstormpluginviewvariable.model.ViewFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.JPanel;
+import javax.swing.JTree;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
+import java.awt.BorderLayout;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * ViewContractPanel
+ * View Contractツールウィンドウの内容。モジュール → Controller → アクション → View → 変数（型）の木を表示する。
+ * <ul>
+ *     <li>子ノードは展開されたときにバックグラウンドの読み取りアクションで読み込み、開いた時点ではモジュールの一覧だけを作る</li>
+ *     <li>検索欄の文字列はインデックスのキーで照合し、一致する変数に関係するアクションだけを残した木を作り直す</li>
+ *     <li>Controllerの変更（PSI）・ファイルの追加/削除/移動（VFS）では、影響を受ける読み込み済みのノードだけを読み込み直す</li>
+ * </ul>
+ */
+public class ViewContractPanel extends SimpleToolWindowPanel implements Disposable {
+    /**
+     * 検索欄の入力が止まってから検索するまでの時間（ミリ秒）
+     */
+    private static final int SEARCH_DELAY = 300;
+
+    private static final String LOADING = "Loading...";
+
+    private final Project project;
+    private final DefaultMutableTreeNode rootNode = new DefaultMutableTreeNode(new ViewContractNode.Root());
+    private final DefaultTreeModel model = new DefaultTreeModel(rootNode);
+    private final Tree tree = new Tree(model);
+    private final SearchTextField searchField = new SearchTextField();
+    private final Alarm searchAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+
+    /**
+     * 現在の検索条件（検索していない場合はnull）。EDTでのみ参照・更新する。
+     */
+    private ViewContractFilter filter;
+
+    public ViewContractPanel(@NotNull Project project) {
+        super(true, true);
+        this.project = project;
+
+        tree.setRootVisible(false);
+        tree.setShowsRootHandles(true);
+        tree.setCellRenderer(new Renderer());
+        tree.addTreeWillExpandListener(new TreeWillExpandListener() {
+            @Override
+            public void treeWillExpand(TreeExpansionEvent event) {
+                DefaultMutableTreeNode treeNode = (DefaultMutableTreeNode) event.getPath().getLastPathComponent();
+                if (treeNode.getUserObject() instanceof ViewContractNode node && !node.loaded) {
+                    load(treeNode);
+                }
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent event) {
+            }
+        });
+        new DoubleClickListener() {
+            @Override
+            protected boolean onDoubleClick(@NotNull MouseEvent event) {
+                return navigate();
+            }
+        }.installOn(tree);
+
+        searchField.addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent event) {
+                searchAlarm.cancelAllRequests();
+                searchAlarm.addRequest(ViewContractPanel.this::search, SEARCH_DELAY);
+            }
+        });
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(searchField, BorderLayout.NORTH);
+        panel.add(ScrollPaneFactory.createScrollPane(tree), BorderLayout.CENTER);
+        setContent(panel);
+
+        subscribe();
+        load(rootNode);
+    }
+
+    private void subscribe() {
+        project.getMessageBus().connect(this).subscribe(ControllerActionListener.TOPIC, new ControllerActionListener() {
+            @Override
+            public void actionChanged(@NotNull ControllerAction action) {
+                // PSIの変更イベント内で呼ばれるため、木の更新はイベントの後に行う
+                ApplicationManager.getApplication().invokeLater(() -> reloadLoaded(node ->
+                        node instanceof ViewContractNode.Action actionNode && actionNode.getAction().equals(action)), project.getDisposed());
+            }
+
+            @Override
+            public void controllerChanged(@NotNull VirtualFile controllerFile) {
+                ApplicationManager.getApplication().invokeLater(() -> reloadLoaded(node ->
+                        node instanceof ViewContractNode.Controller && controllerFile.equals(node.getFile())), project.getDisposed());
+            }
+        });
+
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends @NotNull VFileEvent> events) {
+                Set<String> controllerModules = new HashSet<>();
+                Set<String> viewModules = new HashSet<>();
+                Set<VirtualFile> changedViews = new HashSet<>();
+                for (VFileEvent event : events) {
+                    if (event instanceof VFileContentChangeEvent contentChange) {
+                        // Viewで読んでいる変数（setVarされていないもの）はViewの内容で変わる
+                        if (ViewFile.isViewFile(contentChange.getFile())) {
+                            changedViews.add(contentChange.getFile());
+                        }
+                        continue;
+                    }
+                    if (event instanceof VFilePropertyChangeEvent propertyChange && !propertyChange.isRename()) {
+                        continue;
+                    }
+                    List<String> paths = new ArrayList<>();
+                    paths.add(event.getPath());
+                    if (event instanceof VFileMoveEvent move) {
+                        paths.add(move.getOldPath());
+                    } else if (event instanceof VFilePropertyChangeEvent rename) {
+                        paths.add(rename.getOldPath());
+                    }
+                    for (String path : paths) {
+                        switch (ViewFile.classify(path)) {
+                            case CONTROLLER -> controllerModules.add(ViewContractNode.getModulePath(path));
+                            case VIEW -> viewModules.add(ViewContractNode.getViewModulePath(path));
+                            default -> {
+                            }
+                        }
+                    }
+                }
+                if (controllerModules.isEmpty() && viewModules.isEmpty() && changedViews.isEmpty()) {
+                    return;
+                }
+                ApplicationManager.getApplication().invokeLater(
+                        () -> reloadForFileChanges(controllerModules, viewModules, changedViews), project.getDisposed());
+            }
+        });
+    }
+
+    /**
+     * ファイルの追加・削除・移動・変更に合わせて、影響を受ける読み込み済みのノードを読み込み直す。
+     * <ul>
+     *     <li>Controllerの追加・削除: そのモジュールのノード（モジュール自体が無い場合は根）</li>
+     *     <li>Viewの追加・削除: そのモジュールの読み込み済みのアクションのノード（Viewの一覧）</li>
+     *     <li>Viewの内容の変更: そのViewのノード（変数の一覧）</li>
+     * </ul>
+     */
+    private void reloadForFileChanges(Set<String> controllerModules, Set<String> viewModules, Set<VirtualFile> changedViews) {
+        Set<String> reloadedModules = new HashSet<>();
+        for (DefaultMutableTreeNode moduleTreeNode : findLoaded(node -> node instanceof ViewContractNode.Module module
+                && controllerModules.contains(module.getPath()))) {
+            reloadedModules.add(((ViewContractNode.Module) moduleTreeNode.getUserObject()).getPath());
+            reload(moduleTreeNode);
+        }
+        if (!reloadedModules.containsAll(controllerModules)) {
+            reload(rootNode);
+            return;
+        }
+
+        reloadLoaded(node -> node instanceof ViewContractNode.Action actionNode
+                && viewModules.contains(ViewContractNode.getModulePath(actionNode.getFile().getPath())));
+        reloadLoaded(node -> node instanceof ViewContractNode.View && changedViews.contains(node.getFile()));
+    }
+
+    /**
+     * 条件に一致する読み込み済みのノードを読み込み直す。
+     */
+    private void reloadLoaded(Predicate<ViewContractNode> condition) {
+        for (DefaultMutableTreeNode treeNode : findLoaded(condition)) {
+            reload(treeNode);
+        }
+    }
+
+    /**
+     * 木に存在するノードのうち、条件に一致するものを返す（読み込まれていない部分木は辿らない）。
+     */
+    private List<DefaultMutableTreeNode> findLoaded(Predicate<ViewContractNode> condition) {
+        List<DefaultMutableTreeNode> found = new ArrayList<>();
+        Enumeration<?> enumeration = rootNode.breadthFirstEnumeration();
+        while (enumeration.hasMoreElements()) {
+            DefaultMutableTreeNode treeNode = (DefaultMutableTreeNode) enumeration.nextElement();
+            if (treeNode.getUserObject() instanceof ViewContractNode node && condition.test(node)) {
+                found.add(treeNode);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * ノードを読み込み直す。展開されている場合はすぐに読み込み、閉じている場合は次に展開されたときに読み込む。
+     */
+    private void reload(DefaultMutableTreeNode treeNode) {
+        ViewContractNode node = (ViewContractNode) treeNode.getUserObject();
+        node.loaded = false;
+        if (treeNode == rootNode || tree.isExpanded(new TreePath(treeNode.getPath()))) {
+            load(treeNode);
+            return;
+        }
+        node.request++;
+        treeNode.removeAllChildren();
+        treeNode.add(new DefaultMutableTreeNode(LOADING));
+        model.nodeStructureChanged(treeNode);
+    }
+
+    /**
+     * ノードの子をバックグラウンドの読み取りアクション（スマートモード）で読み込む。
+     * 読み込みの途中で再読み込みされた場合や、検索で木が作り直された場合は結果を捨てる。
+     */
+    private void load(DefaultMutableTreeNode treeNode) {
+        ViewContractNode node = (ViewContractNode) treeNode.getUserObject();
+        int request = ++node.request;
+        ViewContractFilter currentFilter = filter;
+        ReadAction.nonBlocking(() -> node.loadChildren(project, currentFilter))
+                .inSmartMode(project)
+                .expireWith(this)
+                .finishOnUiThread(ModalityState.any(), children -> {
+                    if (node.request != request || treeNode.getRoot() != rootNode) {
+                        return;
+                    }
+                    setChildren(treeNode, children);
+                })
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    /**
+     * 子ノードを置き換える。置き換える前に展開されていた子（表示名が同じもの）は、置き換えた後も展開する。
+     */
+    private void setChildren(DefaultMutableTreeNode treeNode, List<ViewContractNode> children) {
+        Set<String> expanded = new LinkedHashSet<>();
+        for (int i = 0; i < treeNode.getChildCount(); i++) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode) treeNode.getChildAt(i);
+            if (tree.isExpanded(new TreePath(child.getPath()))) {
+                expanded.add(child.getUserObject().toString());
+            }
+        }
+
+        treeNode.removeAllChildren();
+        for (ViewContractNode child : children) {
+            DefaultMutableTreeNode childTreeNode = new DefaultMutableTreeNode(child, !child.isLeaf());
+            if (!child.isLeaf()) {
+                childTreeNode.add(new DefaultMutableTreeNode(LOADING));
+            }
+            treeNode.add(childTreeNode);
+        }
+        ((ViewContractNode) treeNode.getUserObject()).loaded = true;
+        model.nodeStructureChanged(treeNode);
+
+        if (treeNode == rootNode && !children.isEmpty()) {
+            tree.expandPath(new TreePath(rootNode.getPath()));
+        }
+        for (int i = 0; i < treeNode.getChildCount(); i++) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode) treeNode.getChildAt(i);
+            if (expanded.contains(child.getUserObject().toString())) {
+                tree.expandPath(new TreePath(child.getPath()));
+            }
+        }
+    }
+
+    /**
+     * 検索欄の文字列で絞り込み条件をインデックスから作成し、木を作り直す。
+     */
+    private void search() {
+        String text = searchField.getText().trim();
+        if (text.isEmpty()) {
+            applyFilter(null);
+            return;
+        }
+        ReadAction.nonBlocking(() -> ViewContractFilter.create(project, text))
+                .inSmartMode(project)
+                .expireWith(this)
+                .coalesceBy(this)
+                .finishOnUiThread(ModalityState.any(), newFilter -> {
+                    if (text.equals(searchField.getText().trim())) {
+                        applyFilter(newFilter);
+                    }
+                })
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    private void applyFilter(@Nullable ViewContractFilter newFilter) {
+        filter = newFilter;
+        rootNode.removeAllChildren();
+        model.nodeStructureChanged(rootNode);
+        reload(rootNode);
+    }
+
+    /**
+     * 選択したノードのファイル（アクションはメソッド、変数はsetVarの位置）を開く。
+     */
+    private boolean navigate() {
+        DefaultMutableTreeNode treeNode = (DefaultMutableTreeNode) tree.getLastSelectedPathComponent();
+        if (treeNode == null || !(treeNode.getUserObject() instanceof ViewContractNode node)) {
+            return false;
+        }
+        VirtualFile file = node.getFile();
+        if (file == null || !file.isValid()) {
+            return false;
+        }
+        ReadAction.nonBlocking(() -> node.getNavigationOffset(project))
+                .inSmartMode(project)
+                .expireWith(this)
+                .finishOnUiThread(ModalityState.defaultModalityState(),
+                        offset -> new OpenFileDescriptor(project, file, offset).navigate(true))
+                .submit(AppExecutorUtil.getAppExecutorService());
+        return true;
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    /**
+     * ノードの表示（変数は型を灰色で続ける）
+     */
+    private static class Renderer extends ColoredTreeCellRenderer {
+        @Override
+        public void customizeCellRenderer(@NotNull JTree tree, Object value, boolean selected, boolean expanded,
+                                          boolean leaf, int row, boolean hasFocus) {
+            Object userObject = ((DefaultMutableTreeNode) value).getUserObject();
+            if (!(userObject instanceof ViewContractNode node)) {
+                append(String.valueOf(userObject), SimpleTextAttributes.GRAYED_ATTRIBUTES);
+                return;
+            }
+            setIcon(node.getIcon());
+            append(node.getText());
+            String detail = node.getDetail();
+            if (detail != null) {
+                append("  " + detail, SimpleTextAttributes.GRAYED_ATTRIBUTES);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.sample.phpstormpluginviewvariable.toolwindow;
+
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * ViewContractToolWindowFactory
+ * Controllerのアクションと、Viewに渡される変数（Viewの契約）を確認するツールウィンドウを作成する。
+ * 内容はインデックスの作成中でも開けるようにし、読み込みはスマートモードになってから行う。
+ */
+public class ViewContractToolWindowFactory implements ToolWindowFactory, DumbAware {
+
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        ViewContractPanel panel = new ViewContractPanel(project);
+        Content content = ContentFactory.getInstance().createContent(panel, "", false);
+        content.setDisposer(panel);
+        toolWindow.getContentManager().addContent(content);
+    }
+}
@@ -14,10 +14,18 @@ import com.intellij.openapi.diagnostic.Logger;
  * - IntelliJ IDEがInternal Modeで実行されている場合
  * - IntelliJ IDEがEAP (Early Access Program) ビルドの場合
  * のいずれかの条件を満たした場合のみログを出力
+ * 標準出力への出力はシステムプロパティ "phpstormpluginviewvariable.debug.stdout" が "true" の場合のみ行う。
+ * 解決結果の追跡には ResolutionTrace を使う。
  */
 public class Log {
     
     private static final boolean DEBUG_ENABLED = isDebugEnabled();
+
+    /**
+     * 標準出力にもログを出力するか（システムプロパティ "phpstormpluginviewvariable.debug.stdout" が "true" の場合のみ）
+     * 標準出力はスレッド間で直列化されて遅くなるため、既定では出力しない。
+     */
+    private static final boolean STDOUT_ENABLED = Boolean.getBoolean("phpstormpluginviewvariable.debug.stdout");
     
     /**
      * デバッグモードが有効かどうかを判定
@@ -133,6 +141,10 @@ public class Log {
                 break;
         }
 
+        if (!STDOUT_ENABLED) {
+            return;
+        }
+
         var threadId = Thread.currentThread().threadId();
 
         // 標準出力にも出力（デバッグ用）
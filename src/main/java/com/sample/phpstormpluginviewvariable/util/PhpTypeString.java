@@ -1,13 +1,52 @@
 package com.sample.phpstormpluginviewvariable.util;
 
+import com.intellij.util.containers.Interner;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class PhpTypeString {
 
+    /**
+     * 表示用文字列のキャッシュの上限。超えた場合はキャッシュ全体を破棄する。
+     */
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    /**
+     * 型の集合 -> 表示用文字列。
+     * 補完の候補ごと・キー入力ごとに同じ型の文字列を作り直さないよう、PhpTypeの型の集合をキーにしてキャッシュする。
+     * ViewCacheManagerで管理せずstaticに保持するが、件数はMAX_CACHE_SIZEで制限され、
+     * 型名の文字列だけを持ちPSI・VirtualFile・プロジェクトを参照しないため、プロジェクトを閉じても何も残らない。
+     */
+    private static final Map<Set<String>, String> DISPLAY_STRINGS = new ConcurrentHashMap<>();
+
+    /**
+     * 表示用文字列のインターナー。同じ表示用文字列は同じインスタンスを共有する。
+     */
+    private static final Interner<String> INTERNER = Interner.createWeakInterner();
+
     /**
      * PhpTypeから安全な文字列表現を取得
      */
     public static String getSafeTypeString(PhpType type) {
+        Set<String> key = type.getTypes();
+        String cached = DISPLAY_STRINGS.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        String typeString = INTERNER.intern(computeSafeTypeString(type));
+        if (DISPLAY_STRINGS.size() >= MAX_CACHE_SIZE) {
+            DISPLAY_STRINGS.clear();
+        }
+        // PhpTypeは作成後もadd・mergeなどで型の集合が変更されるため、変更されない複製をキーにする
+        DISPLAY_STRINGS.put(Set.copyOf(key), typeString);
+        return typeString;
+    }
+
+    private static String computeSafeTypeString(PhpType type) {
         try {
             // まずtoStringResolvedを試す
             String resolved = type.toStringResolved();
@@ -49,7 +88,8 @@ public class PhpTypeString {
             return false;
         }
 
-        for (char c : str.toCharArray()) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
             if (c < 32 || c > 126) {
                 if (c != '|' && c != '?' && c != '[' && c != ']' && c != '\\') {
                     return false;
@@ -60,34 +100,58 @@ public class PhpTypeString {
     }
 
     /**
-     * 型文字列をクリーンアップ（先頭のバックスラッシュを除去）
+     * 型文字列をクリーンアップ（各型の前後の空白と先頭のバックスラッシュを除去）
+     * 除去するものが無い場合は文字列をコピーせずにそのまま返す。
      */
     public static String cleanTypeString(String typeStr) {
-        if (typeStr == null || typeStr.isEmpty()) {
+        if (typeStr == null || typeStr.isEmpty() || !needsCleaning(typeStr)) {
             return typeStr;
         }
 
-        if (typeStr.startsWith("\\")) {
-            typeStr = typeStr.substring(1);
-        }
+        StringBuilder cleaned = new StringBuilder(typeStr.length());
+        int length = typeStr.length();
+        int start = 0;
+        while (start <= length) {
+            int end = typeStr.indexOf('|', start);
+            if (end == -1) {
+                end = length;
+            }
 
-        if (typeStr.contains("|")) {
-            String[] parts = typeStr.split("\\|");
-            StringBuilder cleaned = new StringBuilder();
-            for (int i = 0; i < parts.length; i++) {
-                if (i > 0) {
-                    cleaned.append("|");
-                }
-                String part = parts[i].trim();
-                if (part.startsWith("\\")) {
-                    part = part.substring(1);
-                }
-                cleaned.append(part);
+            // 前後の空白と先頭のバックスラッシュを除いた範囲を追加する
+            int partStart = start;
+            int partEnd = end;
+            while (partStart < partEnd && Character.isWhitespace(typeStr.charAt(partStart))) {
+                partStart++;
+            }
+            while (partEnd > partStart && Character.isWhitespace(typeStr.charAt(partEnd - 1))) {
+                partEnd--;
+            }
+            if (partStart < partEnd && typeStr.charAt(partStart) == '\\') {
+                partStart++;
             }
-            return cleaned.toString();
+
+            if (start > 0) {
+                cleaned.append('|');
+            }
+            cleaned.append(typeStr, partStart, partEnd);
+            start = end + 1;
         }
+        return cleaned.toString();
+    }
 
-        return typeStr;
+    /**
+     * 型文字列に除去が必要な空白・先頭のバックスラッシュが含まれるかチェック
+     */
+    private static boolean needsCleaning(String typeStr) {
+        boolean partStart = true;
+        for (int i = 0; i < typeStr.length(); i++) {
+            char c = typeStr.charAt(i);
+            if (Character.isWhitespace(c) || (partStart && c == '\\')) {
+                return true;
+            }
+            partStart = c == '|';
+        }
+        return false;
     }
 
     /**
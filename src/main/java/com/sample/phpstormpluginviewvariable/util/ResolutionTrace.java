@@ -0,0 +1,133 @@
+package com.sample.phpstormpluginviewvariable.util;
+
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ResolutionTrace
+ * 変数・型の解決結果（入口・Viewファイル・Controller・アクション・キャッシュのヒット/ミス・所要時間）を
+ * 固定長のリングバッファに記録する。
+ * 記録はロックを取らずに配列へ書き込むだけで、I/Oを伴わないため補完や型推論のスレッドを遅くしない。
+ * 古いイベントは新しいイベントで上書きされる。内容は DumpResolutionTraceAction でファイルに出力する。
+ * 記録はレジストリキー phpstormpluginviewvariable.resolution.trace が有効な場合のみ行い、無効な場合はイベントを作成しない。
+ * バッファはViewCacheManagerで管理せずstaticに保持するが、件数はCAPACITYで固定され、イベントは文字列と数値だけを持ち
+ * PSI・VirtualFile・プロジェクトを参照しない（Viewファイルはパスの文字列として記録する）。
+ */
+public class ResolutionTrace {
+    private static final String REGISTRY_KEY = "phpstormpluginviewvariable.resolution.trace";
+
+    /**
+     * 保持するイベント数（2のべき乗）
+     */
+    private static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final AtomicReferenceArray<Event> EVENTS = new AtomicReferenceArray<>(CAPACITY);
+
+    /**
+     * 記録が有効かどうかを返す。記録する内容の組み立てに手間がかかる呼び出し元は、先にこれを確認する。
+     */
+    public static boolean isEnabled() {
+        return Registry.is(REGISTRY_KEY, false);
+    }
+
+    /**
+     * 解決結果を記録する。記録が無効な場合は何もしない（Viewファイルのパスも作らない）。
+     *
+     * @param entryPoint 呼び出し元（TypeProvider・補完など）
+     * @param viewFile Viewファイル（無い場合はnull）
+     * @param controller Controllerファイル名（無い場合はnull）
+     * @param action アクションメソッド名・変数名など（無い場合はnull）
+     * @param hit キャッシュにヒットした・解決できた場合はtrue
+     * @param startNanos System.nanoTime() で取得した開始時刻
+     */
+    public static void record(@NotNull String entryPoint,
+                              @Nullable VirtualFile viewFile,
+                              @Nullable String controller,
+                              @Nullable String action,
+                              boolean hit,
+                              long startNanos) {
+        if (!isEnabled()) {
+            return;
+        }
+        String viewPath = viewFile != null ? viewFile.getPath() : null;
+        long now = System.nanoTime();
+        long sequence = SEQUENCE.getAndIncrement();
+        EVENTS.set((int) (sequence & MASK), new Event(sequence, System.currentTimeMillis(), Thread.currentThread().getName(),
+                entryPoint, viewPath, controller, action, hit, now - startNanos));
+    }
+
+    /**
+     * 保持しているイベントを古い順に返す。
+     */
+    @NotNull
+    public static List<Event> snapshot() {
+        long end = SEQUENCE.get();
+        long start = Math.max(0, end - CAPACITY);
+        List<Event> events = new ArrayList<>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            Event event = EVENTS.get(i);
+            // 読み取り中に上書きされたイベントは除外する
+            if (event != null && event.sequence >= start && event.sequence < end) {
+                events.add(event);
+            }
+        }
+        events.sort(Comparator.comparingLong(event -> event.sequence));
+        return events;
+    }
+
+    /**
+     * 解決結果1件分のイベント
+     */
+    public static final class Event {
+        private final long sequence;
+        private final long timestamp;
+        private final String thread;
+        private final String entryPoint;
+        private final String viewPath;
+        private final String controller;
+        private final String action;
+        private final boolean hit;
+        private final long durationNanos;
+
+        private Event(long sequence, long timestamp, String thread, String entryPoint,
+                      String viewPath, String controller, String action, boolean hit, long durationNanos) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.thread = thread;
+            this.entryPoint = entryPoint;
+            this.viewPath = viewPath;
+            this.controller = controller;
+            this.action = action;
+            this.hit = hit;
+            this.durationNanos = durationNanos;
+        }
+
+        /**
+         * タブ区切りの1行に変換する。
+         */
+        @NotNull
+        public String toTsv() {
+            return sequence + "\t" + timestamp + "\t" + thread + "\t" + entryPoint + "\t"
+                    + (viewPath != null ? viewPath : "") + "\t"
+                    + (controller != null ? controller : "") + "\t"
+                    + (action != null ? action : "") + "\t"
+                    + (hit ? "hit" : "miss") + "\t"
+                    + durationNanos / 1000;
+        }
+
+        /**
+         * toTsvの列名
+         */
+        public static final String TSV_HEADER = "seq\ttimestamp\tthread\tentry\tview\tcontroller\taction\tresult\tduration_us";
+    }
+}
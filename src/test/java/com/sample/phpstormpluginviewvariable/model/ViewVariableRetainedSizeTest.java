@@ -0,0 +1,183 @@
+package com.sample.phpstormpluginviewvariable.model;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.PhpTypedElement;
+import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ViewVariableRetainedSizeTest
+ * 変数テーブルにキャッシュされるViewVariableが、ControllerのPSI（AST）を保持せず、
+ * 保持するデータの大きさがControllerのサイズに依存しないことを確認する。
+ */
+public class ViewVariableRetainedSizeTest extends BasePlatformTestCase {
+    /**
+     * 1つのViewVariableが保持してよい推定バイト数の上限
+     */
+    private static final long MAX_BYTES_PER_VARIABLE = 4096;
+
+    public void testViewVariableDoesNotRetainControllerPsi() {
+        List<ViewVariable> variables = createViewVariables(50);
+
+        RetainedGraph graph = RetainedGraph.walk(variables);
+        assertEmpty(graph.retainedPsi);
+        assertTrue("Retained ~" + graph.estimatedBytes + " bytes for " + variables.size() + " variables",
+                graph.estimatedBytes < MAX_BYTES_PER_VARIABLE * variables.size());
+    }
+
+    public void testRetainedSizeDoesNotGrowWithControllerSize() {
+        RetainedGraph small = RetainedGraph.walk(createViewVariables(10));
+        RetainedGraph large = RetainedGraph.walk(createViewVariables(5000));
+
+        assertEmpty(large.retainedPsi);
+        assertEquals(small.objectCount, large.objectCount);
+    }
+
+    /**
+     * アクションの前に指定した行数の処理を持つControllerを作成し、setVarごとのViewVariableを、
+     * キャッシュされる値（型の表示文字列・配列シェイプ・PHPDoc）を計算した状態で返す。
+     */
+    private List<ViewVariable> createViewVariables(int paddingStatements) {
+        StringBuilder text = new StringBuilder("<?php\n\nclass SampleController\n{\n    public function indexAction(): void\n    {\n");
+        for (int i = 0; i < paddingStatements; i++) {
+            text.append("        $unused").append(i).append(" = ['index' => ").append(i).append(", 'label' => 'row'];\n");
+        }
+        text.append("        /** @var int $count */\n");
+        text.append("        $this->setVar('count', 42);\n");
+        text.append("        $this->setVar('label', 'sum');\n");
+        text.append("        $this->setVar('rows', ['id' => 1, 'name' => 'row']);\n");
+        text.append("    }\n}\n");
+        PsiFile file = myFixture.configureByText("SampleController.php", text.toString());
+
+        List<ViewVariable> variables = new ArrayList<>();
+        for (MethodReference call : PsiTreeUtil.findChildrenOfType(file, MethodReference.class)) {
+            PsiElement[] args = call.getParameters();
+            if (!"setVar".equals(call.getName()) || args.length < 2) {
+                continue;
+            }
+            String name = args[0].getText().replace("'", "");
+            PhpType type = args[1] instanceof PhpTypedElement typed ? typed.getType() : PhpType.EMPTY;
+            ViewVariable variable = new ViewVariable(name, type, call);
+            variable.getTypeText(getProject());
+            variable.getArrayShape();
+            variable.getDocComment();
+            variables.add(variable);
+        }
+        assertEquals(3, variables.size());
+        return variables;
+    }
+
+    /**
+     * ルートから到達できるオブジェクトの数と推定バイト数、到達できるPSIを集計する。
+     * VirtualFile・Project・SmartPsiElementPointer・弱参照の先は、キャッシュが保持するデータに含めない。
+     */
+    private static final class RetainedGraph {
+        final List<String> retainedPsi = new ArrayList<>();
+        int objectCount;
+        long estimatedBytes;
+
+        static RetainedGraph walk(Object root) {
+            RetainedGraph graph = new RetainedGraph();
+            Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<Object> queue = new ArrayDeque<>();
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                Object object = queue.poll();
+                if (!visited.add(object) || isExternal(object)) {
+                    continue;
+                }
+                if (object instanceof PsiElement || object instanceof ASTNode) {
+                    graph.retainedPsi.add(object.getClass().getName());
+                    continue;
+                }
+                graph.objectCount++;
+                graph.estimatedBytes += graph.visitChildren(object, queue);
+            }
+            return graph;
+        }
+
+        private static boolean isExternal(Object object) {
+            return object instanceof VirtualFile || object instanceof Project || object instanceof SmartPsiElementPointer
+                    || object instanceof Reference || object instanceof Class || object instanceof Enum;
+        }
+
+        /**
+         * 子のオブジェクトをキューに追加し、オブジェクト自身の推定バイト数を返す。
+         */
+        private long visitChildren(Object object, Deque<Object> queue) {
+            if (object instanceof String string) {
+                return 40 + 2L * string.length();
+            }
+            if (object.getClass().isArray()) {
+                int length = Array.getLength(object);
+                if (!object.getClass().getComponentType().isPrimitive()) {
+                    for (int i = 0; i < length; i++) {
+                        addIfNotNull(queue, Array.get(object, i));
+                    }
+                }
+                return 16 + 8L * length;
+            }
+            if (object instanceof Collection<?> collection) {
+                collection.forEach(element -> addIfNotNull(queue, element));
+                return 32 + 16L * collection.size();
+            }
+            if (object instanceof Map<?, ?> map) {
+                map.forEach((key, value) -> {
+                    addIfNotNull(queue, key);
+                    addIfNotNull(queue, value);
+                });
+                return 48 + 32L * map.size();
+            }
+            if (object.getClass().getName().startsWith("java.")) {
+                return 16;
+            }
+
+            long bytes = 16;
+            for (Class<?> type = object.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    bytes += 8;
+                    if (field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    try {
+                        addIfNotNull(queue, field.get(object));
+                    } catch (IllegalAccessException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        private static void addIfNotNull(Deque<Object> queue, Object object) {
+            if (object != null) {
+                queue.add(object);
+            }
+        }
+    }
+}